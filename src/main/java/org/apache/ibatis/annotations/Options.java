@@ -63,4 +63,12 @@ public @interface Options {
   String keyColumn() default "";
   
   String resultSets() default "";
+
+  /**
+   * The comma separated tables read by a select or written by an insert, update or delete, used to invalidate
+   * caches by table. By default they are found in the SQL.
+   *
+   * @since 3.5.0
+   */
+  String tables() default "";
 }
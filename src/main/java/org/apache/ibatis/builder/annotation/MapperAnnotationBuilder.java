@@ -385,7 +385,9 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          options != null ? nullOrEmpty(options.resultSets()) : null);
+          options != null ? nullOrEmpty(options.resultSets()) : null,
+          // Tables
+          options != null ? nullOrEmpty(options.tables()) : null);
     }
   }
   
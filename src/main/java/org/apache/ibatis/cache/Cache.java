@@ -15,6 +15,10 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 /**
@@ -54,6 +58,58 @@ public interface Cache {
    */
   void putObject(Object key, Object value);
 
+  /**
+   * Puts a value together with a loader that executes the select again. Decorators that refresh entries in the
+   * background keep the loader, the others ignore it.
+   *
+   * @param key Can be any object but usually it is a {@link CacheKey}
+   * @param value The result of a select.
+   * @param loader Executes the select again and returns its result, may be null
+   * @since 3.5.0
+   */
+  default void putObject(Object key, Object value, Callable<?> loader) {
+    putObject(key, value);
+  }
+
+  /**
+   * Tells whether this cache keeps the loaders given to {@link #putObject(Object, Object, Callable)}. The executor
+   * only creates loaders for the caches that return true, and decorators return the answer of their delegate.
+   *
+   * @return true if the loaders are used, to refresh entries or to find the tables of entries for example
+   * @since 3.5.0
+   */
+  default boolean usesLoaders() {
+    return false;
+  }
+
+  /**
+   * Puts several values at once. Caches that lock override it to take their lock once for all the values.
+   *
+   * @param entries The values by key
+   * @since 3.5.0
+   */
+  default void putAll(Map<?, ?> entries) {
+    putAll(entries, Collections.emptyMap());
+  }
+
+  /**
+   * Puts several values at once, with the loaders of those that have one.
+   *
+   * @param entries The values by key
+   * @param loaders The loaders by key, see {@link #putObject(Object, Object, Callable)}
+   * @since 3.5.0
+   */
+  default void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      Callable<?> loader = loaders.get(entry.getKey());
+      if (loader != null) {
+        putObject(entry.getKey(), entry.getValue(), loader);
+      } else {
+        putObject(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
   /**
    * @param key The key
    * @return The object stored in the cache.
@@ -76,11 +132,46 @@ public interface Cache {
    */
   Object removeObject(Object key);
 
+  /**
+   * Removes several keys at once, see {@link #removeObject(Object)}.
+   *
+   * @param keys The keys
+   * @since 3.5.0
+   */
+  default void removeAll(Collection<?> keys) {
+    for (Object key : keys) {
+      removeObject(key);
+    }
+  }
+
   /**
    * Clears this cache instance
    */  
   void clear();
 
+  /**
+   * Removes the entries that were read from any of the given tables and keeps the others. Only caches that know the
+   * tables of their entries (see {@link QueryLoader}) support it, the others return false and are cleared instead.
+   *
+   * @param tables The lower-cased names of the written tables
+   * @return false if this cache does not support invalidation by table and nothing was removed
+   * @since 3.5.0
+   */
+  default boolean invalidate(Collection<String> tables) {
+    return false;
+  }
+
+  /**
+   * Tells whether this cache supports {@link #invalidate(Collection)}. The executor only looks for the tables written
+   * by a statement when the cache returns true, and decorators return the answer of their delegate.
+   *
+   * @return true if this cache removes entries by table
+   * @since 3.5.0
+   */
+  default boolean supportsInvalidation() {
+    return false;
+  }
+
   /**
    * Optional. This method is not called by the core.
    * 
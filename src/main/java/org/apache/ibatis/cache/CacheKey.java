@@ -41,10 +41,17 @@ public class CacheKey implements Cloneable, Serializable {
   private List<Object> updateList;
 
   public CacheKey() {
+    this(true);
+  }
+
+  /*
+  * 自己保存各个部分的子类不需要 updateList
+  * */
+  CacheKey(boolean withUpdateList) {
     this.hashcode = DEFAULT_HASHCODE;
     this.multiplier = DEFAULT_MULTIPLYER;
     this.count = 0;
-    this.updateList = new ArrayList<>();
+    this.updateList = withUpdateList ? new ArrayList<>() : null;
   }
 
   public CacheKey(Object[] objects) {
@@ -53,19 +60,32 @@ public class CacheKey implements Cloneable, Serializable {
   }
 
   public int getUpdateCount() {
-    return updateList.size();
+    return count;
   }
 
   public void update(Object object) {
+    updateHash(object);
+    updateList.add(object);
+  }
+
+  /*
+  * 更新 hashcode、checksum 和 count，返回这个部分的 hash，自己保存各个部分的子类也调用它
+  * */
+  int updateHash(Object object) {
     int baseHashCode = object == null ? 1 : ArrayUtil.hashCode(object); 
 
     count++;
     checksum += baseHashCode;
-    baseHashCode *= count;
 
-    hashcode = multiplier * hashcode + baseHashCode;
+    hashcode = multiplier * hashcode + baseHashCode * count;
+    return baseHashCode;
+  }
 
-    updateList.add(object);
+  /*
+  * 第 index 个部分，自己保存各个部分的子类覆盖它
+  * */
+  Object getComponent(int index) {
+    return updateList.get(index);
   }
 
   public void updateAll(Object[] objects) {
@@ -95,9 +115,9 @@ public class CacheKey implements Cloneable, Serializable {
       return false;
     }
 
-    for (int i = 0; i < updateList.size(); i++) {
-      Object thisObject = updateList.get(i);
-      Object thatObject = cacheKey.updateList.get(i);
+    for (int i = 0; i < count; i++) {
+      Object thisObject = getComponent(i);
+      Object thatObject = cacheKey.getComponent(i);
       if (!ArrayUtil.equals(thisObject, thatObject)) {
         return false;
       }
@@ -113,8 +133,8 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public String toString() {
     StringBuilder returnValue = new StringBuilder().append(hashcode).append(':').append(checksum);
-    for (Object object : updateList) {
-      returnValue.append(':').append(ArrayUtil.toString(object));
+    for (int i = 0; i < count; i++) {
+      returnValue.append(':').append(ArrayUtil.toString(getComponent(i)));
     }
     return returnValue.toString();
   }
@@ -122,7 +142,9 @@ public class CacheKey implements Cloneable, Serializable {
   @Override
   public CacheKey clone() throws CloneNotSupportedException {
     CacheKey clonedCacheKey = (CacheKey) super.clone();
-    clonedCacheKey.updateList = new ArrayList<>(updateList);
+    if (updateList != null) {
+      clonedCacheKey.updateList = new ArrayList<>(updateList);
+    }
     return clonedCacheKey;
   }
 
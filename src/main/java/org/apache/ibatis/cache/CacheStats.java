@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * Snapshot of the statistics of a cache, as recorded by {@link org.apache.ibatis.cache.decorators.MetricsCache}.
+ *
+ * @see org.apache.ibatis.session.Configuration#getCacheStats()
+ * @since 3.5.0
+ */
+public class CacheStats {
+
+  private final String id;
+  private final long hitCount;
+  private final long missCount;
+  private final long putCount;
+  private final long evictionCount;
+  private final long loadCount;
+  private final long totalLoadTime;
+  private final int size;
+
+  public CacheStats(String id, long hitCount, long missCount, long putCount, long evictionCount, long loadCount,
+      long totalLoadTime, int size) {
+    this.id = id;
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.putCount = putCount;
+    this.evictionCount = evictionCount;
+    this.loadCount = loadCount;
+    this.totalLoadTime = totalLoadTime;
+    this.size = size;
+  }
+
+  /**
+   * @return The id of the cache, usually the namespace
+   */
+  public String getId() {
+    return id;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getRequestCount() {
+    return hitCount + missCount;
+  }
+
+  /**
+   * @return The ratio of hits to requests, 0 if the cache was never read
+   */
+  public double getHitRatio() {
+    long requestCount = getRequestCount();
+    return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+  }
+
+  public long getPutCount() {
+    return putCount;
+  }
+
+  /**
+   * @return The number of entries removed by the eviction and expiration decorators. Always 0 for cache
+   *     implementations that evict internally.
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return The number of selects executed after a miss
+   */
+  public long getLoadCount() {
+    return loadCount;
+  }
+
+  /**
+   * @return The total time spent in selects executed after a miss, in nanoseconds
+   */
+  public long getTotalLoadTime() {
+    return totalLoadTime;
+  }
+
+  /**
+   * @return The average time of a select executed after a miss, in nanoseconds
+   */
+  public double getAverageLoadTime() {
+    return loadCount == 0 ? 0 : (double) totalLoadTime / loadCount;
+  }
+
+  /**
+   * @return The number of entries, as reported by the cache
+   */
+  public int getSize() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats [id=" + id + ", hitCount=" + hitCount + ", missCount=" + missCount + ", putCount=" + putCount
+        + ", evictionCount=" + evictionCount + ", loadCount=" + loadCount + ", totalLoadTime=" + totalLoadTime
+        + ", size=" + size + "]";
+  }
+
+}
@@ -0,0 +1,116 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Arrays;
+
+import org.apache.ibatis.reflection.ArrayUtil;
+
+/**
+ * The {@link CacheKey} created by the executors for statements. It keeps its components in a flat array sized for
+ * the statement instead of a list, and also mixes their hash codes into a 64 bit hash, so that two such keys of
+ * different statements or parameters are told apart by the hash before any component is compared. Components are
+ * compared by reference first, which is enough for the statement id and, for static SQL, the SQL string.
+ * <p>
+ * Its hash code, string and equality are those of a {@link CacheKey} with the same components, so both kinds of keys
+ * can be used to look up the same entries. Like {@link CacheKey} it can still be updated, for example by plugins that
+ * add their own components.
+ *
+ * @since 3.5.0
+ */
+public final class CompactCacheKey extends CacheKey {
+
+  private static final long serialVersionUID = -3526423823564735386L;
+
+  private static final long SEED = 0x9E3779B97F4A7C15L;
+  private static final long MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+  private Object[] components;
+  private long hash;
+
+  public CompactCacheKey() {
+    this(8);
+  }
+
+  /**
+   * @param expectedSize The number of components that will be added, the array grows beyond it
+   */
+  public CompactCacheKey(int expectedSize) {
+    super(false);
+    this.components = new Object[Math.max(expectedSize, 1)];
+    this.hash = SEED;
+  }
+
+  public CompactCacheKey(Object[] objects) {
+    this(objects.length);
+    updateAll(objects);
+  }
+
+  @Override
+  public void update(Object object) {
+    int baseHashCode = updateHash(object);
+    // 部分的个数由 CacheKey 统计
+    int index = getUpdateCount() - 1;
+    if (index == components.length) {
+      components = Arrays.copyOf(components, index * 2);
+    }
+    components[index] = object;
+    // 与顺序相关的 64 位混合
+    hash = Long.rotateLeft(hash ^ (baseHashCode * SEED), 31) * MULTIPLIER;
+  }
+
+  @Override
+  Object getComponent(int index) {
+    return components[index];
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof CompactCacheKey)) {
+      // 和普通的 CacheKey 按内容比较
+      return super.equals(object);
+    }
+    if (this == object) {
+      return true;
+    }
+    final CompactCacheKey cacheKey = (CompactCacheKey) object;
+    if (hash != cacheKey.hash || getUpdateCount() != cacheKey.getUpdateCount()) {
+      return false;
+    }
+    // 参数在后面，最可能不同，所以从后往前比较
+    for (int i = getUpdateCount() - 1; i >= 0; i--) {
+      Object thisObject = components[i];
+      Object thatObject = cacheKey.components[i];
+      if (thisObject != thatObject && !ArrayUtil.equals(thisObject, thatObject)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  @Override
+  public CompactCacheKey clone() throws CloneNotSupportedException {
+    CompactCacheKey clonedCacheKey = (CompactCacheKey) super.clone();
+    clonedCacheKey.components = components.clone();
+    return clonedCacheKey;
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A message sent through an {@link InvalidationBus}: the cache of a namespace was cleared, or some of its tables
+ * were written, or some of its keys were removed. Messages of the same cache can be merged into one.
+ *
+ * @since 3.5.0
+ */
+public final class Invalidation implements Serializable {
+
+  private static final long serialVersionUID = 4170624434651390172L;
+
+  private final String cacheId;
+  private final boolean clear;
+  private final Set<String> tables;
+  private final Set<Object> keys;
+
+  private Invalidation(String cacheId, boolean clear, Set<String> tables, Set<Object> keys) {
+    this.cacheId = cacheId;
+    this.clear = clear;
+    this.tables = tables;
+    this.keys = keys;
+  }
+
+  public static Invalidation clear(String cacheId) {
+    return new Invalidation(cacheId, true, Collections.emptySet(), Collections.emptySet());
+  }
+
+  public static Invalidation tables(String cacheId, Collection<String> tables) {
+    return new Invalidation(cacheId, false, Collections.unmodifiableSet(new LinkedHashSet<>(tables)),
+        Collections.emptySet());
+  }
+
+  public static Invalidation keys(String cacheId, Collection<?> keys) {
+    return new Invalidation(cacheId, false, Collections.emptySet(),
+        Collections.unmodifiableSet(new LinkedHashSet<>(keys)));
+  }
+
+  /**
+   * @param other An invalidation of the same cache
+   * @return An invalidation that has the effect of both
+   */
+  public Invalidation merge(Invalidation other) {
+    if (!cacheId.equals(other.cacheId)) {
+      throw new IllegalArgumentException("Cannot merge invalidations of caches " + cacheId + " and " + other.cacheId);
+    }
+    if (clear || other.clear) {
+      // 清空包含了其他的失效
+      return clear ? this : other;
+    }
+    Set<String> mergedTables = new LinkedHashSet<>(tables);
+    mergedTables.addAll(other.tables);
+    Set<Object> mergedKeys = new LinkedHashSet<>(keys);
+    mergedKeys.addAll(other.keys);
+    return new Invalidation(cacheId, false, Collections.unmodifiableSet(mergedTables),
+        Collections.unmodifiableSet(mergedKeys));
+  }
+
+  public String getCacheId() {
+    return cacheId;
+  }
+
+  /**
+   * @return true if the whole cache must be cleared
+   */
+  public boolean isClear() {
+    return clear;
+  }
+
+  /**
+   * @return The written tables whose entries must be removed, see {@link Cache#invalidate(Collection)}
+   */
+  public Set<String> getTables() {
+    return tables;
+  }
+
+  /**
+   * @return The keys that must be removed
+   */
+  public Set<Object> getKeys() {
+    return keys;
+  }
+
+  @Override
+  public String toString() {
+    return cacheId + (clear ? " cleared" : " tables " + tables + " keys " + keys);
+  }
+
+}
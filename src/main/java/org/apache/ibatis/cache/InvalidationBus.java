@@ -0,0 +1,53 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.List;
+
+/**
+ * SPI to keep the second level caches of several nodes consistent. Each node clears its own caches when it writes,
+ * and publishes the same invalidations to its peers through the bus, which apply them to their copy of the cache.
+ * <p>
+ * One bus is set on the {@link org.apache.ibatis.session.Configuration} with the {@code cacheInvalidationBus}
+ * setting, and shared by all its caches. Implementations must be thread-safe, and must not deliver the invalidations
+ * of a node back to the node itself.
+ *
+ * @since 3.5.0
+ * @see org.apache.ibatis.cache.impl.LoopbackInvalidationBus
+ * @see org.apache.ibatis.cache.impl.BatchingInvalidationBus
+ */
+public interface InvalidationBus {
+
+  /**
+   * Sends invalidations to the peer nodes. Keys are usually {@link CacheKey}s and must be serializable to be sent
+   * over a network.
+   *
+   * @param invalidations The invalidations, in the order they were made
+   */
+  void publish(List<Invalidation> invalidations);
+
+  /**
+   * @param listener Receives the invalidations published by the peer nodes
+   */
+  void subscribe(InvalidationListener listener);
+
+  /**
+   * @param listener A listener given to {@link #subscribe(InvalidationListener)}, which no longer receives
+   *          invalidations
+   */
+  void unsubscribe(InvalidationListener listener);
+
+}
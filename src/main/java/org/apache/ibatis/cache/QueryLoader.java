@@ -0,0 +1,37 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The loader passed with the entries put by the {@link org.apache.ibatis.executor.CachingExecutor}. Besides
+ * executing the select again, it tells which tables the select reads, so that caches can invalidate the entry
+ * when one of them is written.
+ *
+ * @since 3.5.0
+ * @see Cache#putObject(Object, Object, Callable)
+ * @see Cache#invalidate(java.util.Collection)
+ */
+public interface QueryLoader extends Callable<Object> {
+
+  /**
+   * @return The lower-cased names of the tables read by the select, empty if they are not known
+   */
+  Set<String> getTables();
+
+}
@@ -0,0 +1,46 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI that converts cached values to bytes and back, used by
+ * {@link org.apache.ibatis.cache.decorators.SerializedCache} and {@link org.apache.ibatis.cache.impl.OffHeapCache}.
+ * <p>
+ * Implementations must be thread-safe, return a new copy of the value on every call to {@link #deserialize(byte[])},
+ * and have a public no-argument constructor to be configured by class name with the {@code serializer} cache
+ * property.
+ *
+ * @see org.apache.ibatis.cache.impl.JavaSerializer
+ * @see org.apache.ibatis.cache.impl.CompactSerializer
+ * @since 3.5.0
+ */
+public interface Serializer {
+
+  /**
+   * @param value The value to serialize, may be null
+   * @return The serialized form of the value
+   * @throws CacheException If the value cannot be serialized
+   */
+  byte[] serialize(Object value);
+
+  /**
+   * @param bytes Bytes returned by {@link #serialize(Object)}
+   * @return A new copy of the value
+   * @throws CacheException If the bytes cannot be deserialized
+   */
+  Object deserialize(byte[] bytes);
+
+}
@@ -15,8 +15,10 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.ibatis.cache.decorators.TransactionalCache;
 
@@ -31,6 +33,10 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).clear();
   }
 
+  public void invalidate(Cache cache, Collection<String> tables) {
+    getTransactionalCache(cache).invalidate(tables);
+  }
+
   public Object getObject(Cache cache, CacheKey key) {
     return getTransactionalCache(cache).getObject(key);
   }
@@ -39,6 +45,10 @@ public class TransactionalCacheManager {
     getTransactionalCache(cache).putObject(key, value);
   }
 
+  public void putObject(Cache cache, CacheKey key, Object value, Callable<?> loader) {
+    getTransactionalCache(cache).putObject(key, value, loader);
+  }
+
   public void commit() {
     for (TransactionalCache txCache : transactionalCaches.values()) {
       txCache.commit();
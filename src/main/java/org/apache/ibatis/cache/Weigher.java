@@ -0,0 +1,37 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+/**
+ * SPI that estimates how much memory a cached entry retains, used to bound a cache by weight instead of by number
+ * of entries.
+ * <p>
+ * Implementations must be thread-safe and fast, since the weigher is called on every put. They must have a public
+ * no-argument constructor to be configured by class name with the {@code weigher} cache property.
+ *
+ * @see org.apache.ibatis.cache.decorators.WeightedCache
+ * @since 3.5.0
+ */
+public interface Weigher {
+
+  /**
+   * @param key The key, usually a {@link CacheKey}
+   * @param value The cached value, for example the result list of a select, or its serialized form
+   * @return The approximate number of bytes retained by the entry, never negative
+   */
+  long weigh(Object key, Object value);
+
+}
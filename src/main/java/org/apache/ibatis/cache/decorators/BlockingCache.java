@@ -15,11 +15,13 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
@@ -30,6 +32,11 @@ import org.apache.ibatis.cache.CacheException;
  * Simple and inefficient version of EhCache's BlockingCache decorator.
  * It sets a lock over a cache key when the element is not found in cache.
  * This way, other threads will wait until this element is filled instead of hitting the database.
+ * <p>
+ * Concurrent misses on the same key are coalesced: the first thread to miss registers an in-flight load and queries
+ * the database, the others wait for it to put the value (or release the key) and then read it from the cache. Hits
+ * take no lock, and nothing is kept per key once its load has completed. A thread that waits longer than
+ * {@code timeout} milliseconds stops waiting and queries the database itself.
  *
  * @author Eduardo Macarron
  *
@@ -44,12 +51,12 @@ public class BlockingCache implements Cache {
   private long timeout;
   // 委托的 Cache 对象
   private final Cache delegate;
-  // 缓存键与 可重入锁 对象的映射, 相当于每一个缓存都有一个锁
-  private final ConcurrentHashMap<Object, ReentrantLock> locks;
+  // 正在由某个线程加载的缓存键，加载完成后移除
+  private final ConcurrentHashMap<Object, Flight> flights;
 
   public BlockingCache(Cache delegate) {
     this.delegate = delegate;
-    this.locks = new ConcurrentHashMap<>();
+    this.flights = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -67,75 +74,110 @@ public class BlockingCache implements Cache {
     try {
       delegate.putObject(key, value);
     } finally {
-      // 释放锁
-      releaseLock(key);
+      // 唤醒等待的线程
+      releaseFlight(key);
+    }
+  }
+
+  @Override
+  public boolean usesLoaders() {
+    return delegate.usesLoaders();
+  }
+
+  @Override
+  public void putObject(Object key, Object value, Callable<?> loader) {
+    try {
+      delegate.putObject(key, value, loader);
+    } finally {
+      releaseFlight(key);
+    }
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    try {
+      delegate.putAll(entries, loaders);
+    } finally {
+      for (Object key : entries.keySet()) {
+        releaseFlight(key);
+      }
     }
   }
 
   @Override
   public Object getObject(Object key) {
-    // 先上锁
-    acquireLock(key);
-    // 然后去获取缓存
-    Object value = delegate.getObject(key);
-    if (value != null) {
-      // 假如取到值了，就释放锁
-      releaseLock(key);
+    while (true) {
+      // 命中时不加锁
+      Object value = delegate.getObject(key);
+      if (value != null) {
+        return value;
+      }
+      Flight inFlight = flights.get(key);
+      if (inFlight == null) {
+        inFlight = flights.putIfAbsent(key, new Flight());
+        if (inFlight == null) {
+          // 由当前线程去查询数据库。登记之前可能已经有线程放入了值，再检查一次
+          value = delegate.getObject(key);
+          if (value != null) {
+            releaseFlight(key);
+          }
+          return value;
+        }
+      }
+      if (inFlight.owner == Thread.currentThread() || !inFlight.await(key)) {
+        // 自己正在加载，或者等待超时，直接查询数据库
+        return null;
+      }
+      // 加载完成，重新从缓存中读取。没有放入值时，由某一个等待的线程重新加载
     }
-    return value;
   }
 
   @Override
   public Object removeObject(Object key) {
     // despite of its name, this method is called only to release locks
-    releaseLock(key);
+    releaseFlight(key);
     return null;
   }
 
+  /*
+  * 与 removeObject 不同，真正删除这些 key，同时释放锁
+  * */
+  @Override
+  public void removeAll(Collection<?> keys) {
+    try {
+      delegate.removeAll(keys);
+    } finally {
+      for (Object key : keys) {
+        releaseFlight(key);
+      }
+    }
+  }
+
   @Override
   public void clear() {
     delegate.clear();
   }
 
   @Override
-  public ReadWriteLock getReadWriteLock() {
-    return null;
+  public boolean supportsInvalidation() {
+    return delegate.supportsInvalidation();
   }
 
-  /*
-   * 获取锁对象，假如不存在的话就添加新的锁
-   * */
-  private ReentrantLock getLockForKey(Object key) {
-    return locks.computeIfAbsent(key, k -> new ReentrantLock());
+  @Override
+  public boolean invalidate(Collection<String> tables) {
+    return delegate.invalidate(tables);
   }
 
-  /*
-  * 上锁
-  * */
-  private void acquireLock(Object key) {
-    // 获取锁
-    Lock lock = getLockForKey(key);
-
-    if (timeout > 0) {
-      try {
-        // 如果锁在给定等待时间内没有被另一个线程保持，则获取该锁
-        boolean acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
-        if (!acquired) {
-          throw new CacheException("Couldn't get a lock in " + timeout + " for the key " +  key + " at the cache " + delegate.getId());
-        }
-      } catch (InterruptedException e) {
-        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
-      }
-    } else {
-      // 没超时的话就锁着
-      lock.lock();
-    }
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
   }
 
-  private void releaseLock(Object key) {
-    ReentrantLock lock = locks.get(key);
-    if (lock.isHeldByCurrentThread()) {
-      lock.unlock();
+  private void releaseFlight(Object key) {
+    Flight flight = flights.get(key);
+    if (flight != null && flight.owner == Thread.currentThread()) {
+      flights.remove(key, flight);
+      flight.done.countDown();
     }
   }
 
@@ -146,4 +188,25 @@ public class BlockingCache implements Cache {
   public void setTimeout(long timeout) {
     this.timeout = timeout;
   }
+
+  /*
+  * 一次正在进行的加载
+  * */
+  private class Flight {
+    private final Thread owner = Thread.currentThread();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private boolean await(Object key) {
+      try {
+        if (timeout > 0) {
+          return done.await(timeout, TimeUnit.MILLISECONDS);
+        }
+        done.await();
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CacheException("Got interrupted while trying to acquire lock for key " + key, e);
+      }
+    }
+  }
 }
@@ -0,0 +1,204 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Invalidation;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.InvalidationListener;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Publishes the clears, table invalidations and key removals of a cache to the peer nodes through an
+ * {@link InvalidationBus}, and applies theirs to the cache.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} adds it on top of every cache when the
+ * {@code cacheInvalidationBus} setting is set, custom caches included. {@link #removeObject(Object)} is not
+ * published, since the core only calls it to release the locks of a {@link BlockingCache}.
+ * <p>
+ * The bus only holds the cache weakly: once the cache is no longer referenced, its listener unsubscribes itself on
+ * the next invalidation it receives.
+ *
+ * @since 3.5.0
+ */
+public class BroadcastingCache implements Cache {
+
+  private static final Log log = LogFactory.getLog(BroadcastingCache.class);
+
+  private final Cache delegate;
+  private InvalidationBus invalidationBus;
+  private InvalidationListener listener;
+
+  public BroadcastingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setInvalidationBus(InvalidationBus invalidationBus) {
+    if (this.invalidationBus != null) {
+      this.invalidationBus.unsubscribe(listener);
+      listener = null;
+    }
+    this.invalidationBus = invalidationBus;
+    if (invalidationBus != null) {
+      listener = new WeakListener(this, invalidationBus);
+      invalidationBus.subscribe(listener);
+    }
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public boolean usesLoaders() {
+    return delegate.usesLoaders();
+  }
+
+  @Override
+  public void putObject(Object key, Object value, Callable<?> loader) {
+    delegate.putObject(key, value, loader);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    delegate.removeAll(keys);
+    publish(Invalidation.keys(getId(), keys));
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    publish(Invalidation.clear(getId()));
+  }
+
+  @Override
+  public boolean supportsInvalidation() {
+    return delegate.supportsInvalidation();
+  }
+
+  @Override
+  public boolean invalidate(Collection<String> tables) {
+    if (!delegate.invalidate(tables)) {
+      // 调用者会改为清空整个缓存，那时再发布
+      return false;
+    }
+    publish(Invalidation.tables(getId(), tables));
+    return true;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /*
+  * 应用其他节点发布的失效，不再发布
+  * */
+  private void apply(Invalidation invalidation) {
+    if (!getId().equals(invalidation.getCacheId())) {
+      return;
+    }
+    if (invalidation.isClear()
+        || (!invalidation.getTables().isEmpty() && !delegate.invalidate(invalidation.getTables()))) {
+      delegate.clear();
+      return;
+    }
+    if (!invalidation.getKeys().isEmpty()) {
+      delegate.removeAll(invalidation.getKeys());
+    }
+  }
+
+  private void publish(Invalidation invalidation) {
+    if (invalidationBus == null) {
+      return;
+    }
+    try {
+      invalidationBus.publish(Collections.singletonList(invalidation));
+    } catch (RuntimeException e) {
+      // 本节点的缓存已经失效，不影响当前事务
+      log.warn("Error publishing invalidation of cache " + getId() + ".  Cause: " + e);
+    }
+  }
+
+  /*
+  * 总线只弱引用缓存，缓存被回收后监听器自行退订
+  * */
+  private static class WeakListener implements InvalidationListener {
+
+    private final WeakReference<BroadcastingCache> cache;
+    private final InvalidationBus invalidationBus;
+
+    WeakListener(BroadcastingCache cache, InvalidationBus invalidationBus) {
+      this.cache = new WeakReference<>(cache);
+      this.invalidationBus = invalidationBus;
+    }
+
+    @Override
+    public void onInvalidation(Invalidation invalidation) {
+      BroadcastingCache broadcastingCache = cache.get();
+      if (broadcastingCache == null) {
+        invalidationBus.unsubscribe(this);
+      } else {
+        broadcastingCache.apply(invalidation);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Gives every caller its own copy of the cached values, like {@link SerializedCache}, but by deep copying the result
+ * graph in memory instead of going through a byte stream.
+ * <p>
+ * Each class gets a copy plan once: immutable values such as strings, numbers, enums and {@code java.time} types are
+ * shared, dates, arrays and the common collections and maps are copied, and serializable beans with a default
+ * constructor are instantiated with their {@link org.apache.ibatis.reflection.Reflector} and copied field by field.
+ * Transient fields are not copied: unlike with serialization, where they are left null, zero or false, they keep the
+ * values the default constructor gives them. Other objects, including lazy loading proxies, are copied with Java
+ * serialization.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} uses it instead of {@link SerializedCache} for read/write caches
+ * when the cache properties contain {@code <property name="copyStrategy" value="clone"/>}.
+ *
+ * @since 3.5.0
+ */
+public class CopyingCache implements Cache {
+
+  private final Cache delegate;
+  private final DeepCopier copier = new DeepCopier();
+
+  public CopyingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object object) {
+    if (object == null || object instanceof Serializable) {
+      delegate.putObject(key, copier.copy(object));
+    } else {
+      throw new CacheException("SharedCache failed to make a copy of a non-serializable object: " + object);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object object = delegate.getObject(key);
+    return object == null ? null : copier.copy(object);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+}
@@ -0,0 +1,239 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.impl.JavaSerializer;
+import org.apache.ibatis.cache.impl.SerializationUtil;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+
+/**
+ * Deep copies object graphs with a copy plan computed once per class. Shared and cyclic references are preserved.
+ * Objects that cannot be copied field by field are copied with Java serialization.
+ * <p>
+ * Beans are created with their default constructor and their transient fields are not copied, so a copy holds
+ * whatever value that constructor gives them, field initializers included, where Java serialization would leave
+ * them null, zero or false.
+ */
+class DeepCopier {
+
+  private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+      String.class, Integer.class, Long.class, Double.class, Float.class, Short.class, Byte.class, Boolean.class,
+      Character.class, BigDecimal.class, BigInteger.class, UUID.class, Class.class));
+  private static final Set<Class<?>> COLLECTION_TYPES = new HashSet<>(Arrays.asList(
+      ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, HashMap.class, LinkedHashMap.class));
+
+  private final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  private final ObjectFactory objectFactory = new DefaultObjectFactory();
+  private final Map<Class<?>, CopyPlan> plans = new ConcurrentHashMap<>();
+  private final JavaSerializer javaSerializer = new JavaSerializer();
+
+  Object copy(Object value) {
+    try {
+      return copy(value, new IdentityHashMap<>());
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error copying object.  Cause: " + e, e);
+    }
+  }
+
+  private Object copy(Object value, Map<Object, Object> copies) throws Exception {
+    if (value == null) {
+      return null;
+    }
+    CopyPlan plan = getPlan(value.getClass());
+    if (plan == IMMUTABLE) {
+      return value;
+    }
+    Object copy = copies.get(value);
+    if (copy == null) {
+      copy = plan.copy(value, copies);
+    }
+    return copy;
+  }
+
+  private CopyPlan getPlan(Class<?> type) {
+    CopyPlan plan = plans.get(type);
+    if (plan == null) {
+      plan = newPlan(type);
+      plans.put(type, plan);
+    }
+    return plan;
+  }
+
+  private CopyPlan newPlan(Class<?> type) {
+    if (IMMUTABLE_TYPES.contains(type) || type.isEnum() || Enum.class.isAssignableFrom(type)
+        || (TemporalAccessor.class.isAssignableFrom(type) && type.getName().startsWith("java.time."))) {
+      return IMMUTABLE;
+    }
+    if (type.isArray()) {
+      return type.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY : this::copyArray;
+    }
+    if (Date.class.isAssignableFrom(type) && type.getName().startsWith("java.")) {
+      return DATE;
+    }
+    if (COLLECTION_TYPES.contains(type) || type == TreeSet.class || type == TreeMap.class) {
+      return Map.class.isAssignableFrom(type) ? this::copyMap : this::copyCollection;
+    }
+    CopyPlan beanPlan = newBeanPlan(type);
+    return beanPlan != null ? beanPlan : this::serializeCopy;
+  }
+
+  /*
+  * 按字段复制 SerializationUtil 认可的类。transient 字段不复制，保留默认构造器赋给它们的值
+  * */
+  private CopyPlan newBeanPlan(Class<?> type) {
+    if (!Serializable.class.isAssignableFrom(type) || Proxy.isProxyClass(type) || type.getName().startsWith("java.")
+        || !Reflector.canControlMemberAccessible()) {
+      return null;
+    }
+    Reflector reflector = reflectorFactory.findForClass(type);
+    if (!SerializationUtil.isSerializableBean(type, reflector)) {
+      return null;
+    }
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+    }
+    Constructor<?> constructor = reflector.getDefaultConstructor();
+    constructor.setAccessible(true);
+    Field[] plan = fields.toArray(new Field[0]);
+    return (value, copies) -> {
+      Object copy = constructor.newInstance();
+      copies.put(value, copy);
+      for (Field field : plan) {
+        Class<?> fieldType = field.getType();
+        if (fieldType.isPrimitive()) {
+          field.set(copy, field.get(value));
+        } else {
+          field.set(copy, copy(field.get(value), copies));
+        }
+      }
+      return copy;
+    };
+  }
+
+  private Object copyArray(Object value, Map<Object, Object> copies) throws Exception {
+    int length = Array.getLength(value);
+    Object[] copy = (Object[]) Array.newInstance(value.getClass().getComponentType(), length);
+    copies.put(value, copy);
+    Object[] array = (Object[]) value;
+    for (int i = 0; i < length; i++) {
+      copy[i] = copy(array[i], copies);
+    }
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object copyCollection(Object value, Map<Object, Object> copies) throws Exception {
+    Collection<Object> collection = (Collection<Object>) value;
+    Collection<Object> copy;
+    if (value instanceof TreeSet) {
+      copy = new TreeSet<>(((TreeSet<Object>) value).comparator());
+    } else {
+      copy = (Collection<Object>) objectFactory.create(value.getClass());
+    }
+    copies.put(value, copy);
+    for (Object element : collection) {
+      copy.add(copy(element, copies));
+    }
+    return copy;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object copyMap(Object value, Map<Object, Object> copies) throws Exception {
+    Map<Object, Object> map = (Map<Object, Object>) value;
+    Map<Object, Object> copy;
+    if (value instanceof TreeMap) {
+      copy = new TreeMap<>(((TreeMap<Object, Object>) value).comparator());
+    } else {
+      copy = (Map<Object, Object>) objectFactory.create(value.getClass());
+    }
+    copies.put(value, copy);
+    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+      copy.put(copy(entry.getKey(), copies), copy(entry.getValue(), copies));
+    }
+    return copy;
+  }
+
+  private Object serializeCopy(Object value, Map<Object, Object> copies) {
+    if (!(value instanceof Serializable)) {
+      throw new CacheException("Cannot copy a non-serializable object: " + value);
+    }
+    Object copy = javaSerializer.deserialize(javaSerializer.serialize(value));
+    copies.put(value, copy);
+    return copy;
+  }
+
+  private static final CopyPlan IMMUTABLE = (value, copies) -> value;
+
+  private static final CopyPlan PRIMITIVE_ARRAY = (value, copies) -> {
+    int length = Array.getLength(value);
+    Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+    System.arraycopy(value, 0, copy, 0, length);
+    copies.put(value, copy);
+    return copy;
+  };
+
+  private static final CopyPlan DATE = (value, copies) -> {
+    Object copy = ((Date) value).clone();
+    copies.put(value, copy);
+    return copy;
+  };
+
+  private interface CopyPlan {
+    Object copy(Object value, Map<Object, Object> copies) throws Exception;
+  }
+
+}
@@ -0,0 +1,179 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Counts the entries that the eviction decorators above remove from the base cache, for {@link MetricsCache}.
+ * Removals requested from above the eviction decorators, to invalidate or expire entries or to release blocking
+ * locks, pass through the decorator returned by {@link #excludeRemovals(Cache)} and are not counted.
+ *
+ * @since 3.5.0
+ */
+public class EvictionCountingCache implements Cache {
+
+  private final Cache delegate;
+  private final LongAdder evictions = new LongAdder();
+  // 标记当前线程的删除是由淘汰策略之外的上层发起的
+  private final ThreadLocal<Boolean> externalRemoval = new ThreadLocal<>();
+
+  public EvictionCountingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  /**
+   * @param evictionLayer The eviction decorators built on top of this cache
+   * @return A decorator whose removals are not counted as evictions
+   */
+  public Cache excludeRemovals(Cache evictionLayer) {
+    return new ExternalRemovalCache(evictionLayer);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Object value = delegate.removeObject(key);
+    if (value != null && externalRemoval.get() == null) {
+      evictions.increment();
+    }
+    return value;
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    if (externalRemoval.get() != null) {
+      delegate.removeAll(keys);
+      return;
+    }
+    for (Object key : keys) {
+      removeObject(key);
+    }
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+  * 位于淘汰装饰器之上，经过这里的删除不计入淘汰数
+  * */
+  private final class ExternalRemovalCache implements Cache {
+
+    private final Cache delegate;
+
+    ExternalRemovalCache(Cache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String getId() {
+      return delegate.getId();
+    }
+
+    @Override
+    public int getSize() {
+      return delegate.getSize();
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      delegate.putObject(key, value);
+    }
+
+    @Override
+    public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+      delegate.putAll(entries, loaders);
+    }
+
+    @Override
+    public Object getObject(Object key) {
+      return delegate.getObject(key);
+    }
+
+    @Override
+    public Object removeObject(Object key) {
+      externalRemoval.set(Boolean.TRUE);
+      try {
+        return delegate.removeObject(key);
+      } finally {
+        externalRemoval.remove();
+      }
+    }
+
+    @Override
+    public void removeAll(Collection<?> keys) {
+      externalRemoval.set(Boolean.TRUE);
+      try {
+        delegate.removeAll(keys);
+      } finally {
+        externalRemoval.remove();
+      }
+    }
+
+    @Override
+    public void clear() {
+      delegate.clear();
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock() {
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,312 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Expires entries individually, a given time after they were put (time to live) and/or after they were last read
+ * (time to idle), instead of flushing the whole namespace at once as {@link ScheduledCache} does.
+ * <p>
+ * Expired entries are removed when they are read, and by a background sweeper that runs every
+ * {@code sweepInterval} milliseconds (by default the shorter of the two times) so that entries that are never read
+ * again do not stay in memory. The sweeper thread is shared by all caches and only started once an entry is put.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} adds this decorator when the cache properties contain
+ * {@code timeToLive} or {@code timeToIdle} (in milliseconds), for example
+ * {@code <property name="timeToLive" value="60000"/>} in {@code <cache>} or
+ * {@code @Property(name = "timeToLive", value = "60000")} in {@code @CacheNamespace}. It is added on top of the
+ * synchronized chain and is thread-safe.
+ * <p>
+ * With {@code refreshAhead} set to a fraction of {@code timeToLive}, for example {@code 0.8}, an entry read after
+ * that fraction of its life is reloaded in the background by re-executing its select with the parameters captured
+ * when it was cached, on a new connection. Readers keep receiving the current value meanwhile, so a hot entry is
+ * replaced before it expires instead of sending every reader to the database at once. Only entries put by the
+ * {@link org.apache.ibatis.executor.CachingExecutor} can be refreshed, one at a time per entry, by a single thread
+ * shared by all caches.
+ *
+ * @since 3.5.0
+ */
+public class ExpiringCache implements Cache {
+
+  private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "mybatis-cache-sweeper");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "mybatis-cache-refresher");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final Log log = LogFactory.getLog(ExpiringCache.class);
+
+  private final Cache delegate;
+  // 每个 key 的过期信息，值保存在 delegate 中
+  private final Map<Object, Expiration> expirations = new ConcurrentHashMap<>();
+  private final AtomicBoolean sweeperStarted = new AtomicBoolean();
+  // 0 表示不限制
+  private long timeToLive;
+  private long timeToIdle;
+  private long sweepInterval;
+  // 0 表示不提前刷新
+  private double refreshAhead;
+  private LongSupplier clock = System::currentTimeMillis;
+
+  public ExpiringCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setTimeToLive(long timeToLive) {
+    this.timeToLive = timeToLive;
+  }
+
+  public void setTimeToIdle(long timeToIdle) {
+    this.timeToIdle = timeToIdle;
+  }
+
+  public void setSweepInterval(long sweepInterval) {
+    this.sweepInterval = sweepInterval;
+  }
+
+  public void setRefreshAhead(double refreshAhead) {
+    this.refreshAhead = refreshAhead;
+  }
+
+  /*
+  * 测试用，替换返回当前毫秒数的时钟
+  * */
+  void setClock(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    putObject(key, value, null);
+  }
+
+  @Override
+  public boolean usesLoaders() {
+    return refreshAhead > 0 || delegate.usesLoaders();
+  }
+
+  @Override
+  public void putObject(Object key, Object value, Callable<?> loader) {
+    // 先替换过期信息，正在执行的过期操作就不会删除新的值
+    expirations.put(key, new Expiration(clock.getAsLong(), refreshAhead > 0 ? loader : null));
+    delegate.putObject(key, value);
+    startSweeper();
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    long now = clock.getAsLong();
+    for (Object key : entries.keySet()) {
+      expirations.put(key, new Expiration(now, refreshAhead > 0 ? loaders.get(key) : null));
+    }
+    delegate.putAll(entries, refreshAhead > 0 ? loaders : Collections.emptyMap());
+    startSweeper();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Expiration expiration = expirations.get(key);
+    if (expiration != null) {
+      long now = clock.getAsLong();
+      if (isExpired(expiration, now)) {
+        expire(key, expiration);
+        return null;
+      }
+      Object value = delegate.getObject(key);
+      if (value != null && timeToIdle > 0) {
+        expiration.lastAccess = now;
+      }
+      if (value != null && isDueForRefresh(expiration, now) && expiration.refreshing.compareAndSet(false, true)) {
+        refresh(key, expiration);
+      }
+      return value;
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    expirations.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    expirations.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  /*
+  * 删除所有已经过期的 key。被下层淘汰掉的 key 也会在过期后从这里清除
+  * */
+  void sweep() {
+    long now = clock.getAsLong();
+    for (Map.Entry<Object, Expiration> entry : expirations.entrySet()) {
+      if (isExpired(entry.getValue(), now)) {
+        expire(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private boolean isExpired(Expiration expiration, long now) {
+    return (timeToLive > 0 && now - expiration.created >= timeToLive)
+        || (timeToIdle > 0 && now - expiration.lastAccess >= timeToIdle);
+  }
+
+  private boolean isDueForRefresh(Expiration expiration, long now) {
+    return expiration.loader != null && timeToLive > 0 && now - expiration.created >= timeToLive * refreshAhead;
+  }
+
+  /*
+  * 在后台重新执行查询，期间读取的线程仍然得到旧值
+  * */
+  private void refresh(Object key, Expiration expiration) {
+    REFRESHER.execute(() -> {
+      try {
+        Object value = expiration.loader.call();
+        // 刷新期间条目被删除或者替换时，丢弃刷新的结果
+        expirations.computeIfPresent(key, (k, current) -> {
+          if (current != expiration) {
+            return current;
+          }
+          delegate.putObject(k, value);
+          return new Expiration(clock.getAsLong(), expiration.loader);
+        });
+      } catch (Exception e) {
+        // 条目没有被替换，允许之后的读取再次刷新
+        expiration.refreshing.set(false);
+        log.warn("Error refreshing entry " + key + " of cache " + getId() + ".  Cause: " + e);
+      }
+    });
+  }
+
+  private void expire(Object key, Expiration expiration) {
+    // 只有过期信息没有被新的 put 替换时才删除值，删除过期信息和值是一个原子操作
+    expirations.computeIfPresent(key, (k, current) -> {
+      if (current != expiration) {
+        return current;
+      }
+      delegate.removeObject(k);
+      return null;
+    });
+  }
+
+  private void startSweeper() {
+    if (sweeperStarted.get() || !sweeperStarted.compareAndSet(false, true)) {
+      return;
+    }
+    long interval = sweepInterval;
+    if (interval <= 0) {
+      interval = timeToLive > 0 && timeToIdle > 0 ? Math.min(timeToLive, timeToIdle) : Math.max(timeToLive, timeToIdle);
+    }
+    if (interval > 0) {
+      Sweeper sweeper = new Sweeper(this);
+      sweeper.future = SWEEPER.scheduleWithFixedDelay(sweeper, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static final class Expiration {
+    private final long created;
+    private volatile long lastAccess;
+    // 重新执行查询的加载器，未开启提前刷新时为 null
+    private final Callable<?> loader;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    Expiration(long created, Callable<?> loader) {
+      this.created = created;
+      this.lastAccess = created;
+      this.loader = loader;
+    }
+  }
+
+  /*
+  * 只持有缓存的弱引用，缓存被回收后取消任务
+  * */
+  private static final class Sweeper implements Runnable {
+    private final WeakReference<ExpiringCache> cache;
+    private volatile ScheduledFuture<?> future;
+
+    Sweeper(ExpiringCache cache) {
+      this.cache = new WeakReference<>(cache);
+    }
+
+    @Override
+    public void run() {
+      ExpiringCache expiringCache = cache.get();
+      if (expiringCache == null) {
+        ScheduledFuture<?> scheduled = future;
+        if (scheduled != null) {
+          scheduled.cancel(false);
+        }
+        return;
+      }
+      try {
+        expiringCache.sweep();
+      } catch (RuntimeException e) {
+        // 抛出异常会取消后续的调度，记录后下次再试
+        log.warn("Error sweeping expired entries of cache " + expiringCache.getId() + ".  Cause: " + e);
+      }
+    }
+  }
+
+}
@@ -15,6 +15,10 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -28,14 +32,19 @@ import org.apache.ibatis.logging.LogFactory;
 * 支持打印日志的Cache实现类
 * */
 public class LoggingCache implements Cache {
+  // ConcurrentCache 之上没有 SynchronizedCache，计数需要原子更新
+  private static final AtomicIntegerFieldUpdater<LoggingCache> REQUESTS =
+      AtomicIntegerFieldUpdater.newUpdater(LoggingCache.class, "requests");
+  private static final AtomicIntegerFieldUpdater<LoggingCache> HITS =
+      AtomicIntegerFieldUpdater.newUpdater(LoggingCache.class, "hits");
   // Mybatis 的日志对象
   private final Log log;
   // 委托的 cache 对象
   private final Cache delegate;
   // 统计请求缓存的次数
-  protected int requests = 0;
+  protected volatile int requests = 0;
   // 统计命中缓存的次数
-  protected int hits = 0;
+  protected volatile int hits = 0;
 
   public LoggingCache(Cache delegate) {
     this.delegate = delegate;
@@ -57,15 +66,20 @@ public class LoggingCache implements Cache {
     delegate.putObject(key, object);
   }
 
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+  }
+
   @Override
   public Object getObject(Object key) {
     // 请求次数 ++
-    requests++;
+    REQUESTS.incrementAndGet(this);
     // 获得缓存
     final Object value = delegate.getObject(key);
     // 如果命中缓存，就命中次数++
     if (value != null) {
-      hits++;
+      HITS.incrementAndGet(this);
     }
     if (log.isDebugEnabled()) {
       log.debug("Cache Hit Ratio [" + getId() + "]: " + getHitRatio());
@@ -78,6 +92,11 @@ public class LoggingCache implements Cache {
     return delegate.removeObject(key);
   }
 
+  @Override
+  public void removeAll(Collection<?> keys) {
+    delegate.removeAll(keys);
+  }
+
   @Override
   public void clear() {
     delegate.clear();
@@ -15,8 +15,12 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -68,6 +72,23 @@ public class LruCache implements Cache {
     cycleKeyList(key);
   }
 
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+    // 批量淘汰超出容量的 key
+    List<Object> evicted = new ArrayList<>();
+    for (Object key : entries.keySet()) {
+      keyMap.put(key, key);
+      if (eldestKey != null) {
+        evicted.add(eldestKey);
+        eldestKey = null;
+      }
+    }
+    if (!evicted.isEmpty()) {
+      delegate.removeAll(evicted);
+    }
+  }
+
   @Override
   public Object getObject(Object key) {
     keyMap.get(key); //touch
@@ -79,6 +100,11 @@ public class LruCache implements Cache {
     return delegate.removeObject(key);
   }
 
+  @Override
+  public void removeAll(Collection<?> keys) {
+    delegate.removeAll(keys);
+  }
+
   @Override
   public void clear() {
     delegate.clear();
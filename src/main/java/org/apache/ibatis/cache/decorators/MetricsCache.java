@@ -0,0 +1,150 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+
+/**
+ * Records hits, misses, puts, evictions and load times of a cache with striped counters, which add no contention
+ * between threads.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} adds it as the outermost decorator when the
+ * {@code cacheMetricsEnabled} setting is true, and the {@link org.apache.ibatis.session.Configuration} lists the
+ * statistics of every such cache with {@code getCacheStats()}. Evictions are counted by an
+ * {@link EvictionCountingCache} below the eviction decorators, and loads by the
+ * {@link org.apache.ibatis.executor.CachingExecutor}.
+ *
+ * @since 3.5.0
+ */
+public class MetricsCache implements Cache {
+
+  private final Cache delegate;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder loads = new LongAdder();
+  private final LongAdder loadTime = new LongAdder();
+  // 没有时淘汰次数为 0
+  private EvictionCountingCache evictionCounter;
+
+  public MetricsCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setEvictionCounter(EvictionCountingCache evictionCounter) {
+    this.evictionCounter = evictionCounter;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    puts.increment();
+  }
+
+  @Override
+  public boolean usesLoaders() {
+    return delegate.usesLoaders();
+  }
+
+  @Override
+  public void putObject(Object key, Object value, Callable<?> loader) {
+    delegate.putObject(key, value, loader);
+    puts.increment();
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+    puts.add(entries.size());
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    delegate.removeAll(keys);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public boolean supportsInvalidation() {
+    return delegate.supportsInvalidation();
+  }
+
+  @Override
+  public boolean invalidate(Collection<String> tables) {
+    return delegate.invalidate(tables);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /**
+   * Records a select executed after a miss.
+   *
+   * @param nanos The duration of the select, in nanoseconds
+   */
+  public void recordLoad(long nanos) {
+    loads.increment();
+    loadTime.add(nanos);
+  }
+
+  /**
+   * @return A snapshot of the statistics of this cache
+   */
+  public CacheStats getStats() {
+    return new CacheStats(getId(), hits.sum(), misses.sum(), puts.sum(),
+        evictionCounter == null ? 0 : evictionCounter.getEvictionCount(), loads.sum(), loadTime.sum(), getSize());
+  }
+
+}
@@ -0,0 +1,175 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * Keeps the keys of selects that returned no rows apart from the other entries, in a small LRU map of its own with
+ * a time to live, so that lookups of missing rows are remembered without taking the place of real results in the
+ * eviction decorator below, nor being serialized. A remembered key is read as a new empty list.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} adds this decorator when the cache properties contain
+ * {@code negativeSize}, the number of empty results to keep, for example
+ * {@code <property name="negativeSize" value="1000"/>}. {@code negativeTimeToLive} sets how long they are kept, in
+ * milliseconds, 60000 by default. It is thread-safe.
+ *
+ * @since 3.5.0
+ */
+public class NegativeCache implements Cache {
+
+  private final Cache delegate;
+  // 空结果的 key 和放入的时间，按访问顺序
+  private final Map<Object, Long> negatives = new LinkedHashMap<Object, Long>(16, .75F, true) {
+    private static final long serialVersionUID = -4410302263475640893L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+      return size() > negativeSize;
+    }
+  };
+  private volatile int negativeSize = 256;
+  private long negativeTimeToLive = 60000;
+
+  public NegativeCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setNegativeSize(int negativeSize) {
+    this.negativeSize = negativeSize;
+  }
+
+  public void setNegativeTimeToLive(long negativeTimeToLive) {
+    this.negativeTimeToLive = negativeTimeToLive;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    synchronized (negatives) {
+      return delegate.getSize() + negatives.size();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (isEmptyResult(value)) {
+      remember(key);
+      // 之前的非空结果已经过时
+      delegate.removeObject(key);
+    } else {
+      forget(key);
+      delegate.putObject(key, value);
+    }
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    Map<Object, Object> positives = new HashMap<>();
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      if (isEmptyResult(entry.getValue())) {
+        remember(entry.getKey());
+        delegate.removeObject(entry.getKey());
+      } else {
+        forget(entry.getKey());
+        positives.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (!positives.isEmpty()) {
+      delegate.putAll(positives, loaders);
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    synchronized (negatives) {
+      Long created = negatives.get(key);
+      if (created != null) {
+        if (System.currentTimeMillis() - created < negativeTimeToLive) {
+          return new ArrayList<>();
+        }
+        negatives.remove(key);
+      }
+    }
+    return delegate.getObject(key);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    forget(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void removeAll(Collection<?> keys) {
+    synchronized (negatives) {
+      negatives.keySet().removeAll(keys);
+    }
+    delegate.removeAll(keys);
+  }
+
+  @Override
+  public void clear() {
+    synchronized (negatives) {
+      negatives.clear();
+    }
+    delegate.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private static boolean isEmptyResult(Object value) {
+    return value instanceof Collection && ((Collection<?>) value).isEmpty();
+  }
+
+  private void remember(Object key) {
+    synchronized (negatives) {
+      negatives.put(key, System.currentTimeMillis());
+    }
+  }
+
+  private void forget(Object key) {
+    synchronized (negatives) {
+      negatives.remove(key);
+    }
+  }
+
+}
@@ -29,9 +29,10 @@ public class ScheduledCache implements Cache {
 
   private final Cache delegate;
   // 清空的间隔 毫秒
-  protected long clearInterval;
+  protected volatile long clearInterval;
   // 最后清空时间 毫秒
-  protected long lastClear;
+  // 没有 SynchronizedCache 时由多个线程读写
+  protected volatile long lastClear;
 
   public ScheduledCache(Cache delegate) {
     this.delegate = delegate;
@@ -15,18 +15,17 @@
  */
 package org.apache.ibatis.cache.decorators;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.Serializer;
+import org.apache.ibatis.cache.impl.JavaSerializer;
 import org.apache.ibatis.io.Resources;
 
 /**
@@ -38,11 +37,21 @@ import org.apache.ibatis.io.Resources;
 public class SerializedCache implements Cache {
 
   private final Cache delegate;
+  // 序列化方式，默认使用 Java 序列化
+  private Serializer serializer = new JavaSerializer();
 
   public SerializedCache(Cache delegate) {
     this.delegate = delegate;
   }
 
+  /**
+   * @param serializer The serializer used to copy values, {@link JavaSerializer} by default
+   * @since 3.5.0
+   */
+  public void setSerializer(Serializer serializer) {
+    this.serializer = serializer;
+  }
+
   @Override
   public String getId() {
     return delegate.getId();
@@ -94,25 +103,11 @@ public class SerializedCache implements Cache {
   }
 
   private byte[] serialize(Serializable value) {
-    try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-         ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-      oos.writeObject(value);
-      oos.flush();
-      return bos.toByteArray();
-    } catch (Exception e) {
-      throw new CacheException("Error serializing object.  Cause: " + e, e);
-    }
+    return serializer.serialize(value);
   }
 
   private Serializable deserialize(byte[] value) {
-    Serializable result;
-    try (ByteArrayInputStream bis = new ByteArrayInputStream(value);
-         ObjectInputStream ois = new CustomObjectInputStream(bis)) {
-      result = (Serializable) ois.readObject();
-    } catch (Exception e) {
-      throw new CacheException("Error deserializing object.  Cause: " + e, e);
-    }
-    return result;
+    return (Serializable) serializer.deserialize(value);
   }
 
   public static class CustomObjectInputStream extends ObjectInputStream {
@@ -15,6 +15,9 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -48,6 +51,12 @@ public class SynchronizedCache implements Cache {
     delegate.putObject(key, object);
   }
 
+  // 整批条目只加一次锁
+  @Override
+  public synchronized void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+  }
+
   @Override
   public synchronized Object getObject(Object key) {
     return delegate.getObject(key);
@@ -58,6 +67,11 @@ public class SynchronizedCache implements Cache {
     return delegate.removeObject(key);
   }
 
+  @Override
+  public synchronized void removeAll(Collection<?> keys) {
+    delegate.removeAll(keys);
+  }
+
   @Override
   public synchronized void clear() {
     delegate.clear();
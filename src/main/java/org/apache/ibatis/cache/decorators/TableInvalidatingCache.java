@@ -0,0 +1,203 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.QueryLoader;
+
+/**
+ * Tags every entry with the tables its select reads, so that a write removes only the entries of the written
+ * tables instead of clearing the whole namespace.
+ * <p>
+ * The tables of a statement are declared with its {@code tables} attribute (or {@code @Options(tables = ...)}),
+ * or found in its SQL by {@link org.apache.ibatis.parsing.TableNameParser}. Entries whose tables are unknown, for
+ * example put without a {@link QueryLoader}, are removed by every write.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} adds this decorator when the cache properties contain
+ * {@code <property name="invalidation" value="tables"/>}. It is added on top of the synchronized chain and is
+ * thread-safe. Entries evicted by the decorators below are forgotten when they are missed, and at most
+ * {@code max(1024, 2 * size)} entries are tracked: the oldest ones are removed beyond that.
+ *
+ * @since 3.5.0
+ */
+public class TableInvalidatingCache implements Cache {
+
+  private static final int MIN_TRACKED_ENTRIES = 1024;
+  // 表未知的条目记录在这个名字下，任何写操作都会使其失效
+  private static final String ANY_TABLE = "*";
+
+  private final Cache delegate;
+  // 按放入顺序记录每个 key 的表，超出上限时先删除最旧的
+  private final LinkedHashMap<Object, Set<String>> keyTables = new LinkedHashMap<>();
+  private final Map<String, Set<Object>> tableKeys = new HashMap<>();
+
+  public TableInvalidatingCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    putObject(key, value, null);
+  }
+
+  @Override
+  public boolean usesLoaders() {
+    return true;
+  }
+
+  @Override
+  public synchronized void putObject(Object key, Object value, Callable<?> loader) {
+    delegate.putObject(key, value, loader);
+    untag(key);
+    if (value != null) {
+      tag(key, getTables(loader));
+    }
+  }
+
+  @Override
+  public synchronized void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    delegate.putAll(entries, loaders);
+    for (Map.Entry<?, ?> entry : entries.entrySet()) {
+      untag(entry.getKey());
+      if (entry.getValue() != null) {
+        tag(entry.getKey(), getTables(loaders.get(entry.getKey())));
+      }
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value == null) {
+      synchronized (this) {
+        // 已经被下层淘汰
+        untag(key);
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public synchronized Object removeObject(Object key) {
+    untag(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public synchronized void clear() {
+    keyTables.clear();
+    tableKeys.clear();
+    delegate.clear();
+  }
+
+  @Override
+  public boolean supportsInvalidation() {
+    return true;
+  }
+
+  @Override
+  public synchronized boolean invalidate(Collection<String> tables) {
+    Set<Object> keys = new HashSet<>();
+    for (String table : tables) {
+      Set<Object> tagged = tableKeys.get(table);
+      if (tagged != null) {
+        keys.addAll(tagged);
+      }
+    }
+    Set<Object> untagged = tableKeys.get(ANY_TABLE);
+    if (untagged != null) {
+      keys.addAll(untagged);
+    }
+    for (Object key : keys) {
+      untag(key);
+      delegate.removeObject(key);
+    }
+    return true;
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  @Override
+  public int hashCode() {
+    return delegate.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return delegate.equals(obj);
+  }
+
+  private Set<String> getTables(Callable<?> loader) {
+    Set<String> tables = loader instanceof QueryLoader ? ((QueryLoader) loader).getTables() : null;
+    return tables == null || tables.isEmpty() ? Collections.singleton(ANY_TABLE) : tables;
+  }
+
+  private void tag(Object key, Set<String> tables) {
+    keyTables.put(key, tables);
+    for (String table : tables) {
+      tableKeys.computeIfAbsent(table, k -> new HashSet<>()).add(key);
+    }
+    int maxTrackedEntries = Math.max(MIN_TRACKED_ENTRIES, 2 * delegate.getSize());
+    Iterator<Map.Entry<Object, Set<String>>> eldest = keyTables.entrySet().iterator();
+    while (keyTables.size() > maxTrackedEntries) {
+      // 不再跟踪的条目无法按表失效，所以一并删除
+      Map.Entry<Object, Set<String>> entry = eldest.next();
+      eldest.remove();
+      untagTables(entry.getKey(), entry.getValue());
+      delegate.removeObject(entry.getKey());
+    }
+  }
+
+  private void untag(Object key) {
+    untagTables(key, keyTables.remove(key));
+  }
+
+  private void untagTables(Object key, Set<String> tables) {
+    if (tables != null) {
+      for (String table : tables) {
+        Set<Object> keys = tableKeys.get(table);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+          tableKeys.remove(table);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,246 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.ibatis.cache.Cache;
+
+/**
+ * W-TinyLFU (window tiny least frequently used) cache decorator.
+ * <p>
+ * New keys enter a small LRU window (1% of the size). A key leaving the window is only admitted into the main region
+ * if it has been requested more often than the entry the main region would evict for it; otherwise the new key is
+ * dropped. Request frequencies are estimated by a count-min sketch that is halved periodically, so that old
+ * popularity fades. The main region is a segmented LRU: a key requested again while on probation moves to the
+ * protected segment (80% of the main region). As a result, a scan over many keys that are read once does not push
+ * frequently read entries out of the cache as it does with {@link LruCache}.
+ * <p>
+ * Select it with {@code eviction="TINYLFU"}. Hit ratio statistics are kept to compare it with other policies.
+ *
+ * @since 3.5.0
+ */
+public class TinyLfuCache implements Cache {
+
+  private final Cache delegate;
+  // 三个区域都只记录 key，按访问顺序排列，第一个是最久没有访问的
+  private final Map<Object, Object> window = new LinkedHashMap<>(16, .75F, true);
+  private final Map<Object, Object> probation = new LinkedHashMap<>(16, .75F, true);
+  private final Map<Object, Object> protectedSegment = new LinkedHashMap<>(16, .75F, true);
+  private FrequencySketch sketch;
+  private int windowSize;
+  private int mainSize;
+  private int protectedSize;
+  private long requests;
+  private long hits;
+
+  public TinyLfuCache(Cache delegate) {
+    this.delegate = delegate;
+    setSize(1024);
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  public void setSize(final int size) {
+    this.windowSize = Math.max(1, size / 100);
+    this.mainSize = Math.max(0, size - windowSize);
+    this.protectedSize = (int) (mainSize * 0.8);
+    this.sketch = new FrequencySketch(size);
+  }
+
+  public long getRequestCount() {
+    return requests;
+  }
+
+  public long getHitCount() {
+    return hits;
+  }
+
+  public double getHitRatio() {
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    delegate.putObject(key, value);
+    if (!touch(key)) {
+      window.put(key, key);
+      if (window.size() > windowSize) {
+        Object candidate = removeEldest(window);
+        admit(candidate);
+      }
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    requests++;
+    sketch.increment(key);
+    Object value = delegate.getObject(key);
+    if (value != null) {
+      hits++;
+      touch(key);
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    window.remove(key);
+    probation.remove(key);
+    protectedSegment.remove(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    window.clear();
+    probation.clear();
+    protectedSegment.clear();
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+  * 更新已有 key 的访问顺序，观察期的 key 再次被访问后晋升到保护区。key 不存在时返回 false
+  * */
+  private boolean touch(Object key) {
+    if (window.get(key) != null || protectedSegment.get(key) != null) {
+      return true;
+    }
+    if (probation.remove(key) == null) {
+      return false;
+    }
+    protectedSegment.put(key, key);
+    if (protectedSegment.size() > protectedSize) {
+      // 保护区满了，最久没有访问的 key 降级回观察期
+      Object demoted = removeEldest(protectedSegment);
+      probation.put(demoted, demoted);
+    }
+    return true;
+  }
+
+  /*
+  * 从窗口中淘汰的 key 和主区域将要淘汰的 key 比较访问频率，频率高的留下
+  * */
+  private void admit(Object candidate) {
+    if (probation.size() + protectedSegment.size() < mainSize) {
+      probation.put(candidate, candidate);
+      return;
+    }
+    Map<Object, Object> victimSegment = probation.isEmpty() ? protectedSegment : probation;
+    if (victimSegment.isEmpty()) {
+      delegate.removeObject(candidate);
+      return;
+    }
+    Object victim = victimSegment.keySet().iterator().next();
+    if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+      victimSegment.remove(victim);
+      delegate.removeObject(victim);
+      probation.put(candidate, candidate);
+    } else {
+      delegate.removeObject(candidate);
+    }
+  }
+
+  private static Object removeEldest(Map<Object, Object> segment) {
+    Iterator<Object> iterator = segment.keySet().iterator();
+    Object eldest = iterator.next();
+    iterator.remove();
+    return eldest;
+  }
+
+  /*
+  * Count-min sketch: 每个 key 在 4 行计数器中各对应一个，估计的频率取其中的最小值。
+  * 计数器上限为 15，累计增加次数达到 10 倍容量后所有计数器减半
+  * */
+  static final class FrequencySketch {
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final int MAX_COUNT = 15;
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int size) {
+      int width = Integer.highestOneBit(Math.max(16, size) - 1) << 1;
+      this.table = new byte[SEEDS.length][width];
+      this.mask = width - 1;
+      this.sampleSize = Math.max(10, 10 * size);
+    }
+
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      boolean added = false;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = indexOf(hash, i);
+        if (table[i][index] < MAX_COUNT) {
+          table[i][index]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        reset();
+      }
+    }
+
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < SEEDS.length; i++) {
+        frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+      }
+      return frequency;
+    }
+
+    private void reset() {
+      for (byte[] row : table) {
+        for (int i = 0; i < row.length; i++) {
+          row[i] >>= 1;
+        }
+      }
+      additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+      long h = (hash + SEEDS[row]) * SEEDS[row];
+      h += h >>> 32;
+      return (int) h & mask;
+    }
+
+    private static int spread(int hash) {
+      hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+      return (hash >>> 16) ^ hash;
+    }
+  }
+
+}
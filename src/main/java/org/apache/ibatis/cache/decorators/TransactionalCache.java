@@ -15,10 +15,13 @@
  */
 package org.apache.ibatis.cache.decorators;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -42,14 +45,17 @@ public class TransactionalCache implements Cache {
 
   private final Cache delegate;
   private boolean clearOnCommit;
-  private final Map<Object, Object> entriesToAddOnCommit;
-  private final Set<Object> entriesMissedInCache;
+  // 以下集合在第一次使用时才创建，事务结束后释放。大多数事务只读取缓存，不需要它们
+  // 提交时只使这些表的条目失效，clearOnCommit 为 true 时整个清空
+  private Set<String> tablesToInvalidateOnCommit;
+  private Map<Object, Object> entriesToAddOnCommit;
+  // 待提交条目的加载器，用于后台刷新
+  private Map<Object, Callable<?>> loadersToAddOnCommit;
+  private Set<Object> entriesMissedInCache;
 
   public TransactionalCache(Cache delegate) {
     this.delegate = delegate;
     this.clearOnCommit = false;
-    this.entriesToAddOnCommit = new HashMap<>();
-    this.entriesMissedInCache = new HashSet<>();
   }
 
   @Override
@@ -67,10 +73,13 @@ public class TransactionalCache implements Cache {
     // issue #116
     Object object = delegate.getObject(key);
     if (object == null) {
+      if (entriesMissedInCache == null) {
+        entriesMissedInCache = new HashSet<>();
+      }
       entriesMissedInCache.add(key);
     }
     // issue #146
-    if (clearOnCommit) {
+    if (clearOnCommit || tablesToInvalidateOnCommit != null) {
       return null;
     } else {
       return object;
@@ -84,7 +93,23 @@ public class TransactionalCache implements Cache {
 
   @Override
   public void putObject(Object key, Object object) {
+    putObject(key, object, null);
+  }
+
+  @Override
+  public void putObject(Object key, Object object, Callable<?> loader) {
+    if (entriesToAddOnCommit == null) {
+      entriesToAddOnCommit = new HashMap<>();
+    }
     entriesToAddOnCommit.put(key, object);
+    if (loader != null) {
+      if (loadersToAddOnCommit == null) {
+        loadersToAddOnCommit = new HashMap<>();
+      }
+      loadersToAddOnCommit.put(key, loader);
+    } else if (loadersToAddOnCommit != null) {
+      loadersToAddOnCommit.remove(key);
+    }
   }
 
   @Override
@@ -95,12 +120,35 @@ public class TransactionalCache implements Cache {
   @Override
   public void clear() {
     clearOnCommit = true;
-    entriesToAddOnCommit.clear();
+    tablesToInvalidateOnCommit = null;
+    entriesToAddOnCommit = null;
+    loadersToAddOnCommit = null;
+  }
+
+  /**
+   * Like {@link #clear()}, but on commit only the entries read from the given tables are removed, if the cache
+   * supports it.
+   *
+   * @since 3.5.0
+   */
+  @Override
+  public boolean invalidate(Collection<String> tables) {
+    if (!clearOnCommit) {
+      if (tablesToInvalidateOnCommit == null) {
+        tablesToInvalidateOnCommit = new HashSet<>();
+      }
+      tablesToInvalidateOnCommit.addAll(tables);
+    }
+    entriesToAddOnCommit = null;
+    loadersToAddOnCommit = null;
+    return true;
   }
 
   public void commit() {
     if (clearOnCommit) {
       delegate.clear();
+    } else if (tablesToInvalidateOnCommit != null && !delegate.invalidate(tablesToInvalidateOnCommit)) {
+      delegate.clear();
     }
     flushPendingEntries();
     reset();
@@ -113,22 +161,35 @@ public class TransactionalCache implements Cache {
 
   private void reset() {
     clearOnCommit = false;
-    entriesToAddOnCommit.clear();
-    entriesMissedInCache.clear();
+    tablesToInvalidateOnCommit = null;
+    entriesToAddOnCommit = null;
+    loadersToAddOnCommit = null;
+    entriesMissedInCache = null;
   }
 
+  /*
+  * 一次性把所有条目交给缓存，同步的缓存只加一次锁
+  * */
   private void flushPendingEntries() {
-    for (Map.Entry<Object, Object> entry : entriesToAddOnCommit.entrySet()) {
-      delegate.putObject(entry.getKey(), entry.getValue());
-    }
-    for (Object entry : entriesMissedInCache) {
-      if (!entriesToAddOnCommit.containsKey(entry)) {
-        delegate.putObject(entry, null);
+    Map<Object, Object> entries = entriesToAddOnCommit;
+    if (entriesMissedInCache != null) {
+      if (entries == null) {
+        entries = new HashMap<>();
+      }
+      for (Object entry : entriesMissedInCache) {
+        // 放入 null 以释放阻塞缓存的锁
+        entries.putIfAbsent(entry, null);
       }
     }
+    if (entries != null) {
+      delegate.putAll(entries, loadersToAddOnCommit != null ? loadersToAddOnCommit : Collections.emptyMap());
+    }
   }
 
   private void unlockMissedEntries() {
+    if (entriesMissedInCache == null) {
+      return;
+    }
     for (Object entry : entriesMissedInCache) {
       try {
         delegate.removeObject(entry);
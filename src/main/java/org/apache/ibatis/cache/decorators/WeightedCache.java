@@ -0,0 +1,205 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.Weigher;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
+
+/**
+ * Bounds a cache by the approximate memory its entries retain instead of by their number. Each entry is weighed
+ * with a {@link Weigher} when it is put, and entries that were not read recently are removed while the total weight
+ * exceeds {@code maximumWeight} bytes, with the CLOCK algorithm used by
+ * {@link org.apache.ibatis.cache.impl.ConcurrentCache}. Reads take no lock. An entry heavier than the maximum is not
+ * cached at all.
+ * <p>
+ * {@link org.apache.ibatis.mapping.CacheBuilder} adds this decorator when the cache properties contain
+ * {@code maximumWeight}, for example {@code <property name="maximumWeight" value="67108864"/>}. The
+ * {@code weigher} property takes the class name of a custom {@link Weigher}; by default an
+ * {@link EstimatingWeigher} is used. The decorator is added below {@link SerializedCache}, so a read/write cache
+ * weighs the exact length of the serialized values, and directly on the base cache, below the eviction decorators,
+ * so that the entries they evict release their weight at once. Caches that evict on their own, such as
+ * {@link org.apache.ibatis.cache.impl.ConcurrentCache}, do not report it: the weight of their evicted entries is
+ * released when the entries are next missed or reached by this decorator's own eviction.
+ *
+ * @since 3.5.0
+ */
+public class WeightedCache implements Cache {
+
+  private final Cache delegate;
+  private final ConcurrentHashMap<Object, WeightedKey> weights = new ConcurrentHashMap<>();
+  // CLOCK 算法的环，被删除或者替换的条目留在环中，指针扫过时跳过
+  private final ConcurrentLinkedQueue<WeightedKey> clock = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger staleWeights = new AtomicInteger();
+  private final AtomicLong totalWeight = new AtomicLong();
+  // 同一时间只有一个线程执行淘汰
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private Weigher weigher = new EstimatingWeigher();
+  private long maximumWeight = Long.MAX_VALUE;
+
+  public WeightedCache(Cache delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setWeigher(Weigher weigher) {
+    this.weigher = weigher;
+  }
+
+  public void setMaximumWeight(long maximumWeight) {
+    this.maximumWeight = maximumWeight;
+  }
+
+  public long getTotalWeight() {
+    return totalWeight.get();
+  }
+
+  @Override
+  public String getId() {
+    return delegate.getId();
+  }
+
+  @Override
+  public int getSize() {
+    return delegate.getSize();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    long weight = Math.max(0, weigher.weigh(key, value));
+    if (weight > maximumWeight) {
+      // 单个条目超过上限时不缓存，同时移除旧值
+      removeObject(key);
+      return;
+    }
+    delegate.putObject(key, value);
+    WeightedKey weightedKey = new WeightedKey(key, weight);
+    WeightedKey previous = weights.put(key, weightedKey);
+    totalWeight.addAndGet(weight);
+    if (previous != null) {
+      release(previous);
+    }
+    clock.offer(weightedKey);
+    evictIfNeeded();
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Object value = delegate.getObject(key);
+    if (value == null) {
+      // 已被下层自己淘汰的条目不再计入重量
+      forget(key);
+    } else {
+      WeightedKey weightedKey = weights.get(key);
+      // 已经标记过就不再写，减少缓存行的争用
+      if (weightedKey != null && !weightedKey.referenced) {
+        weightedKey.referenced = true;
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    forget(key);
+    return delegate.removeObject(key);
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+    evictionLock.lock();
+    try {
+      weights.clear();
+      clock.clear();
+      staleWeights.set(0);
+      totalWeight.set(0);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private void forget(Object key) {
+    WeightedKey weightedKey = weights.remove(key);
+    if (weightedKey != null) {
+      release(weightedKey);
+    }
+  }
+
+  private void release(WeightedKey weightedKey) {
+    totalWeight.addAndGet(-weightedKey.weight);
+    staleWeights.incrementAndGet();
+  }
+
+  /*
+  * 指针扫过的条目如果最近被读过，清除标记后放回队尾，否则淘汰。
+  * 环中失效的条目多于有效的条目时一次清理掉，避免只删除不淘汰时环无限增长
+  * */
+  private void evictIfNeeded() {
+    boolean tooHeavy = totalWeight.get() > maximumWeight;
+    if ((!tooHeavy && staleWeights.get() <= weights.size()) || !evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      if (staleWeights.get() > weights.size()) {
+        staleWeights.set(0);
+        clock.removeIf(weightedKey -> weights.get(weightedKey.key) != weightedKey);
+      }
+      while (totalWeight.get() > maximumWeight) {
+        WeightedKey weightedKey = clock.poll();
+        if (weightedKey == null) {
+          break;
+        }
+        if (weights.get(weightedKey.key) != weightedKey) {
+          continue;
+        }
+        if (weightedKey.referenced) {
+          weightedKey.referenced = false;
+          clock.offer(weightedKey);
+        } else if (weights.remove(weightedKey.key, weightedKey)) {
+          totalWeight.addAndGet(-weightedKey.weight);
+          delegate.removeObject(weightedKey.key);
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private static final class WeightedKey {
+    private final Object key;
+    private final long weight;
+    // 上次指针扫过之后是否被读过
+    private volatile boolean referenced;
+
+    WeightedKey(Object key, long weight) {
+      this.key = key;
+      this.weight = weight;
+    }
+  }
+
+}
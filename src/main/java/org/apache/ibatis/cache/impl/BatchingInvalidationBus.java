@@ -0,0 +1,109 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.Invalidation;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.InvalidationListener;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Collects the invalidations published during {@code batchDelay} milliseconds and publishes them to the wrapped bus
+ * as one message, with the invalidations of each cache merged into one: a burst of commits on a node costs its peers
+ * a single message, at the price of leaving their caches stale for up to that delay.
+ * <p>
+ * The {@link org.apache.ibatis.session.Configuration} wraps its bus in this class when the
+ * {@code cacheInvalidationBatchDelay} setting is set. Batches are sent by a daemon thread shared by all instances.
+ *
+ * @since 3.5.0
+ */
+public class BatchingInvalidationBus implements InvalidationBus {
+
+  private static final ScheduledExecutorService SENDER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "mybatis-cache-invalidation");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final Log log = LogFactory.getLog(BatchingInvalidationBus.class);
+
+  private final InvalidationBus delegate;
+  private final long batchDelay;
+  // 每个缓存合并后的失效，按第一次出现的顺序
+  private Map<String, Invalidation> pending = new LinkedHashMap<>();
+
+  public BatchingInvalidationBus(InvalidationBus delegate, long batchDelay) {
+    this.delegate = delegate;
+    this.batchDelay = batchDelay;
+  }
+
+  public InvalidationBus getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public void publish(List<Invalidation> invalidations) {
+    boolean schedule;
+    synchronized (this) {
+      schedule = pending.isEmpty();
+      for (Invalidation invalidation : invalidations) {
+        pending.merge(invalidation.getCacheId(), invalidation, Invalidation::merge);
+      }
+    }
+    if (schedule) {
+      SENDER.schedule(this::flush, batchDelay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void subscribe(InvalidationListener listener) {
+    delegate.subscribe(listener);
+  }
+
+  @Override
+  public void unsubscribe(InvalidationListener listener) {
+    delegate.unsubscribe(listener);
+  }
+
+  /**
+   * Publishes the pending invalidations now.
+   */
+  public void flush() {
+    List<Invalidation> batch;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      batch = new ArrayList<>(pending.values());
+      pending = new LinkedHashMap<>();
+    }
+    try {
+      delegate.publish(batch);
+    } catch (RuntimeException e) {
+      log.warn("Error publishing " + batch.size() + " invalidations.  Cause: " + e);
+    }
+  }
+
+}
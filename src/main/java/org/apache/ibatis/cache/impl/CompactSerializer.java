@@ -0,0 +1,621 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.Serializer;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.reflection.DefaultReflectorFactory;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.ReflectorFactory;
+import org.apache.ibatis.reflection.invoker.Invoker;
+
+/**
+ * {@link Serializer} with a compact binary format for the common shapes of query results, several times faster than
+ * Java serialization.
+ * <p>
+ * It encodes strings, boxed primitives, {@code BigDecimal}, {@code BigInteger}, {@code java.util.Date} and its
+ * {@code java.sql} subclasses, {@code LocalDate}, {@code LocalTime}, {@code LocalDateTime}, {@code Instant},
+ * {@code OffsetDateTime}, enums, {@code byte[]}, {@code Object[]}, {@code ArrayList}, {@code LinkedList},
+ * {@code HashSet}, {@code LinkedHashSet}, {@code HashMap}, {@code LinkedHashMap} and beans. Shared references and
+ * cycles between these objects are preserved. Class names are written once per value.
+ * <p>
+ * A bean is copied property by property, with the {@link Reflector} of its class, when it is {@link Serializable},
+ * has a default constructor, does not customize its serialization, and every instance field is non-transient and
+ * both readable and writable through the reflector. Any other object, including lazy loading proxies, is written
+ * with Java serialization, which keeps its exact semantics.
+ * <p>
+ * Select it with {@code <property name="serializer" value="org.apache.ibatis.cache.impl.CompactSerializer"/>}.
+ *
+ * @since 3.5.0
+ */
+public class CompactSerializer implements Serializer {
+
+  private static final byte NULL = 0;
+  private static final byte REFERENCE = 1;
+  private static final byte JAVA = 2;
+  private static final byte STRING = 3;
+  private static final byte INTEGER = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte FLOAT = 7;
+  private static final byte SHORT = 8;
+  private static final byte BYTE = 9;
+  private static final byte BOOLEAN = 10;
+  private static final byte CHARACTER = 11;
+  private static final byte BIG_DECIMAL = 12;
+  private static final byte BIG_INTEGER = 13;
+  private static final byte DATE = 14;
+  private static final byte SQL_DATE = 15;
+  private static final byte SQL_TIME = 16;
+  private static final byte TIMESTAMP = 17;
+  private static final byte LOCAL_DATE = 18;
+  private static final byte LOCAL_TIME = 19;
+  private static final byte LOCAL_DATE_TIME = 20;
+  private static final byte INSTANT = 21;
+  private static final byte OFFSET_DATE_TIME = 22;
+  private static final byte ENUM = 23;
+  private static final byte BYTE_ARRAY = 24;
+  private static final byte OBJECT_ARRAY = 25;
+  private static final byte ARRAY_LIST = 26;
+  private static final byte LINKED_LIST = 27;
+  private static final byte HASH_SET = 28;
+  private static final byte LINKED_HASH_SET = 29;
+  private static final byte HASH_MAP = 30;
+  private static final byte LINKED_HASH_MAP = 31;
+  private static final byte BEAN = 32;
+
+  private static final BeanType NOT_A_BEAN = new BeanType(null, null, null);
+
+  private final ReflectorFactory reflectorFactory = new DefaultReflectorFactory();
+  private final Map<Class<?>, BeanType> beanTypes = new ConcurrentHashMap<>();
+  private final JavaSerializer javaSerializer = new JavaSerializer();
+
+  @Override
+  public byte[] serialize(Object value) {
+    try {
+      Output output = new Output();
+      output.writeObject(value);
+      return Arrays.copyOf(output.buffer, output.position);
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error serializing object.  Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] bytes) {
+    try {
+      return new Input(bytes).readObject();
+    } catch (CacheException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheException("Error deserializing object.  Cause: " + e, e);
+    }
+  }
+
+  private BeanType getBeanType(Class<?> type) {
+    BeanType beanType = beanTypes.get(type);
+    if (beanType == null) {
+      beanType = inspect(type);
+      beanTypes.put(type, beanType);
+    }
+    return beanType == NOT_A_BEAN ? null : beanType;
+  }
+
+  /*
+  * 判断类是否能按属性复制，不能时返回 NOT_A_BEAN
+  * */
+  private BeanType inspect(Class<?> type) {
+    if (!Serializable.class.isAssignableFrom(type) || Proxy.isProxyClass(type)) {
+      return NOT_A_BEAN;
+    }
+    Reflector reflector = reflectorFactory.findForClass(type);
+    if (!SerializationUtil.isSerializableBean(type, reflector)) {
+      return NOT_A_BEAN;
+    }
+    Set<String> getable = new HashSet<>(Arrays.asList(reflector.getGetablePropertyNames()));
+    Set<String> setable = new HashSet<>(Arrays.asList(reflector.getSetablePropertyNames()));
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (Modifier.isStatic(modifiers)) {
+          // 反射器会把非 final 的静态字段也当作属性
+          if (!Modifier.isFinal(modifiers) && setable.contains(field.getName())) {
+            return NOT_A_BEAN;
+          }
+        } else if (Modifier.isTransient(modifiers)
+            || !getable.contains(field.getName()) || !setable.contains(field.getName())) {
+          return NOT_A_BEAN;
+        }
+      }
+    }
+    List<String> properties = new ArrayList<>();
+    for (String property : getable) {
+      if (setable.contains(property)) {
+        if (!reflector.getGetterType(property).equals(reflector.getSetterType(property))) {
+          return NOT_A_BEAN;
+        }
+        properties.add(property);
+      }
+    }
+    String[] names = properties.toArray(new String[0]);
+    Arrays.sort(names);
+    Invoker[] getters = new Invoker[names.length];
+    Invoker[] setters = new Invoker[names.length];
+    for (int i = 0; i < names.length; i++) {
+      getters[i] = reflector.getGetInvoker(names[i]);
+      setters[i] = reflector.getSetInvoker(names[i]);
+    }
+    Constructor<?> constructor = reflector.getDefaultConstructor();
+    if (!Modifier.isPublic(type.getModifiers()) || !Modifier.isPublic(constructor.getModifiers())) {
+      if (!Reflector.canControlMemberAccessible()) {
+        return NOT_A_BEAN;
+      }
+      constructor.setAccessible(true);
+    }
+    return new BeanType(constructor, getters, setters);
+  }
+
+  private class Output {
+    // 不使用 DataOutputStream，避免每个字节一次同步的方法调用
+    private byte[] buffer = new byte[256];
+    private int position;
+    // 已写出的可变对象的编号，用于共享引用和循环引用
+    private final Map<Object, Integer> handles = new IdentityHashMap<>();
+    private final Map<Class<?>, Integer> classes = new HashMap<>();
+
+    private void writeObject(Object value) throws Exception {
+      if (value == null) {
+        writeByte(NULL);
+        return;
+      }
+      Class<?> type = value.getClass();
+      if (type == String.class) {
+        writeByte(STRING);
+        writeString((String) value);
+      } else if (type == Integer.class) {
+        writeByte(INTEGER);
+        writeInt((Integer) value);
+      } else if (type == Long.class) {
+        writeByte(LONG);
+        writeLong((Long) value);
+      } else if (type == Double.class) {
+        writeByte(DOUBLE);
+        writeLong(Double.doubleToRawLongBits((Double) value));
+      } else if (type == Float.class) {
+        writeByte(FLOAT);
+        writeInt(Float.floatToRawIntBits((Float) value));
+      } else if (type == Short.class) {
+        writeByte(SHORT);
+        writeInt((Short) value);
+      } else if (type == Byte.class) {
+        writeByte(BYTE);
+        writeByte((Byte) value);
+      } else if (type == Boolean.class) {
+        writeByte(BOOLEAN);
+        writeByte((Boolean) value ? 1 : 0);
+      } else if (type == Character.class) {
+        writeByte(CHARACTER);
+        writeInt((Character) value);
+      } else if (type == BigDecimal.class) {
+        writeByte(BIG_DECIMAL);
+        writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+        writeInt(((BigDecimal) value).scale());
+      } else if (type == BigInteger.class) {
+        writeByte(BIG_INTEGER);
+        writeBytes(((BigInteger) value).toByteArray());
+      } else if (type == Date.class) {
+        writeByte(DATE);
+        writeLong(((Date) value).getTime());
+      } else if (type == java.sql.Date.class) {
+        writeByte(SQL_DATE);
+        writeLong(((Date) value).getTime());
+      } else if (type == java.sql.Time.class) {
+        writeByte(SQL_TIME);
+        writeLong(((Date) value).getTime());
+      } else if (type == Timestamp.class) {
+        writeByte(TIMESTAMP);
+        writeLong(((Timestamp) value).getTime());
+        writeInt(((Timestamp) value).getNanos());
+      } else if (type == LocalDate.class) {
+        writeByte(LOCAL_DATE);
+        writeLong(((LocalDate) value).toEpochDay());
+      } else if (type == LocalTime.class) {
+        writeByte(LOCAL_TIME);
+        writeLong(((LocalTime) value).toNanoOfDay());
+      } else if (type == LocalDateTime.class) {
+        writeByte(LOCAL_DATE_TIME);
+        writeLocalDateTime((LocalDateTime) value);
+      } else if (type == Instant.class) {
+        writeByte(INSTANT);
+        writeLong(((Instant) value).getEpochSecond());
+        writeInt(((Instant) value).getNano());
+      } else if (type == OffsetDateTime.class) {
+        writeByte(OFFSET_DATE_TIME);
+        writeLocalDateTime(((OffsetDateTime) value).toLocalDateTime());
+        writeInt(((OffsetDateTime) value).getOffset().getTotalSeconds());
+      } else if (value instanceof Enum) {
+        writeByte(ENUM);
+        writeClass(((Enum<?>) value).getDeclaringClass());
+        writeString(((Enum<?>) value).name());
+      } else {
+        Integer handle = handles.get(value);
+        if (handle != null) {
+          writeByte(REFERENCE);
+          writeVarInt(handle);
+        } else {
+          writeMutableObject(value, type);
+        }
+      }
+    }
+
+    private void writeMutableObject(Object value, Class<?> type) throws Exception {
+      if (type == byte[].class) {
+        writeByte(BYTE_ARRAY);
+        register(value);
+        writeBytes((byte[]) value);
+      } else if (type == Object[].class) {
+        writeByte(OBJECT_ARRAY);
+        register(value);
+        Object[] array = (Object[]) value;
+        writeVarInt(array.length);
+        for (Object element : array) {
+          writeObject(element);
+        }
+      } else if (type == ArrayList.class || type == LinkedList.class
+          || type == HashSet.class || type == LinkedHashSet.class) {
+        writeByte(type == ArrayList.class ? ARRAY_LIST : type == LinkedList.class ? LINKED_LIST
+            : type == HashSet.class ? HASH_SET : LINKED_HASH_SET);
+        register(value);
+        Collection<?> collection = (Collection<?>) value;
+        writeVarInt(collection.size());
+        for (Object element : collection) {
+          writeObject(element);
+        }
+      } else if (type == HashMap.class || type == LinkedHashMap.class) {
+        writeByte(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+        register(value);
+        Map<?, ?> map = (Map<?, ?>) value;
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+          writeObject(entry.getKey());
+          writeObject(entry.getValue());
+        }
+      } else {
+        BeanType beanType = getBeanType(type);
+        if (beanType != null) {
+          writeByte(BEAN);
+          writeClass(type);
+          register(value);
+          for (Invoker getter : beanType.getters) {
+            writeObject(getter.invoke(value, null));
+          }
+        } else {
+          writeByte(JAVA);
+          writeBytes(javaSerializer.serialize(value));
+        }
+      }
+    }
+
+    private void register(Object value) {
+      handles.put(value, handles.size());
+    }
+
+    private void writeClass(Class<?> type) {
+      Integer index = classes.get(type);
+      if (index != null) {
+        writeVarInt(index);
+      } else {
+        // 第一次出现时写出类名
+        writeVarInt(classes.size());
+        writeString(type.getName());
+        classes.put(type, classes.size());
+      }
+    }
+
+    private void writeLocalDateTime(LocalDateTime value) {
+      writeLong(value.toLocalDate().toEpochDay());
+      writeLong(value.toLocalTime().toNanoOfDay());
+    }
+
+    private void writeString(String value) {
+      // 每个字符按变长整数写出，ASCII 字符只占一个字节
+      int length = value.length();
+      writeVarInt(length);
+      ensureCapacity(length * 3);
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          buffer[position++] = (byte) c;
+        } else {
+          writeVarInt(c);
+        }
+      }
+    }
+
+    private void writeBytes(byte[] value) {
+      writeVarInt(value.length);
+      ensureCapacity(value.length);
+      System.arraycopy(value, 0, buffer, position, value.length);
+      position += value.length;
+    }
+
+    private void writeVarInt(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    private void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[position++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+      ensureCapacity(4);
+      buffer[position++] = (byte) (value >>> 24);
+      buffer[position++] = (byte) (value >>> 16);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+      writeInt((int) (value >>> 32));
+      writeInt((int) value);
+    }
+
+    private void ensureCapacity(int length) {
+      if (position + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+      }
+    }
+  }
+
+  private class Input {
+    private final byte[] buffer;
+    private int position;
+    private final List<Object> handles = new ArrayList<>();
+    private final List<Class<?>> classes = new ArrayList<>();
+
+    private Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object readObject() throws Exception {
+      byte tag = readByte();
+      switch (tag) {
+        case NULL:
+          return null;
+        case REFERENCE:
+          return handles.get(readVarInt());
+        case JAVA:
+          return javaSerializer.deserialize(readBytes());
+        case STRING:
+          return readString();
+        case INTEGER:
+          return readInt();
+        case LONG:
+          return readLong();
+        case DOUBLE:
+          return Double.longBitsToDouble(readLong());
+        case FLOAT:
+          return Float.intBitsToFloat(readInt());
+        case SHORT:
+          return (short) readInt();
+        case BYTE:
+          return readByte();
+        case BOOLEAN:
+          return readByte() != 0;
+        case CHARACTER:
+          return (char) readInt();
+        case BIG_DECIMAL:
+          return new BigDecimal(new BigInteger(readBytes()), readInt());
+        case BIG_INTEGER:
+          return new BigInteger(readBytes());
+        case DATE:
+          return new Date(readLong());
+        case SQL_DATE:
+          return new java.sql.Date(readLong());
+        case SQL_TIME:
+          return new java.sql.Time(readLong());
+        case TIMESTAMP:
+          Timestamp timestamp = new Timestamp(readLong());
+          timestamp.setNanos(readInt());
+          return timestamp;
+        case LOCAL_DATE:
+          return LocalDate.ofEpochDay(readLong());
+        case LOCAL_TIME:
+          return LocalTime.ofNanoOfDay(readLong());
+        case LOCAL_DATE_TIME:
+          return readLocalDateTime();
+        case INSTANT:
+          return Instant.ofEpochSecond(readLong(), readInt());
+        case OFFSET_DATE_TIME:
+          return OffsetDateTime.of(readLocalDateTime(), ZoneOffset.ofTotalSeconds(readInt()));
+        case ENUM:
+          return Enum.valueOf((Class<? extends Enum>) readClass(), readString());
+        case BYTE_ARRAY:
+          return register(readBytes());
+        case OBJECT_ARRAY:
+          Object[] array = register(new Object[readVarInt()]);
+          for (int i = 0; i < array.length; i++) {
+            array[i] = readObject();
+          }
+          return array;
+        case ARRAY_LIST:
+          return readCollection(new ArrayList<>());
+        case LINKED_LIST:
+          return readCollection(new LinkedList<>());
+        case HASH_SET:
+          return readCollection(new HashSet<>());
+        case LINKED_HASH_SET:
+          return readCollection(new LinkedHashSet<>());
+        case HASH_MAP:
+          return readMap(new HashMap<>());
+        case LINKED_HASH_MAP:
+          return readMap(new LinkedHashMap<>());
+        case BEAN:
+          return readBean();
+        default:
+          throw new CacheException("Error deserializing object.  Cause: unknown tag " + tag);
+      }
+    }
+
+    private Object readCollection(Collection<Object> collection) throws Exception {
+      register(collection);
+      int size = readVarInt();
+      for (int i = 0; i < size; i++) {
+        collection.add(readObject());
+      }
+      return collection;
+    }
+
+    private Object readMap(Map<Object, Object> map) throws Exception {
+      register(map);
+      int size = readVarInt();
+      for (int i = 0; i < size; i++) {
+        Object key = readObject();
+        map.put(key, readObject());
+      }
+      return map;
+    }
+
+    private Object readBean() throws Exception {
+      Class<?> type = readClass();
+      BeanType beanType = getBeanType(type);
+      if (beanType == null) {
+        throw new CacheException("Error deserializing object.  Cause: " + type + " cannot be copied as a bean");
+      }
+      Object bean = register(beanType.constructor.newInstance());
+      for (Invoker setter : beanType.setters) {
+        setter.invoke(bean, new Object[] { readObject() });
+      }
+      return bean;
+    }
+
+    private <T> T register(T value) {
+      handles.add(value);
+      return value;
+    }
+
+    private Class<?> readClass() throws Exception {
+      int index = readVarInt();
+      if (index < classes.size()) {
+        return classes.get(index);
+      }
+      Class<?> type = Resources.classForName(readString());
+      classes.add(type);
+      return type;
+    }
+
+    private LocalDateTime readLocalDateTime() {
+      return LocalDateTime.of(LocalDate.ofEpochDay(readLong()), LocalTime.ofNanoOfDay(readLong()));
+    }
+
+    private String readString() {
+      char[] chars = new char[readVarInt()];
+      for (int i = 0; i < chars.length; i++) {
+        byte b = buffer[position];
+        if (b >= 0) {
+          position++;
+          chars[i] = (char) b;
+        } else {
+          chars[i] = (char) readVarInt();
+        }
+      }
+      return new String(chars);
+    }
+
+    private byte[] readBytes() {
+      int length = readVarInt();
+      byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+      position += length;
+      return bytes;
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buffer[position++];
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    private byte readByte() {
+      return buffer[position++];
+    }
+
+    private int readInt() {
+      return (buffer[position++] & 0xFF) << 24 | (buffer[position++] & 0xFF) << 16
+          | (buffer[position++] & 0xFF) << 8 | (buffer[position++] & 0xFF);
+    }
+
+    private long readLong() {
+      return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+    }
+  }
+
+  private static class BeanType {
+    private final Constructor<?> constructor;
+    private final Invoker[] getters;
+    private final Invoker[] setters;
+
+    private BeanType(Constructor<?> constructor, Invoker[] getters, Invoker[] setters) {
+      this.constructor = constructor;
+      this.getters = getters;
+      this.setters = setters;
+    }
+  }
+
+}
@@ -0,0 +1,195 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+
+/**
+ * Thread-safe, bounded cache implementation for namespaces that are read by many threads at once.
+ * <p>
+ * Entries live in a {@link ConcurrentHashMap}, so reads take no lock. When the cache holds more than {@code size}
+ * entries (1024 by default), it evicts with the CLOCK algorithm, an approximation of LRU: a read only sets a flag on
+ * the entry, and the eviction hand gives flagged entries a second chance instead of reordering a list on every read.
+ * <p>
+ * Select it with {@code <cache type="CONCURRENT"/>} or {@code @CacheNamespace(implementation = ConcurrentCache.class)}.
+ * The standard decorators still apply, except that the {@code eviction} setting is ignored and no
+ * {@link org.apache.ibatis.cache.decorators.SynchronizedCache} is added: the decorators used on top of this cache
+ * are thread-safe themselves.
+ *
+ * @since 3.5.0
+ */
+public class ConcurrentCache implements Cache {
+
+  private final String id;
+  private final ConcurrentHashMap<Object, Node> cache = new ConcurrentHashMap<>();
+  // CLOCK 算法的环，按放入的顺序排列，队头就是指针所在的位置
+  private final ConcurrentLinkedQueue<Node> clock = new ConcurrentLinkedQueue<>();
+  // 已经删除、还留在环里的条目数，删除时不在环里查找
+  private final AtomicInteger staleNodes = new AtomicInteger();
+  // 同一时间只有一个线程执行淘汰，其它线程不等待
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private volatile int size = 1024;
+
+  public ConcurrentCache(String id) {
+    this.id = id;
+  }
+
+  public void setSize(int size) {
+    this.size = size;
+    evictIfNeeded();
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    Node node = cache.get(key);
+    if (node == null) {
+      Node newNode = new Node(key, value);
+      node = cache.putIfAbsent(key, newNode);
+      if (node == null) {
+        clock.offer(newNode);
+        evictIfNeeded();
+        return;
+      }
+    }
+    node.value = value;
+    node.referenced = true;
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    Node node = cache.get(key);
+    if (node == null) {
+      return null;
+    }
+    // 已经标记过就不再写，减少缓存行的争用
+    if (!node.referenced) {
+      node.referenced = true;
+    }
+    return node.value;
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    Node node = cache.remove(key);
+    if (node == null) {
+      return null;
+    }
+    staleNodes.incrementAndGet();
+    evictIfNeeded();
+    return node.value;
+  }
+
+  @Override
+  public void clear() {
+    cache.clear();
+    clock.clear();
+    staleNodes.set(0);
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  /*
+  * 指针扫过的条目如果最近被读过，清除标记后放回队尾，否则淘汰。
+  * 环中失效的条目多于有效的条目时一次清理掉，避免只删除不淘汰时环无限增长。
+  * 释放锁之后再检查一次，因为持有锁期间其它线程放入的条目不会自己触发淘汰
+  * */
+  private void evictIfNeeded() {
+    while ((cache.size() > size || staleNodes.get() > cache.size()) && evictionLock.tryLock()) {
+      try {
+        if (staleNodes.get() > cache.size()) {
+          staleNodes.set(0);
+          clock.removeIf(node -> cache.get(node.key) != node);
+        }
+        while (cache.size() > size && !cache.isEmpty()) {
+          Node node = clock.poll();
+          if (node == null) {
+            // 和 clear() 并发执行的 put 可能没有进入环，重新放入
+            clock.addAll(cache.values());
+            continue;
+          }
+          if (cache.get(node.key) != node) {
+            continue;
+          }
+          if (node.referenced) {
+            node.referenced = false;
+            clock.offer(node);
+          } else {
+            cache.remove(node.key, node);
+          }
+        }
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cache)) {
+      return false;
+    }
+
+    Cache otherCache = (Cache) o;
+    return getId().equals(otherCache.getId());
+  }
+
+  @Override
+  public int hashCode() {
+    if (getId() == null) {
+      throw new CacheException("Cache instances require an ID.");
+    }
+    return getId().hashCode();
+  }
+
+  private static final class Node {
+    private final Object key;
+    private volatile Object value;
+    // 上次指针扫过之后是否被读过
+    private volatile boolean referenced;
+
+    Node(Object key, Object value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.Weigher;
+
+/**
+ * Default {@link Weigher}. Estimates the retained size of a result with fixed per-object costs, assuming a 64-bit JVM
+ * with compressed references.
+ * <p>
+ * Serialized values ({@code byte[]}) weigh their length. Collections, maps and arrays weigh the average of up to
+ * {@value #SAMPLE_SIZE} sampled elements, multiplied by their size, so that a list of 50k rows is weighed quickly.
+ * Other objects weigh their fields, following references up to {@value #MAX_DEPTH} levels deep. Objects shared
+ * between entries are counted in each of them.
+ *
+ * @since 3.5.0
+ */
+public class EstimatingWeigher implements Weigher {
+
+  private static final int SAMPLE_SIZE = 16;
+  private static final int MAX_DEPTH = 4;
+  private static final int OBJECT_HEADER = 16;
+  private static final int REFERENCE = 4;
+
+  // 每个类的实例字段。ClassValue 把值存在类本身上，不会阻止类加载器被回收
+  private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+    @Override
+    protected Field[] computeValue(Class<?> type) {
+      return findFields(type);
+    }
+  };
+
+  @Override
+  public long weigh(Object key, Object value) {
+    return weigh(value, 0);
+  }
+
+  private long weigh(Object value, int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof byte[]) {
+      return align(OBJECT_HEADER + ((byte[]) value).length);
+    }
+    if (value instanceof String) {
+      return align(OBJECT_HEADER + 8) + align(OBJECT_HEADER + 2L * ((String) value).length());
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+      return OBJECT_HEADER + 8;
+    }
+    if (depth >= MAX_DEPTH) {
+      return OBJECT_HEADER;
+    }
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      return OBJECT_HEADER + 32 + (long) collection.size() * (REFERENCE + 16)
+          + sample(collection.iterator(), collection.size(), depth);
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      long entries = sample(map.keySet().iterator(), map.size(), depth) + sample(map.values().iterator(), map.size(), depth);
+      return OBJECT_HEADER + 48 + (long) map.size() * (REFERENCE + 32) + entries;
+    }
+    Class<?> type = value.getClass();
+    if (type.isArray()) {
+      int length = Array.getLength(value);
+      Class<?> componentType = type.getComponentType();
+      if (componentType.isPrimitive()) {
+        return align(OBJECT_HEADER + (long) length * primitiveSize(componentType));
+      }
+      List<Object> elements = new ArrayList<>(Math.min(length, SAMPLE_SIZE));
+      for (int i = 0; i < length && i < SAMPLE_SIZE; i++) {
+        elements.add(Array.get(value, i));
+      }
+      return align(OBJECT_HEADER + (long) length * REFERENCE) + sample(elements.iterator(), length, depth);
+    }
+    long size = OBJECT_HEADER;
+    for (Field field : FIELDS.get(type)) {
+      Class<?> fieldType = field.getType();
+      if (fieldType.isPrimitive()) {
+        size += primitiveSize(fieldType);
+      } else {
+        size += REFERENCE;
+        try {
+          size += weigh(field.get(value), depth + 1);
+        } catch (IllegalAccessException e) {
+          // 无法读取的字段只计算引用
+        }
+      }
+    }
+    return align(size);
+  }
+
+  /*
+  * 取前 SAMPLE_SIZE 个元素的平均大小，乘以元素个数
+  * */
+  private long sample(Iterator<?> iterator, int size, int depth) {
+    long total = 0;
+    int sampled = 0;
+    while (sampled < SAMPLE_SIZE && iterator.hasNext()) {
+      total += weigh(iterator.next(), depth + 1);
+      sampled++;
+    }
+    return sampled == 0 ? 0 : total * size / sampled;
+  }
+
+  private static Field[] findFields(Class<?> type) {
+    List<Field> instanceFields = new ArrayList<>();
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        if (!Modifier.isStatic(field.getModifiers())) {
+          try {
+            field.setAccessible(true);
+          } catch (RuntimeException e) {
+            // 模块系统不允许访问时，读取会失败并只计算引用
+          }
+          instanceFields.add(field);
+        }
+      }
+    }
+    return instanceFields.toArray(new Field[0]);
+  }
+
+  private static int primitiveSize(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+}
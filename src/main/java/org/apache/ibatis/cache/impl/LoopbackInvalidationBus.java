@@ -0,0 +1,154 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.Invalidation;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.InvalidationListener;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * An {@link InvalidationBus} between the configurations of a single JVM, for tests. Each instance is a node, and
+ * delivers what it publishes to the other instances of the same channel, synchronously. Messages are copied through
+ * Java serialization on the way, like a network bus would, so that keys that could not be sent are found early.
+ * <p>
+ * The no-arg constructor, used by the {@code LOOPBACK} alias, creates a node that is alone on its channel, so that
+ * unrelated configurations of the same JVM never exchange invalidations. Channels only hold their nodes weakly: a
+ * node that is no longer referenced leaves its channel even if {@link #close()} is not called.
+ *
+ * @since 3.5.0
+ */
+public class LoopbackInvalidationBus implements InvalidationBus {
+
+  private static final Log log = LogFactory.getLog(LoopbackInvalidationBus.class);
+
+  // 弱引用节点，不再使用的节点随配置一起回收
+  private static final Map<String, Map<LoopbackInvalidationBus, Boolean>> CHANNELS = new ConcurrentHashMap<>();
+
+  private final String channel;
+  private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+  public LoopbackInvalidationBus() {
+    this(null);
+  }
+
+  /**
+   * @param channel The channel shared with the peer nodes, or {@code null} for a node that has no peers
+   */
+  public LoopbackInvalidationBus(String channel) {
+    this.channel = channel;
+    if (channel != null) {
+      Map<LoopbackInvalidationBus, Boolean> nodes = CHANNELS.computeIfAbsent(channel, k -> new WeakHashMap<>());
+      synchronized (nodes) {
+        nodes.put(this, Boolean.TRUE);
+      }
+    }
+  }
+
+  @Override
+  public void publish(List<Invalidation> invalidations) {
+    List<LoopbackInvalidationBus> peers = peers();
+    if (peers.isEmpty()) {
+      return;
+    }
+    byte[] message = serialize(invalidations);
+    for (LoopbackInvalidationBus peer : peers) {
+      peer.deliver(deserialize(message));
+    }
+  }
+
+  @Override
+  public void subscribe(InvalidationListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void unsubscribe(InvalidationListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Leaves the channel: the node no longer receives invalidations.
+   */
+  public void close() {
+    Map<LoopbackInvalidationBus, Boolean> nodes = channel == null ? null : CHANNELS.get(channel);
+    if (nodes != null) {
+      synchronized (nodes) {
+        nodes.remove(this);
+      }
+    }
+  }
+
+  private List<LoopbackInvalidationBus> peers() {
+    Map<LoopbackInvalidationBus, Boolean> nodes = channel == null ? null : CHANNELS.get(channel);
+    if (nodes == null) {
+      return new ArrayList<>();
+    }
+    // 在锁外投递，监听器可能再次发布
+    List<LoopbackInvalidationBus> peers;
+    synchronized (nodes) {
+      peers = new ArrayList<>(nodes.keySet());
+    }
+    peers.remove(this);
+    return peers;
+  }
+
+  private void deliver(List<Invalidation> invalidations) {
+    for (Invalidation invalidation : invalidations) {
+      for (InvalidationListener listener : listeners) {
+        try {
+          listener.onInvalidation(invalidation);
+        } catch (RuntimeException e) {
+          log.warn("Error applying invalidation " + invalidation + ".  Cause: " + e);
+        }
+      }
+    }
+  }
+
+  private static byte[] serialize(List<Invalidation> invalidations) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(invalidations);
+    } catch (IOException e) {
+      throw new CacheException("Error serializing invalidations.  Cause: " + e, e);
+    }
+    return bos.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Invalidation> deserialize(byte[] message) {
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(message))) {
+      return (List<Invalidation>) ois.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      throw new CacheException("Error deserializing invalidations.  Cause: " + e, e);
+    }
+  }
+
+}
@@ -0,0 +1,313 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.Serializer;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+
+/**
+ * Cache implementation that keeps serialized values outside of the Java heap, so that large read-mostly results do
+ * not add to garbage collection pauses.
+ * <p>
+ * Memory is reserved in slabs of {@code slabSize} bytes (1 MiB by default), up to {@code capacity} bytes (64 MiB by
+ * default). Slabs are direct buffers, or regions of a memory-mapped file created in {@code directory} when that
+ * property is set. Values are serialized with the {@code serializer} property, {@link JavaSerializer} by default.
+ * As in memcached, a slab is cut into chunks of one size class (powers of two from 64 bytes to
+ * {@code slabSize}) when first needed, and each value is stored in the smallest chunk that fits. When no chunk of a
+ * class is free and no slab is left, the least recently used entry of the same class is evicted. Values larger than
+ * {@code slabSize} are not cached.
+ * <p>
+ * Only values are stored off-heap: the keys and a small index entry per value stay on the heap, so that lookups
+ * compare keys exactly instead of trusting their hash. Values are copied on every read, like with
+ * {@code readOnly="false"}, so no {@link SerializedCache} is added on top. {@link #removeObject(Object)} does not
+ * return the removed value.
+ * <p>
+ * Select it with {@code <cache type="OFFHEAP"/>} or {@code @CacheNamespace(implementation = OffHeapCache.class)}.
+ * The cache is thread-safe, so no {@link org.apache.ibatis.cache.decorators.SynchronizedCache} is added and the
+ * {@code eviction} and {@code size} settings are ignored.
+ *
+ * @since 3.5.0
+ */
+public class OffHeapCache implements Cache {
+
+  private static final int MIN_CHUNK_SIZE = 64;
+
+  private final String id;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<Object, Entry> index = new HashMap<>();
+  private final List<ByteBuffer> slabs = new ArrayList<>();
+  // 还没有分给任何大小级别的 slab
+  private final ArrayDeque<Integer> freeSlabs = new ArrayDeque<>();
+  private long capacity = 64L * 1024 * 1024;
+  private int slabSize = 1024 * 1024;
+  private String directory;
+  private Serializer serializer = new JavaSerializer();
+  private SizeClass[] sizeClasses;
+  private FileChannel channel;
+
+  public OffHeapCache(String id) {
+    this.id = id;
+  }
+
+  public void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+
+  public void setSlabSize(int slabSize) {
+    if (slabSize < MIN_CHUNK_SIZE) {
+      throw new CacheException("The slab size of cache " + id + " must be at least " + MIN_CHUNK_SIZE + " bytes");
+    }
+    this.slabSize = slabSize;
+  }
+
+  public void setDirectory(String directory) {
+    this.directory = directory;
+  }
+
+  public void setSerializer(Serializer serializer) {
+    this.serializer = serializer;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public int getSize() {
+    lock.lock();
+    try {
+      return index.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of bytes reserved off-heap, at most {@code capacity}
+   */
+  public long getReservedBytes() {
+    lock.lock();
+    try {
+      return (long) slabs.size() * slabSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void putObject(Object key, Object value) {
+    if (value != null && !(value instanceof Serializable)) {
+      throw new CacheException("OffHeapCache failed to store a non-serializable object: " + value);
+    }
+    // 在锁外序列化
+    byte[] bytes = serializer.serialize(value);
+    lock.lock();
+    try {
+      release(index.remove(key));
+      if (bytes.length > slabSize) {
+        return;
+      }
+      SizeClass sizeClass = sizeClassFor(bytes.length);
+      long address = allocate(sizeClass);
+      if (address < 0) {
+        return;
+      }
+      ByteBuffer slab = slabs.get(slabOf(address));
+      slab.position(offsetOf(address));
+      slab.put(bytes);
+      Entry entry = new Entry(key, sizeClass, address, bytes.length);
+      index.put(key, entry);
+      sizeClass.entries.put(key, entry);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Object getObject(Object key) {
+    byte[] bytes;
+    lock.lock();
+    try {
+      Entry entry = index.get(key);
+      if (entry == null) {
+        return null;
+      }
+      entry.sizeClass.entries.get(key); // touch
+      bytes = new byte[entry.length];
+      ByteBuffer slab = slabs.get(slabOf(entry.address));
+      slab.position(offsetOf(entry.address));
+      slab.get(bytes);
+    } finally {
+      lock.unlock();
+    }
+    // 在锁外反序列化
+    return serializer.deserialize(bytes);
+  }
+
+  @Override
+  public Object removeObject(Object key) {
+    lock.lock();
+    try {
+      release(index.remove(key));
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    lock.lock();
+    try {
+      index.clear();
+      sizeClasses = null;
+      // 保留已分配的 slab，重新放回空闲列表
+      freeSlabs.clear();
+      for (int i = 0; i < slabs.size(); i++) {
+        freeSlabs.push(i);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public ReadWriteLock getReadWriteLock() {
+    return null;
+  }
+
+  private SizeClass sizeClassFor(int length) {
+    if (sizeClasses == null) {
+      List<SizeClass> classes = new ArrayList<>();
+      for (int chunkSize = MIN_CHUNK_SIZE; chunkSize < slabSize; chunkSize <<= 1) {
+        classes.add(new SizeClass(chunkSize));
+      }
+      classes.add(new SizeClass(slabSize));
+      sizeClasses = classes.toArray(new SizeClass[0]);
+    }
+    for (SizeClass sizeClass : sizeClasses) {
+      if (length <= sizeClass.chunkSize) {
+        return sizeClass;
+      }
+    }
+    throw new IllegalStateException("No size class for " + length + " bytes");
+  }
+
+  /*
+  * 依次尝试：同级别的空闲 chunk，空闲或新分配的 slab，淘汰同级别最久未使用的条目。都不行时返回 -1，不缓存
+  * */
+  private long allocate(SizeClass sizeClass) {
+    if (!sizeClass.free.isEmpty()) {
+      return sizeClass.free.pop();
+    }
+    Integer slab = freeSlabs.poll();
+    if (slab == null && (long) (slabs.size() + 1) * slabSize <= capacity) {
+      slab = slabs.size();
+      slabs.add(newSlab(slab));
+    }
+    if (slab != null) {
+      for (int offset = slabSize - sizeClass.chunkSize; offset >= 0; offset -= sizeClass.chunkSize) {
+        sizeClass.free.push(((long) slab << 32) | offset);
+      }
+      return sizeClass.free.pop();
+    }
+    Iterator<Entry> eldest = sizeClass.entries.values().iterator();
+    if (eldest.hasNext()) {
+      Entry entry = eldest.next();
+      eldest.remove();
+      index.remove(entry.key);
+      return entry.address;
+    }
+    return -1;
+  }
+
+  private void release(Entry entry) {
+    if (entry != null) {
+      entry.sizeClass.entries.remove(entry.key);
+      entry.sizeClass.free.push(entry.address);
+    }
+  }
+
+  private ByteBuffer newSlab(int slab) {
+    if (directory == null) {
+      return ByteBuffer.allocateDirect(slabSize);
+    }
+    try {
+      if (channel == null) {
+        File file = File.createTempFile("mybatis-cache-", ".slabs", new File(directory));
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+      }
+      return channel.map(FileChannel.MapMode.READ_WRITE, (long) slab * slabSize, slabSize);
+    } catch (IOException e) {
+      throw new CacheException("Error mapping a slab of cache " + id + " in " + directory + ".  Cause: " + e, e);
+    }
+  }
+
+  private static int slabOf(long address) {
+    return (int) (address >>> 32);
+  }
+
+  private static int offsetOf(long address) {
+    return (int) address;
+  }
+
+  private static class SizeClass {
+    private final int chunkSize;
+    // 空闲 chunk 的地址，高 32 位是 slab 的序号，低 32 位是 slab 内的偏移
+    private final ArrayDeque<Long> free = new ArrayDeque<>();
+    // 按访问顺序排列，用于在级别内淘汰
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, .75F, true);
+
+    private SizeClass(int chunkSize) {
+      this.chunkSize = chunkSize;
+    }
+  }
+
+  private static class Entry {
+    private final Object key;
+    private final SizeClass sizeClass;
+    private final long address;
+    private final int length;
+
+    private Entry(Object key, SizeClass sizeClass, long address, int length) {
+      this.key = key;
+      this.sizeClass = sizeClass;
+      this.address = address;
+      this.length = length;
+    }
+  }
+
+}
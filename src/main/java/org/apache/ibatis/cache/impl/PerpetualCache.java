@@ -15,8 +15,10 @@
  */
 package org.apache.ibatis.cache.impl;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.ibatis.cache.Cache;
@@ -54,6 +56,11 @@ public class PerpetualCache implements Cache {
     cache.put(key, value);
   }
 
+  @Override
+  public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+    cache.putAll(entries);
+  }
+
   @Override
   public Object getObject(Object key) {
     return cache.get(key);
@@ -64,6 +71,11 @@ public class PerpetualCache implements Cache {
     return cache.remove(key);
   }
 
+  @Override
+  public void removeAll(Collection<?> keys) {
+    cache.keySet().removeAll(keys);
+  }
+
   @Override
   public void clear() {
     cache.clear();
@@ -0,0 +1,68 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.impl;
+
+import java.io.Externalizable;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.ibatis.reflection.Reflector;
+
+/**
+ * Tells which classes the cache can copy field by field instead of going through Java serialization.
+ *
+ * @since 3.5.0
+ */
+public final class SerializationUtil {
+
+  // 声明了这些方法的类自定义了序列化，只能交给 Java 序列化处理
+  private static final Set<String> SERIALIZATION_METHODS = new HashSet<>(Arrays.asList(
+      "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+  private SerializationUtil() {
+    // Prevent Instantiation of Static Class
+  }
+
+  /**
+   * Returns whether instances of a class can be rebuilt from a new instance and the values of their fields: the class
+   * is concrete, {@link Serializable} but not {@link Externalizable}, not a proxy, has a default constructor, and
+   * neither it nor its superclasses customize their serialization.
+   *
+   * @param type The class to check
+   * @param reflector The reflector of {@code type}
+   * @return {@code true} when instances can be copied field by field
+   */
+  public static boolean isSerializableBean(Class<?> type, Reflector reflector) {
+    if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)
+        || Modifier.isAbstract(type.getModifiers()) || Proxy.isProxyClass(type) || !reflector.hasDefaultConstructor()) {
+      return false;
+    }
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Method method : current.getDeclaredMethods()) {
+        if (SERIALIZATION_METHODS.contains(method.getName())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+}
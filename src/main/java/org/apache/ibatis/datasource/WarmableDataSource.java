@@ -0,0 +1,35 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource;
+
+import javax.sql.DataSource;
+
+/**
+ * A {@link DataSource} that can open its connections ahead of the first requests. An
+ * {@link org.apache.ibatis.mapping.Environment} built with such a data source warms it up.
+ *
+ * @since 3.5.0
+ */
+public interface WarmableDataSource extends DataSource {
+
+  /**
+   * Opens the connections the data source keeps ready.
+   *
+   * @return the number of connections that were opened
+   */
+  int warmUp();
+
+}
@@ -0,0 +1,91 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Remembers the auto-commit mode, transaction isolation and read-only flag of a physical connection, so that reading
+ * them or setting them to the value they already have does not reach the database.
+ * <p>
+ * Shared by every {@link PooledConnection} that wraps the same physical connection. It is only used by the thread
+ * that has the connection checked out, or by the pool while no one has. Changes made on the real connection, bypassing
+ * the proxy, are not seen.
+ *
+ * @since 3.5.0
+ */
+class ConnectionState {
+
+  // 表示不是由本类处理的方法，需要调用真实连接
+  static final Object NOT_HANDLED = new Object();
+
+  // null 表示还没有读取过
+  private Boolean autoCommit;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+
+  /*
+  * 处理读取和设置连接属性的方法，其它方法返回 NOT_HANDLED
+  * */
+  Object invoke(Connection realConnection, String methodName, Object[] args) throws SQLException {
+    switch (methodName) {
+      case "getAutoCommit":
+        return getAutoCommit(realConnection);
+      case "setAutoCommit":
+        boolean newAutoCommit = (Boolean) args[0];
+        if (autoCommit == null || autoCommit != newAutoCommit) {
+          realConnection.setAutoCommit(newAutoCommit);
+          autoCommit = newAutoCommit;
+        }
+        return null;
+      case "getTransactionIsolation":
+        if (transactionIsolation == null) {
+          transactionIsolation = realConnection.getTransactionIsolation();
+        }
+        return transactionIsolation;
+      case "setTransactionIsolation":
+        int newTransactionIsolation = (Integer) args[0];
+        if (transactionIsolation == null || transactionIsolation != newTransactionIsolation) {
+          realConnection.setTransactionIsolation(newTransactionIsolation);
+          transactionIsolation = newTransactionIsolation;
+        }
+        return null;
+      case "isReadOnly":
+        if (readOnly == null) {
+          readOnly = realConnection.isReadOnly();
+        }
+        return readOnly;
+      case "setReadOnly":
+        boolean newReadOnly = (Boolean) args[0];
+        if (readOnly == null || readOnly != newReadOnly) {
+          realConnection.setReadOnly(newReadOnly);
+          readOnly = newReadOnly;
+        }
+        return null;
+      default:
+        return NOT_HANDLED;
+    }
+  }
+
+  boolean getAutoCommit(Connection realConnection) throws SQLException {
+    if (autoCommit == null) {
+      autoCommit = realConnection.getAutoCommit();
+    }
+    return autoCommit;
+  }
+
+}
@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * A {@link PoolSizingStrategy} driven by how often and how long threads had to wait for a connection.
+ * <p>
+ * Each call compares the wait statistics of {@link PoolState} with the ones seen on the previous call. The pool grows
+ * when threads had to wait since then, by a larger step when the average wait time has increased. It shrinks by one
+ * connection once no thread had to wait for a number of consecutive calls, but never below the number of
+ * connections that are checked out.
+ *
+ * @since 3.5.0
+ */
+public class DemandPoolSizingStrategy implements PoolSizingStrategy {
+
+  // 连续多少次没有等待后才缩小连接池
+  private int quietRunsBeforeShrink = 10;
+
+  private long lastHadToWaitCount;
+  private long lastAccumulatedWaitTime;
+  private long lastAverageWaitTime;
+  private int quietRuns;
+
+  /**
+   * The number of consecutive calls without any thread waiting after which the pool shrinks by one connection.
+   *
+   * @param quietRunsBeforeShrink the number of calls, 10 by default
+   */
+  public void setQuietRunsBeforeShrink(int quietRunsBeforeShrink) {
+    this.quietRunsBeforeShrink = quietRunsBeforeShrink;
+  }
+
+  public int getQuietRunsBeforeShrink() {
+    return quietRunsBeforeShrink;
+  }
+
+  @Override
+  public int resize(PoolState state, int currentMaximumActiveConnections) {
+    long hadToWaitCount = state.getHadToWaitCount();
+    long accumulatedWaitTime = state.getAccumulatedWaitTime();
+    long waits = hadToWaitCount - lastHadToWaitCount;
+    long averageWaitTime = waits > 0 ? (accumulatedWaitTime - lastAccumulatedWaitTime) / waits : 0;
+    lastHadToWaitCount = hadToWaitCount;
+    lastAccumulatedWaitTime = accumulatedWaitTime;
+
+    if (waits > 0) {
+      quietRuns = 0;
+      // 等待时间在变长时加快增长
+      int step = averageWaitTime > lastAverageWaitTime ? Math.max(1, currentMaximumActiveConnections / 4) : 1;
+      lastAverageWaitTime = averageWaitTime;
+      return currentMaximumActiveConnections + step;
+    }
+    lastAverageWaitTime = 0;
+    if (++quietRuns < quietRunsBeforeShrink) {
+      return currentMaximumActiveConnections;
+    }
+    quietRuns = 0;
+    return Math.max(currentMaximumActiveConnections - 1, state.getActiveConnectionCount());
+  }
+
+}
@@ -0,0 +1,168 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in milliseconds.
+ * <p>
+ * Values are counted in log-linear buckets in the manner of HdrHistogram: values below 16 are counted exactly and
+ * every larger power of two is split into 8 sub-buckets, so a reported percentile is at most 12.5% above the real
+ * value. Each bucket is a {@link LongAdder}, so threads recording at the same time do not contend with each other,
+ * and {@link #snapshot()} never blocks a recording thread.
+ *
+ * @since 3.5.0
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // 小于 16 的值各占一个桶
+  private static final int EXACT_BUCKET_COUNT = SUB_BUCKET_COUNT << 1;
+  private static final int EXACT_BUCKET_BITS = Integer.numberOfTrailingZeros(EXACT_BUCKET_COUNT);
+  private static final int BUCKET_COUNT = EXACT_BUCKET_COUNT + (Long.SIZE - 1 - EXACT_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param value the duration in milliseconds, negative values are recorded as 0
+   */
+  public void record(long value) {
+    long v = Math.max(value, 0);
+    buckets[bucketIndex(v)].increment();
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  /**
+   * Takes a copy of the counts without blocking threads that are recording.
+   * Values recorded during the copy may or may not be included.
+   *
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets[i].sum();
+      count += counts[i];
+    }
+    return new Snapshot(counts, count, sum.sum(), max.get());
+  }
+
+  static int bucketIndex(long value) {
+    if (value < EXACT_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return EXACT_BUCKET_COUNT + (exponent - EXACT_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  // 桶内的最大值，百分位数按这个值报告
+  static long highestValueInBucket(int index) {
+    if (index < EXACT_BUCKET_COUNT) {
+      return index;
+    }
+    int exponent = (index - EXACT_BUCKET_COUNT) / SUB_BUCKET_COUNT + EXACT_BUCKET_BITS;
+    long subBucket = (index - EXACT_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    long lowest = (1L << exponent) | (subBucket * width);
+    return lowest + width - 1;
+  }
+
+  /**
+   * An immutable copy of a {@link LatencyHistogram}.
+   */
+  public static class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public long getMean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values fall.
+     *
+     * @param percentile a percentile between 0 and 100
+     * @return the value in milliseconds, or 0 when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= Math.max(rank, 1)) {
+          return Math.min(highestValueInBucket(i), max);
+        }
+      }
+      return max;
+    }
+
+    public long getP50() {
+      return getPercentile(50);
+    }
+
+    public long getP99() {
+      return getPercentile(99);
+    }
+
+    public long getP999() {
+      return getPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", mean=" + getMean() + ", p50=" + getP50() + ", p99=" + getP99()
+          + ", p999=" + getP999() + ", max=" + max;
+    }
+  }
+
+}
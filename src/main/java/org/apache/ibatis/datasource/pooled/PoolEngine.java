@@ -0,0 +1,34 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * The algorithm used by {@link PooledDataSource} to check out and return connections.
+ *
+ * <ul>
+ *   <li>{@link #SYNCHRONIZED}: the classic engine. Every borrow and return is serialized on the {@link PoolState}
+ *   monitor and waiting threads are woken up with {@code notifyAll()}.</li>
+ *   <li>{@link #CONCURRENT}: idle connections are kept in a lock-free LIFO deque, so the most recently returned
+ *   (and therefore warmest) connection is handed out first, and threads waiting for a connection are served in
+ *   arrival order through a fair handoff queue. The {@link PoolState} monitor is only taken on rare paths
+ *   such as reclaiming an overdue connection or discarding a bad one.</li>
+ * </ul>
+ *
+ * @since 3.5.0
+ */
+public enum PoolEngine {
+  SYNCHRONIZED, CONCURRENT
+}
@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ * Runs {@link PooledDataSource#housekeep()} periodically on a single daemon thread.
+ * <p>
+ * Only a weak reference to the data source is kept, so an unreachable data source is still garbage collected and
+ * the housekeeper stops on its next run.
+ *
+ * @since 3.5.0
+ */
+class PoolHousekeeper implements Runnable {
+
+  private static final Log log = LogFactory.getLog(PoolHousekeeper.class);
+
+  private final WeakReference<PooledDataSource> dataSource;
+  private final ScheduledExecutorService executor;
+
+  PoolHousekeeper(PooledDataSource dataSource, long interval) {
+    this.dataSource = new WeakReference<>(dataSource);
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-pool-housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    PooledDataSource ds = dataSource.get();
+    if (ds == null) {
+      executor.shutdown();
+      return;
+    }
+    try {
+      ds.housekeep();
+    } catch (Exception e) {
+      // 抛出异常会取消后续的调度，所以这里只记录日志
+      log.warn("PooledDataSource housekeeping failed. Cause: " + e);
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,41 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * Decides how many connections {@link PooledDataSource} may have checked out at the same time, so that the pool can
+ * grow under load and shrink when demand drops.
+ * <p>
+ * The strategy is called by the background housekeeping task of the data source, one call at a time. The value it
+ * returns is kept between the minimum number of idle connections (at least 1) and
+ * {@link PooledDataSource#getPoolMaximumActiveConnections()}, which becomes an upper bound rather than a fixed size.
+ * The maximum number of idle connections is scaled along with it.
+ *
+ * @see DemandPoolSizingStrategy
+ * @since 3.5.0
+ */
+public interface PoolSizingStrategy {
+
+  /**
+   * Computes the maximum number of active connections until the next call.
+   *
+   * @param state the statistics of the pool
+   * @param currentMaximumActiveConnections the maximum number of active connections currently in effect
+   * @return the new maximum number of active connections
+   */
+  int resize(PoolState state, int currentMaximumActiveConnections);
+
+}
@@ -0,0 +1,91 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+/**
+ * A point-in-time view of a {@link PooledDataSource}, taken by {@link PoolState#snapshot()} without acquiring the
+ * pool lock, so it can be polled by a metrics exporter without blocking threads that borrow connections.
+ * <p>
+ * The values are read independently of each other and may be slightly inconsistent, e.g. a connection that was
+ * returned while the snapshot was being taken may be counted as neither active nor idle.
+ *
+ * @since 3.5.0
+ */
+public class PoolSnapshot {
+
+  private final long timestamp;
+  private final int activeConnectionCount;
+  private final int idleConnectionCount;
+  private final LatencyHistogram.Snapshot waitTime;
+  private final LatencyHistogram.Snapshot checkoutTime;
+  private final LatencyHistogram.Snapshot creationTime;
+
+  PoolSnapshot(int activeConnectionCount, int idleConnectionCount, LatencyHistogram.Snapshot waitTime,
+      LatencyHistogram.Snapshot checkoutTime, LatencyHistogram.Snapshot creationTime) {
+    this.timestamp = System.currentTimeMillis();
+    this.activeConnectionCount = activeConnectionCount;
+    this.idleConnectionCount = idleConnectionCount;
+    this.waitTime = waitTime;
+    this.checkoutTime = checkoutTime;
+    this.creationTime = creationTime;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public int getActiveConnectionCount() {
+    return activeConnectionCount;
+  }
+
+  public int getIdleConnectionCount() {
+    return idleConnectionCount;
+  }
+
+  /**
+   * Time spent by borrowers that had to wait for a connection, one value per borrow.
+   *
+   * @return the wait time histogram
+   */
+  public LatencyHistogram.Snapshot getWaitTime() {
+    return waitTime;
+  }
+
+  /**
+   * Time connections were held by borrowers, recorded when they are returned or reclaimed.
+   *
+   * @return the checkout time histogram
+   */
+  public LatencyHistogram.Snapshot getCheckoutTime() {
+    return checkoutTime;
+  }
+
+  /**
+   * Time spent opening physical connections.
+   *
+   * @return the creation time histogram
+   */
+  public LatencyHistogram.Snapshot getCreationTime() {
+    return creationTime;
+  }
+
+  @Override
+  public String toString() {
+    return "PoolSnapshot[active=" + activeConnectionCount + ", idle=" + idleConnectionCount
+        + ", waitTime={" + waitTime + "}, checkoutTime={" + checkoutTime + "}, creationTime={" + creationTime + "}]";
+  }
+
+}
@@ -16,7 +16,14 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Clinton Begin
@@ -49,26 +56,77 @@ public class PoolState {
   protected long hadToWaitCount = 0;
   // 全局 获取到坏的连接的次数
   protected long badConnectionCount = 0;
+  // 启动预热花费的时间
+  protected long warmUpTime = 0;
+  // 启动预热创建的连接数
+  protected int warmUpConnectionCount = 0;
+  // 后台线程正在为空闲集合创建的连接数，借出时和激活的连接一起受最大连接数限制
+  protected int pendingIdleConnectionCount = 0;
+
+  /*
+  * 以下字段只在 PoolEngine.CONCURRENT 模式下使用，不需要持有 state 的锁
+  * */
+  // 空闲的连接，后进先出，优先复用最近归还的连接
+  protected final Deque<PooledConnection> concurrentIdleConnections = new ConcurrentLinkedDeque<>();
+  // 空闲的连接数量，ConcurrentLinkedDeque#size 需要遍历，所以单独计数
+  protected final AtomicInteger concurrentIdleConnectionCount = new AtomicInteger();
+  // 激活的连接集合
+  protected final Set<PooledConnection> concurrentActiveConnections = ConcurrentHashMap.newKeySet();
+  // 激活的连接数量，包括正在创建和正在移交给等待线程的连接
+  protected final AtomicInteger concurrentActiveConnectionCount = new AtomicInteger();
+  // 公平的移交队列，归还的连接直接交给等待最久的线程
+  protected final SynchronousQueue<PooledConnection> concurrentHandoffQueue = new SynchronousQueue<>(true);
+  // 正在等待连接的线程数
+  protected final AtomicInteger concurrentWaiterCount = new AtomicInteger();
+  // 高频路径上的统计，使用分段计数器避免竞争
+  protected final LongAdder concurrentRequestCount = new LongAdder();
+  protected final LongAdder concurrentAccumulatedRequestTime = new LongAdder();
+  protected final LongAdder concurrentAccumulatedCheckoutTime = new LongAdder();
+  protected final LongAdder concurrentAccumulatedWaitTime = new LongAdder();
+  protected final LongAdder concurrentHadToWaitCount = new LongAdder();
+  // 每次借出连接时等待的时间分布，只记录需要等待的借出
+  protected final LatencyHistogram waitTimeHistogram = new LatencyHistogram();
+  // 连接被借出的时长分布
+  protected final LatencyHistogram checkoutTimeHistogram = new LatencyHistogram();
+  // 创建物理连接花费的时间分布
+  protected final LatencyHistogram creationTimeHistogram = new LatencyHistogram();
+  // PreparedStatement 缓存命中和未命中的次数
+  protected final LongAdder statementCacheHitCount = new LongAdder();
+  protected final LongAdder statementCacheMissCount = new LongAdder();
+  // 报告为可能泄漏的连接数
+  protected final LongAdder leakedConnectionCount = new LongAdder();
+  // 后台维护线程关闭的空闲连接数
+  protected final LongAdder evictedConnectionCount = new LongAdder();
+  // 开启线程亲和后，取回当前线程上一次归还的连接的次数
+  protected final LongAdder affinityHitCount = new LongAdder();
+  // 开启线程亲和后，没能取回上一次归还的连接的次数
+  protected final LongAdder affinityMissCount = new LongAdder();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
   public synchronized long getRequestCount() {
-    return requestCount;
+    return requestCount + concurrentRequestCount.sum();
   }
 
   public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+    long count = getRequestCount();
+    return count == 0 ? 0 : (accumulatedRequestTime + concurrentAccumulatedRequestTime.sum()) / count;
   }
 
   public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
+    long count = getHadToWaitCount();
+    return count == 0 ? 0 : (accumulatedWaitTime + concurrentAccumulatedWaitTime.sum()) / count;
+
+  }
 
+  public synchronized long getAccumulatedWaitTime() {
+    return accumulatedWaitTime + concurrentAccumulatedWaitTime.sum();
   }
 
   public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+    return hadToWaitCount + concurrentHadToWaitCount.sum();
   }
 
   public synchronized long getBadConnectionCount() {
@@ -84,16 +142,68 @@ public class PoolState {
   }
 
   public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+    long count = getRequestCount();
+    return count == 0 ? 0 : (accumulatedCheckoutTime + concurrentAccumulatedCheckoutTime.sum()) / count;
+  }
+
+
+  /**
+   * Takes a snapshot of the pool statistics without acquiring the pool lock.
+   *
+   * @return the snapshot
+   *
+   * @since 3.5.0
+   */
+  public PoolSnapshot snapshot() {
+    return new PoolSnapshot(activeConnections.size() + concurrentActiveConnections.size(),
+        idleConnections.size() + concurrentIdleConnectionCount.get(), waitTimeHistogram.snapshot(),
+        checkoutTimeHistogram.snapshot(), creationTimeHistogram.snapshot());
+  }
+
+  public synchronized long getWarmUpTime() {
+    return warmUpTime;
+  }
+
+  public synchronized int getWarmUpConnectionCount() {
+    return warmUpConnectionCount;
+  }
+
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.sum();
+  }
+
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.sum();
+  }
+
+  public long getLeakedConnectionCount() {
+    return leakedConnectionCount.sum();
+  }
+
+  public long getEvictedConnectionCount() {
+    return evictedConnectionCount.sum();
+  }
+
+  public long getAffinityHitCount() {
+    return affinityHitCount.sum();
   }
 
+  public long getAffinityMissCount() {
+    return affinityMissCount.sum();
+  }
+
+  public double getAffinityHitRatio() {
+    long hits = affinityHitCount.sum();
+    long total = hits + affinityMissCount.sum();
+    return total == 0 ? 0 : (double) hits / total;
+  }
 
   public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+    return idleConnections.size() + concurrentIdleConnectionCount.get();
   }
 
   public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+    return activeConnections.size() + concurrentActiveConnections.size();
   }
 
   @Override
@@ -104,6 +214,7 @@ public class PoolState {
     builder.append("\n jdbcUrl                        ").append(dataSource.getUrl());
     builder.append("\n jdbcUsername                   ").append(dataSource.getUsername());
     builder.append("\n jdbcPassword                   ").append(dataSource.getPassword() == null ? "NULL" : "************");
+    builder.append("\n poolEngine                     ").append(dataSource.poolEngine);
     builder.append("\n poolMaxActiveConnections       ").append(dataSource.poolMaximumActiveConnections);
     builder.append("\n poolMaxIdleConnections         ").append(dataSource.poolMaximumIdleConnections);
     builder.append("\n poolMaxCheckoutTime            ").append(dataSource.poolMaximumCheckoutTime);
@@ -111,9 +222,20 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolThreadAffinityEnabled      ").append(dataSource.poolThreadAffinityEnabled);
+    builder.append("\n poolHousekeepingInterval       ").append(dataSource.poolHousekeepingInterval);
+    builder.append("\n poolMaxIdleTime                ").append(dataSource.poolMaximumIdleTime);
+    builder.append("\n poolMaxLifetime                ").append(dataSource.poolMaximumLifetime);
+    builder.append("\n poolMinIdleConnections         ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolStatementCacheSize         ").append(dataSource.poolPreparedStatementCacheSize);
+    builder.append("\n poolLeakDetectionThreshold     ").append(dataSource.poolLeakDetectionThreshold);
+    builder.append("\n poolTrackConnectionState       ").append(dataSource.poolTrackConnectionState);
+    builder.append("\n poolSizingStrategy             ").append(dataSource.poolSizingStrategy);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n currentMaxActiveConnections    ").append(dataSource.currentMaximumActiveConnections);
+    builder.append("\n currentMaxIdleConnections      ").append(dataSource.currentMaximumIdleConnections);
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
@@ -122,6 +244,16 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n waitTime                       ").append(waitTimeHistogram.snapshot());
+    builder.append("\n checkoutTime                   ").append(checkoutTimeHistogram.snapshot());
+    builder.append("\n creationTime                   ").append(creationTimeHistogram.snapshot());
+    builder.append("\n warmUpConnectionCount          ").append(getWarmUpConnectionCount());
+    builder.append("\n warmUpTime                     ").append(getWarmUpTime());
+    builder.append("\n statementCacheHits             ").append(getStatementCacheHitCount());
+    builder.append("\n statementCacheMisses           ").append(getStatementCacheMissCount());
+    builder.append("\n leakedConnectionCount          ").append(getLeakedConnectionCount());
+    builder.append("\n evictedConnectionCount         ").append(getEvictedConnectionCount());
+    builder.append("\n affinityHitRatio               ").append(getAffinityHitRatio());
     builder.append("\n===============================================================");
     return builder.toString();
   }
@@ -20,6 +20,10 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.ibatis.reflection.ExceptionUtil;
 
@@ -33,6 +37,14 @@ class PooledConnection implements InvocationHandler {
 
   // 关闭连接的方法名字
   private static final String CLOSE = "close";
+  // 准备语句的方法名字，开启语句缓存后会被拦截
+  private static final String PREPARE_STATEMENT = "prepareStatement";
+  // 不会改变数据库中事务状态的方法，调用它们不会让连接变脏
+  private static final Set<String> CLEAN_METHODS = new HashSet<>(Arrays.asList(
+      "getAutoCommit", "setAutoCommit", "getTransactionIsolation", "setTransactionIsolation", "isReadOnly",
+      "setReadOnly", "commit", "rollback", "getMetaData", "isClosed", "isValid", "getWarnings", "clearWarnings",
+      "getCatalog", "getSchema", "getHoldability", "getTypeMap", "getClientInfo", "getNetworkTimeout", "nativeSQL",
+      "unwrap", "isWrapperFor"));
   // JDK 代理的接口
   private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
   // 对象的标识, 基于 realConnection 来求 hashCode
@@ -43,16 +55,26 @@ class PooledConnection implements InvocationHandler {
   private final Connection realConnection;
   // 代理的 Connection 连接，即 本类动态代理的 connection 对象
   private final Connection proxyConnection;
-  // 从连接池中，获取走的时间戳
-  private long checkoutTimestamp;
+  // 从连接池中，获取走的时间戳, CONCURRENT 模式下会被其它线程读取
+  private volatile long checkoutTimestamp;
   // 对象创建时间
   private long createdTimestamp;
   // 最后更新时间
   private long lastUsedTimestamp;
   // 连接的标识
   private int connectionTypeCode;
-  // 判断是否是有效的连接
-  private boolean valid;
+  // 判断是否是有效的连接, 归还和强制回收可能同时发生，所以用 CAS 来保证只有一方成功
+  private final AtomicBoolean valid = new AtomicBoolean(true);
+  // 物理连接上缓存的 PreparedStatement, 同一个物理连接的所有包装对象共享。未开启时为 null
+  private PreparedStatementCache statementCache;
+  // 物理连接的自动提交、隔离级别和只读设置，同一个物理连接的所有包装对象共享。未开启时为 null
+  private ConnectionState connectionState;
+  // 借出后是否调用过可能执行语句的方法，开启 poolTrackConnectionState 后才会记录
+  private volatile boolean dirty;
+  // 采样记录的借出位置，未采样时为 null
+  private Throwable checkoutSite;
+  // 是否已经报告过泄漏，每次借出只报告一次
+  private volatile boolean leakReported;
 
   /**
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -66,7 +88,6 @@ class PooledConnection implements InvocationHandler {
     this.dataSource = dataSource;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
-    this.valid = true;
     // 创建代理的 Connection 对象, 意味着后续对 proxyConnection 的所有方法调用，都会委托给 本类的 invoke 方法
     this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
   }
@@ -75,7 +96,25 @@ class PooledConnection implements InvocationHandler {
    * Invalidates the connection
    */
   public void invalidate() {
-    valid = false;
+    valid.set(false);
+  }
+
+  /**
+   * Invalidates the connection only if it is still valid.
+   *
+   * @return True if this call invalidated the connection, false if it was already invalid
+   */
+  boolean compareAndInvalidate() {
+    return valid.compareAndSet(true, false);
+  }
+
+  /**
+   * Checks the valid flag only, without pinging the database.
+   *
+   * @return True if the connection has not been invalidated
+   */
+  boolean isNotInvalidated() {
+    return valid.get();
   }
 
   /**
@@ -84,7 +123,7 @@ class PooledConnection implements InvocationHandler {
    * @return True if the connection is usable
    */
   public boolean isValid() {
-    return valid && realConnection != null && dataSource.pingConnection(this);
+    return valid.get() && realConnection != null && dataSource.isUsable(this);
   }
 
   /**
@@ -96,6 +135,60 @@ class PooledConnection implements InvocationHandler {
     return realConnection;
   }
 
+  /**
+   * Getter for the prepared statement cache of the physical connection
+   *
+   * @return The cache, or null if statement caching is disabled
+   */
+  PreparedStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Setter for the prepared statement cache of the physical connection
+   *
+   * @param statementCache - the cache, shared by every wrapper of the same physical connection
+   */
+  void setStatementCache(PreparedStatementCache statementCache) {
+    this.statementCache = statementCache;
+  }
+
+  /**
+   * Getter for the tracked settings of the physical connection
+   *
+   * @return The settings, or null if connection state tracking is disabled
+   */
+  ConnectionState getConnectionState() {
+    return connectionState;
+  }
+
+  /**
+   * Setter for the tracked settings of the physical connection
+   *
+   * @param connectionState - the settings, shared by every wrapper of the same physical connection
+   */
+  void setConnectionState(ConnectionState connectionState) {
+    this.connectionState = connectionState;
+  }
+
+  /**
+   * Determines if a statement may have been executed through this connection since it was checked out
+   *
+   * @return True if the transaction may need to be rolled back
+   */
+  boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Closes the cached statements of the physical connection, if any
+   */
+  void clearStatementCache() {
+    if (statementCache != null) {
+      statementCache.clear();
+    }
+  }
+
   /**
    * Getter for the proxy for the connection
    *
@@ -204,6 +297,32 @@ class PooledConnection implements InvocationHandler {
     this.checkoutTimestamp = timestamp;
   }
 
+  /**
+   * Getter for the stack trace captured when this connection was checked out
+   *
+   * @return the checkout site, or null if this checkout was not sampled
+   */
+  Throwable getCheckoutSite() {
+    return checkoutSite;
+  }
+
+  /**
+   * Setter for the stack trace captured when this connection was checked out
+   *
+   * @param checkoutSite the checkout site
+   */
+  void setCheckoutSite(Throwable checkoutSite) {
+    this.checkoutSite = checkoutSite;
+  }
+
+  boolean isLeakReported() {
+    return leakReported;
+  }
+
+  void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
   /**
    * Getter for the time that this connection has been checked out
    *
@@ -262,6 +381,20 @@ class PooledConnection implements InvocationHandler {
         // throw an SQLException instead of a Runtime
         // 非 Object 的方法，先检查连接是否可用
         checkConnection();
+        // 开启状态跟踪时，连接属性的读写由缓存处理，其它可能执行语句的方法把连接标记为脏
+        if (connectionState != null) {
+          Object result = connectionState.invoke(realConnection, methodName, args);
+          if (result != ConnectionState.NOT_HANDLED) {
+            return result;
+          }
+          if (!dirty && !CLEAN_METHODS.contains(methodName)) {
+            dirty = true;
+          }
+        }
+        // 开启语句缓存时，优先从缓存中获取 PreparedStatement
+        if (statementCache != null && PREPARE_STATEMENT.equals(methodName)) {
+          return statementCache.prepareStatement(method, args);
+        }
       }
       // 反射调用相应的方法
       return method.invoke(realConnection, args);
@@ -272,7 +405,7 @@ class PooledConnection implements InvocationHandler {
   }
 
   private void checkConnection() throws SQLException {
-    if (!valid) {
+    if (!valid.get()) {
       throw new SQLException("Error accessing PooledConnection. Connection is invalid.");
     }
   }
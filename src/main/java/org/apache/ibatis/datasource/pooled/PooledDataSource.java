@@ -16,17 +16,27 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import javax.sql.DataSource;
-
+import org.apache.ibatis.datasource.WarmableDataSource;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
@@ -39,18 +49,32 @@ import org.apache.ibatis.logging.LogFactory;
 /*
 * 大部分时候并不会使用Mybatis 自己实现的连接池
 * */
-public class PooledDataSource implements DataSource {
+public class PooledDataSource implements WarmableDataSource {
 
   private static final Log log = LogFactory.getLog(PooledDataSource.class);
 
+  /*
+  * CONCURRENT 模式下，等待线程在移交队列上每次最多阻塞的时间。
+  * 归还连接和开始等待之间存在很小的竞争窗口，到时间后会重新检查空闲队列和超时连接
+  * */
+  private static final long HANDOFF_POLL_INTERVAL = 50L;
+  // 预热时并行创建连接的最大线程数
+  private static final int WARM_UP_THREADS = 8;
+  // 只设置了 poolSizingStrategy 时，后台线程的执行间隔。毫秒
+  private static final int SIZING_INTERVAL = 1000;
+
   /*
   * 用于记录 池化的状态, 也是获取连接的时候的锁
   * */
   private final PoolState state = new PoolState(this);
   // 为了重用代码，真正获取连接的代码还是调用这个的
   private final UnpooledDataSource dataSource;
+  // 当前线程上一次归还到空闲集合中的连接，用弱引用避免连接被丢弃后还被线程持有
+  private final ThreadLocal<WeakReference<PooledConnection>> lastReturnedConnection = new ThreadLocal<>();
 
   // OPTIONAL CONFIGURATION FIELDS
+  // 获取和归还连接使用的算法
+  protected PoolEngine poolEngine = PoolEngine.SYNCHRONIZED;
   // 任意时间可以存在活动(正在使用)的连接数量
   protected int poolMaximumActiveConnections = 10;
   // 任意时间可能存在的空闲连接数
@@ -77,12 +101,46 @@ public class PooledDataSource implements DataSource {
   * 默认值 0 ,即每一时刻都被侦测
   * */
   protected int poolPingConnectionsNotUsedFor;
+  // 是否优先把当前线程上一次归还的连接再交给它
+  protected boolean poolThreadAffinityEnabled;
+  /*
+  * 后台维护线程的执行间隔，毫秒。默认 0，即不启用。
+  * 启用后，借出和归还连接时不再执行 poolPingQuery，由后台线程校验空闲连接
+  * */
+  protected int poolHousekeepingInterval;
+  // 空闲连接的最长空闲时间，超过后由后台线程关闭(保留 poolMinimumIdleConnections 个)。毫秒，0 表示不限制
+  protected int poolMaximumIdleTime;
+  // 物理连接的最长存活时间，超过后由后台线程关闭。毫秒，0 表示不限制
+  protected int poolMaximumLifetime;
+  // 后台线程保证的最少空闲连接数
+  protected int poolMinimumIdleConnections;
+  // 每个物理连接缓存的 PreparedStatement 数量。默认 0，即不缓存
+  protected int poolPreparedStatementCacheSize;
+  // 连接被借出超过这个时间(毫秒)后，后台线程会报告可能的泄漏。默认 0，即不检测
+  protected int poolLeakDetectionThreshold;
+  // 每借出多少次连接记录一次借出时的调用栈。默认 0，即不记录
+  protected int poolLeakDetectionSampleInterval;
+  // 是否跟踪连接的自动提交、隔离级别、只读设置以及借出后是否执行过语句，用来省去不必要的数据库调用
+  protected boolean poolTrackConnectionState;
+  // 根据负载调整连接池大小的策略。默认 null，即连接池大小固定
+  protected PoolSizingStrategy poolSizingStrategy;
+
+  /*
+  * 当前生效的最大活跃连接数和最大空闲连接数。
+  * 没有设置 poolSizingStrategy 时和 poolMaximumActiveConnections、poolMaximumIdleConnections 相同，
+  * 否则由后台线程在配置的范围内调整
+  * */
+  protected volatile int currentMaximumActiveConnections = poolMaximumActiveConnections;
+  protected volatile int currentMaximumIdleConnections = poolMaximumIdleConnections;
 
   /*
   * 期望 connection 的类型编码，通过 #assembleConnectionTypeCode 来计算
   * */
   private int expectedConnectionTypeCode;
 
+  // 后台线程，启用了后台维护、泄漏检测或者 poolSizingStrategy 时才会创建
+  private PoolHousekeeper housekeeper;
+
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
   }
@@ -178,6 +236,18 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /**
+   * The algorithm used to check out and return connections.
+   *
+   * @param poolEngine The pool engine
+   *
+   * @since 3.5.0
+   */
+  public void setPoolEngine(PoolEngine poolEngine) {
+    this.poolEngine = poolEngine == null ? PoolEngine.SYNCHRONIZED : poolEngine;
+    forceCloseAll();
+  }
+
   /**
    * The maximum number of active connections
    *
@@ -185,6 +255,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumActiveConnections(int poolMaximumActiveConnections) {
     this.poolMaximumActiveConnections = poolMaximumActiveConnections;
+    resetPoolSize();
     forceCloseAll();
   }
 
@@ -195,6 +266,7 @@ public class PooledDataSource implements DataSource {
    */
   public void setPoolMaximumIdleConnections(int poolMaximumIdleConnections) {
     this.poolMaximumIdleConnections = poolMaximumIdleConnections;
+    resetPoolSize();
     forceCloseAll();
   }
 
@@ -264,6 +336,175 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /**
+   * Determines if a thread should get back the connection it returned last, when that connection is still idle.
+   *
+   * @param poolThreadAffinityEnabled True to prefer the connection last returned by the current thread
+   *
+   * @since 3.5.0
+   */
+  public void setPoolThreadAffinityEnabled(boolean poolThreadAffinityEnabled) {
+    this.poolThreadAffinityEnabled = poolThreadAffinityEnabled;
+    forceCloseAll();
+  }
+
+  /**
+   * The interval, in milliseconds, of the background task that validates and evicts idle connections and keeps
+   * the minimum number of idle connections. When enabled, connections are no longer pinged when they are checked
+   * out or returned. 0 disables the task.
+   *
+   * @param milliseconds the interval between two runs
+   *
+   * @since 3.5.0
+   */
+  public void setPoolHousekeepingInterval(int milliseconds) {
+    this.poolHousekeepingInterval = milliseconds;
+    forceCloseAll();
+    restartHousekeeper();
+  }
+
+  /**
+   * If a connection has been checked out for this many milliseconds, a background task logs a warning, with the
+   * stack trace of the code that checked it out when that checkout was sampled. 0 disables leak detection.
+   *
+   * @param milliseconds the checkout time after which a connection is reported as leaked
+   *
+   * @see #setPoolLeakDetectionSampleInterval(int)
+   * @since 3.5.0
+   */
+  public void setPoolLeakDetectionThreshold(int milliseconds) {
+    this.poolLeakDetectionThreshold = milliseconds;
+    forceCloseAll();
+    restartHousekeeper();
+  }
+
+  /**
+   * Captures the stack trace of one checkout out of this many, to be reported if that connection leaks.
+   * Capturing is not free, 0 disables it so that checking out a connection allocates nothing for leak detection.
+   *
+   * @param poolLeakDetectionSampleInterval 1 to capture every checkout, n to capture one in n, 0 to never capture
+   *
+   * @since 3.5.0
+   */
+  public void setPoolLeakDetectionSampleInterval(int poolLeakDetectionSampleInterval) {
+    this.poolLeakDetectionSampleInterval = poolLeakDetectionSampleInterval;
+    forceCloseAll();
+  }
+
+  /**
+   * Tracks the auto-commit mode, transaction isolation and read-only flag of each physical connection, and whether
+   * a statement may have been executed since it was checked out. Reading these settings, or setting them to the
+   * value they already have, then no longer reaches the database, and returned connections are only rolled back
+   * when they may have an open transaction. Settings changed through the real connection returned by
+   * {@link #unwrapConnection(Connection)}, or through SQL statements, are not seen.
+   *
+   * @param poolTrackConnectionState True to track the state of pooled connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolTrackConnectionState(boolean poolTrackConnectionState) {
+    this.poolTrackConnectionState = poolTrackConnectionState;
+    forceCloseAll();
+  }
+
+  /**
+   * Lets the pool grow and shrink with demand instead of keeping a fixed size. The strategy runs on the background
+   * housekeeping task, every {@code poolHousekeepingInterval} milliseconds, or every second when that task is
+   * otherwise disabled. {@code poolMaximumActiveConnections} and {@code poolMaximumIdleConnections} become upper
+   * bounds, and the pool starts at these bounds. null keeps the size fixed.
+   *
+   * @param poolSizingStrategy the strategy that computes the maximum number of active connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolSizingStrategy(PoolSizingStrategy poolSizingStrategy) {
+    this.poolSizingStrategy = poolSizingStrategy;
+    resetPoolSize();
+    forceCloseAll();
+    restartHousekeeper();
+  }
+
+  /*
+  * 后台维护、泄漏检测和调整连接池大小共用一个后台线程，取各自需要的最短间隔
+  * */
+  private void restartHousekeeper() {
+    synchronized (state) {
+      if (housekeeper != null) {
+        housekeeper.shutdown();
+        housekeeper = null;
+      }
+      int interval = Integer.MAX_VALUE;
+      if (poolHousekeepingInterval > 0) {
+        interval = poolHousekeepingInterval;
+      }
+      if (poolLeakDetectionThreshold > 0) {
+        interval = Math.min(interval, poolLeakDetectionThreshold);
+      }
+      if (poolSizingStrategy != null && poolHousekeepingInterval <= 0) {
+        interval = Math.min(interval, SIZING_INTERVAL);
+      }
+      if (interval != Integer.MAX_VALUE) {
+        housekeeper = new PoolHousekeeper(this, interval);
+      }
+    }
+  }
+
+  private void resetPoolSize() {
+    currentMaximumActiveConnections = poolMaximumActiveConnections;
+    currentMaximumIdleConnections = poolMaximumIdleConnections;
+  }
+
+  /**
+   * If a connection has been idle for this many milliseconds, the housekeeping task closes it, unless the pool
+   * would then have fewer than the minimum number of idle connections. 0 means no limit.
+   *
+   * @param milliseconds the maximum idle time
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumIdleTime(int milliseconds) {
+    this.poolMaximumIdleTime = milliseconds;
+    forceCloseAll();
+  }
+
+  /**
+   * If a connection was opened this many milliseconds ago, the housekeeping task closes it once it is idle.
+   * 0 means no limit.
+   *
+   * @param milliseconds the maximum lifetime
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMaximumLifetime(int milliseconds) {
+    this.poolMaximumLifetime = milliseconds;
+    forceCloseAll();
+  }
+
+  /**
+   * The number of idle connections the housekeeping task tries to keep in the pool.
+   *
+   * @param poolMinimumIdleConnections The minimum number of idle connections
+   *
+   * @since 3.5.0
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /**
+   * The number of prepared statements cached by each physical connection. Closing a cached statement resets it and
+   * keeps it open for the next {@code prepareStatement} call with the same arguments. 0 disables the cache.
+   *
+   * @param poolPreparedStatementCacheSize The number of statements cached per connection
+   *
+   * @since 3.5.0
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -292,6 +533,10 @@ public class PooledDataSource implements DataSource {
     return dataSource.getDriverProperties();
   }
 
+  public PoolEngine getPoolEngine() {
+    return poolEngine;
+  }
+
   public int getPoolMaximumActiveConnections() {
     return poolMaximumActiveConnections;
   }
@@ -324,6 +569,69 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public boolean isPoolThreadAffinityEnabled() {
+    return poolThreadAffinityEnabled;
+  }
+
+  public int getPoolHousekeepingInterval() {
+    return poolHousekeepingInterval;
+  }
+
+  public int getPoolMaximumIdleTime() {
+    return poolMaximumIdleTime;
+  }
+
+  public int getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public int getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampleInterval() {
+    return poolLeakDetectionSampleInterval;
+  }
+
+  public boolean isPoolTrackConnectionState() {
+    return poolTrackConnectionState;
+  }
+
+  public PoolSizingStrategy getPoolSizingStrategy() {
+    return poolSizingStrategy;
+  }
+
+  /**
+   * The maximum number of active connections currently in effect.
+   *
+   * @return {@code poolMaximumActiveConnections}, or the value chosen by the {@link PoolSizingStrategy}
+   *
+   * @since 3.5.0
+   */
+  public int getCurrentMaximumActiveConnections() {
+    return currentMaximumActiveConnections;
+  }
+
+  /**
+   * The maximum number of idle connections currently in effect.
+   *
+   * @return {@code poolMaximumIdleConnections}, or the value scaled along with the maximum number of active
+   *         connections chosen by the {@link PoolSizingStrategy}
+   *
+   * @since 3.5.0
+   */
+  public int getCurrentMaximumIdleConnections() {
+    return currentMaximumIdleConnections;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    */
@@ -341,6 +649,7 @@ public class PooledDataSource implements DataSource {
           PooledConnection conn = state.activeConnections.remove(i - 1);
           conn.invalidate();
 
+          conn.clearStatementCache();
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
             realConn.rollback();
@@ -356,6 +665,7 @@ public class PooledDataSource implements DataSource {
           PooledConnection conn = state.idleConnections.remove(i - 1);
           conn.invalidate();
 
+          conn.clearStatementCache();
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
             realConn.rollback();
@@ -365,6 +675,20 @@ public class PooledDataSource implements DataSource {
           // ignore
         }
       }
+      // CONCURRENT 模式下的激活连接，归还时 CAS 失败就不会再占用计数
+      for (PooledConnection conn : state.concurrentActiveConnections) {
+        if (conn.compareAndInvalidate() && state.concurrentActiveConnections.remove(conn)) {
+          state.concurrentActiveConnectionCount.decrementAndGet();
+          closeQuietly(conn);
+        }
+      }
+      // CONCURRENT 模式下的空闲连接
+      PooledConnection idle;
+      while ((idle = state.concurrentIdleConnections.pollFirst()) != null) {
+        state.concurrentIdleConnectionCount.decrementAndGet();
+        idle.invalidate();
+        closeQuietly(idle);
+      }
     }
     if (log.isDebugEnabled()) {
       log.debug("PooledDataSource forcefully closed/removed all connections.");
@@ -375,6 +699,63 @@ public class PooledDataSource implements DataSource {
     return state;
   }
 
+  /*
+  * 创建新的物理连接，并统计创建花费的时间
+  * */
+  private PooledConnection openConnection() throws SQLException {
+    long start = System.currentTimeMillis();
+    PooledConnection conn = new PooledConnection(dataSource.getConnection(), this);
+    state.creationTimeHistogram.record(System.currentTimeMillis() - start);
+    if (poolPreparedStatementCacheSize > 0) {
+      conn.setStatementCache(new PreparedStatementCache(conn.getRealConnection(), state, poolPreparedStatementCacheSize));
+    }
+    if (poolTrackConnectionState) {
+      conn.setConnectionState(new ConnectionState());
+    }
+    return conn;
+  }
+
+  /*
+  * 用新的 PooledConnection 包装同一个物理连接，保留创建时间、最后使用时间以及物理连接上共享的缓存
+  * */
+  private PooledConnection rewrap(PooledConnection conn) {
+    PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+    newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+    newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+    newConn.setStatementCache(conn.getStatementCache());
+    newConn.setConnectionState(conn.getConnectionState());
+    return newConn;
+  }
+
+  /*
+  * 回滚未提交的事务。开启 poolTrackConnectionState 后，借出期间没有执行过语句的连接不需要回滚，
+  * 自动提交模式也从缓存中读取
+  * */
+  private void rollbackIfNeeded(PooledConnection conn) throws SQLException {
+    Connection realConn = conn.getRealConnection();
+    ConnectionState connectionState = conn.getConnectionState();
+    if (connectionState == null) {
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+    } else if (conn.isDirty() && !connectionState.getAutoCommit(realConn)) {
+      realConn.rollback();
+    }
+  }
+
+  private void closeQuietly(PooledConnection conn) {
+    try {
+      conn.clearStatementCache();
+      Connection realConn = conn.getRealConnection();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      realConn.close();
+    } catch (Exception e) {
+      // ignore
+    }
+  }
+
   private int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
@@ -383,6 +764,10 @@ public class PooledDataSource implements DataSource {
   * 将用完 的连接放回连接池
   * */
   protected void pushConnection(PooledConnection conn) throws SQLException {
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      pushConnectionConcurrently(conn);
+      return;
+    }
     // 这里又加锁了
     synchronized (state) {
       // 从激活的连接集合中移除该连接
@@ -390,18 +775,16 @@ public class PooledDataSource implements DataSource {
       // 通过 ping 来测试连接是否有效
       if (conn.isValid()) {
         // 判断是否超过空闲连接的上限(因为pop的时候可能会创建新连接，所以可能会超过), 并且和当前连接池的标识匹配
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+        if (state.idleConnections.size() < currentMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
           // 统计连接使用时长
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          state.checkoutTimeHistogram.record(conn.getCheckoutTime());
           // 回滚事务
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
+          rollbackIfNeeded(conn);
           // 创建 PooledConnection 对象，并添加到空闲的连接集合中
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
+          PooledConnection newConn = rewrap(conn);
           state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+          rememberReturnedConnection(newConn);
           // 设置原连接失效, 为了避免该连接还在被使用
           conn.invalidate();
           if (log.isDebugEnabled()) {
@@ -412,11 +795,11 @@ public class PooledDataSource implements DataSource {
         } else {
           // 超过空闲连接上限或者不符合标识
           state.accumulatedCheckoutTime += conn.getCheckoutTime();
+          state.checkoutTimeHistogram.record(conn.getCheckoutTime());
           // 回滚
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
+          rollbackIfNeeded(conn);
           // 因为多余了，所以就关闭数据库连接
+          conn.clearStatementCache();
           conn.getRealConnection().close();
           if (log.isDebugEnabled()) {
             log.debug("Closed connection " + conn.getRealHashCode() + ".");
@@ -438,6 +821,9 @@ public class PooledDataSource implements DataSource {
   * 获取池化的连接
   * */
   private PooledConnection popConnection(String username, String password) throws SQLException {
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      return popConnectionConcurrently(username, password);
+    }
     // 标记 获取连接时，是否进行了等待
     boolean countedWait = false;
     // 最终获取到的连接对象
@@ -446,6 +832,10 @@ public class PooledDataSource implements DataSource {
     long t = System.currentTimeMillis();
     // 记录当前方法获取到坏连接的次数
     int localBadConnectionCount = 0;
+    // 是否取回了当前线程上一次归还的连接
+    boolean affinityHit = false;
+    // 本次获取连接累计等待的时间
+    long waitTime = 0;
 
     // 循环获取可用的 Connection 连接
     while (conn == null) {
@@ -455,8 +845,12 @@ public class PooledDataSource implements DataSource {
         // 当空闲的连接数量不为空的时候
         if (!state.idleConnections.isEmpty()) {
           // Pool has available connection
-          // 弹出第一个空闲的连接
-          conn = state.idleConnections.remove(0);
+          // 优先取回当前线程上一次归还的连接，否则弹出第一个空闲的连接
+          conn = claimLastReturnedConnection(state.idleConnections);
+          affinityHit = conn != null;
+          if (conn == null) {
+            conn = state.idleConnections.remove(0);
+          }
           if (log.isDebugEnabled()) {
             log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
           }
@@ -464,10 +858,10 @@ public class PooledDataSource implements DataSource {
           // 当已经完全没有空闲连接的时候
           // Pool does not have available connection
           // 当 激活的连接数小于 最大激活连接数时，这时是可以创建新的 PooledConnection 连接对象的
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
+          if (state.activeConnections.size() + state.pendingIdleConnectionCount < currentMaximumActiveConnections) {
             // Can create new connection
             // 创建新的数据库连接
-            conn = new PooledConnection(dataSource.getConnection(), this);
+            conn = openConnection();
             if (log.isDebugEnabled()) {
               log.debug("Created connection " + conn.getRealHashCode() + ".");
             }
@@ -485,6 +879,7 @@ public class PooledDataSource implements DataSource {
               state.claimedOverdueConnectionCount++;
               state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
               state.accumulatedCheckoutTime += longestCheckoutTime;
+              state.checkoutTimeHistogram.record(longestCheckoutTime);
               // 从活跃的连接集合中移除
               state.activeConnections.remove(oldestActiveConnection);
               // 如果不是自动提交事务的的，那么就需要进行回滚
@@ -505,10 +900,7 @@ public class PooledDataSource implements DataSource {
                 }  
               }
               // 创建新的 PooledConnection 连接对象
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              // 设置创建时间和更新时间
-              conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
-              conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+              conn = rewrap(oldestActiveConnection);
               // 将最早的激活的连接设置为无效，等待GC
               oldestActiveConnection.invalidate();
               if (log.isDebugEnabled()) {
@@ -531,7 +923,9 @@ public class PooledDataSource implements DataSource {
                 // 等待，直到超时或者 pingConnection 方法中归还连接时唤醒
                 state.wait(poolTimeToWait);
                 // 统计等待连接的时间
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
+                long waited = System.currentTimeMillis() - wt;
+                state.accumulatedWaitTime += waited;
+                waitTime += waited;
               } catch (InterruptedException e) {
                 break;
               }
@@ -544,23 +938,27 @@ public class PooledDataSource implements DataSource {
           // ping to server and check the connection is valid or not
           if (conn.isValid()) {
             // 又回滚了一次，查漏补缺？
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
-            }
+            rollbackIfNeeded(conn);
             // 设置获取连接的属性
             conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
             conn.setCheckoutTimestamp(System.currentTimeMillis());
+            sampleCheckoutSite(conn);
             conn.setLastUsedTimestamp(System.currentTimeMillis());
             // 添加到活跃的连接集合
             state.activeConnections.add(conn);
             // 对获取成功连接的统计
             state.requestCount++;
             state.accumulatedRequestTime += System.currentTimeMillis() - t;
+            if (countedWait) {
+              state.waitTimeHistogram.record(waitTime);
+            }
+            recordAffinity(affinityHit);
           } else {
             // 假如获取到坏连接了
             if (log.isDebugEnabled()) {
               log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
             }
+            affinityHit = false;
             // 统计获取坏连接的次数
             state.badConnectionCount++;
             // 记录本方法获取到坏连接的次数
@@ -589,6 +987,611 @@ public class PooledDataSource implements DataSource {
     return conn;
   }
 
+  /*
+  * CONCURRENT 模式下归还连接，只有在丢弃坏连接时才需要 state 的锁
+  * */
+  private void pushConnectionConcurrently(PooledConnection conn) throws SQLException {
+    // 和强制回收竞争，失败说明连接已经被其它线程回收或者已经归还过了
+    if (!conn.compareAndInvalidate()) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      synchronized (state) {
+        state.badConnectionCount++;
+      }
+      return;
+    }
+    state.concurrentActiveConnections.remove(conn);
+    long checkoutTime = conn.getCheckoutTime();
+    state.concurrentAccumulatedCheckoutTime.add(checkoutTime);
+    state.checkoutTimeHistogram.record(checkoutTime);
+    // 移交给等待线程时，激活计数保留给接收的线程，其它情况都要释放
+    boolean handedOff = false;
+    try {
+      if (isUsable(conn)) {
+        rollbackIfNeeded(conn);
+        if (conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
+          PooledConnection newConn = rewrap(conn);
+          // 有线程在等待时直接移交，不经过空闲队列
+          if (state.concurrentWaiterCount.get() > 0 && state.concurrentHandoffQueue.offer(newConn)) {
+            handedOff = true;
+            if (log.isDebugEnabled()) {
+              log.debug("Handed off connection " + newConn.getRealHashCode() + " to a waiting thread.");
+            }
+            return;
+          }
+          if (state.concurrentIdleConnectionCount.incrementAndGet() <= currentMaximumIdleConnections) {
+            state.concurrentIdleConnections.offerFirst(newConn);
+            rememberReturnedConnection(newConn);
+            if (log.isDebugEnabled()) {
+              log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
+            }
+            return;
+          }
+          state.concurrentIdleConnectionCount.decrementAndGet();
+          newConn.invalidate();
+        }
+        // 超过空闲连接上限或者不符合标识，关闭数据库连接
+        conn.clearStatementCache();
+        conn.getRealConnection().close();
+        if (log.isDebugEnabled()) {
+          log.debug("Closed connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        if (log.isDebugEnabled()) {
+          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+        }
+        synchronized (state) {
+          state.badConnectionCount++;
+        }
+      }
+    } finally {
+      if (!handedOff) {
+        state.concurrentActiveConnectionCount.decrementAndGet();
+      }
+    }
+  }
+
+  /*
+  * CONCURRENT 模式下获取连接
+  * 顺序为: 空闲队列 -> 创建新连接 -> 回收超时连接 -> 在公平的移交队列上等待
+  * */
+  private PooledConnection popConnectionConcurrently(String username, String password) throws SQLException {
+    boolean countedWait = false;
+    PooledConnection conn = null;
+    long t = System.currentTimeMillis();
+    int localBadConnectionCount = 0;
+    boolean affinityHit = false;
+    long waitTime = 0;
+
+    while (conn == null) {
+      conn = claimLastReturnedConnection(state.concurrentIdleConnections);
+      if (conn != null) {
+        affinityHit = true;
+        state.concurrentIdleConnectionCount.decrementAndGet();
+        state.concurrentActiveConnectionCount.incrementAndGet();
+      } else {
+        conn = pollIdleConnection();
+      }
+      if (conn != null) {
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      } else if (reserveActiveConnection()) {
+        try {
+          conn = openConnection();
+        } catch (SQLException | RuntimeException e) {
+          state.concurrentActiveConnectionCount.decrementAndGet();
+          throw e;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      } else {
+        conn = claimOverdueConnection();
+        if (conn == null) {
+          if (!countedWait) {
+            state.concurrentHadToWaitCount.increment();
+            countedWait = true;
+          }
+          if (log.isDebugEnabled()) {
+            log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+          }
+          long wt = System.currentTimeMillis();
+          state.concurrentWaiterCount.incrementAndGet();
+          try {
+            // 排队前再检查一次空闲队列，避免错过刚刚归还的连接
+            conn = pollIdleConnection();
+            if (conn == null) {
+              // 移交过来的连接已经占用了激活计数
+              conn = state.concurrentHandoffQueue.poll(Math.min(poolTimeToWait, HANDOFF_POLL_INTERVAL), TimeUnit.MILLISECONDS);
+            }
+          } catch (InterruptedException e) {
+            break;
+          } finally {
+            state.concurrentWaiterCount.decrementAndGet();
+            long waited = System.currentTimeMillis() - wt;
+            state.concurrentAccumulatedWaitTime.add(waited);
+            waitTime += waited;
+          }
+        }
+      }
+      if (conn != null) {
+        if (conn.isValid()) {
+          rollbackIfNeeded(conn);
+          conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+          conn.setCheckoutTimestamp(System.currentTimeMillis());
+          sampleCheckoutSite(conn);
+          conn.setLastUsedTimestamp(System.currentTimeMillis());
+          state.concurrentActiveConnections.add(conn);
+          state.concurrentRequestCount.increment();
+          state.concurrentAccumulatedRequestTime.add(System.currentTimeMillis() - t);
+          if (countedWait) {
+            state.waitTimeHistogram.record(waitTime);
+          }
+          recordAffinity(affinityHit);
+        } else {
+          if (log.isDebugEnabled()) {
+            log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+          }
+          affinityHit = false;
+          state.concurrentActiveConnectionCount.decrementAndGet();
+          synchronized (state) {
+            state.badConnectionCount++;
+          }
+          localBadConnectionCount++;
+          conn = null;
+          if (localBadConnectionCount > (poolMaximumIdleConnections + poolMaximumLocalBadConnectionTolerance)) {
+            if (log.isDebugEnabled()) {
+              log.debug("PooledDataSource: Could not get a good connection to the database.");
+            }
+            throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
+          }
+        }
+      }
+    }
+    if (conn == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+      }
+      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+    }
+    return conn;
+  }
+
+  /*
+  * 记录当前线程归还到空闲集合中的连接
+  * */
+  private void rememberReturnedConnection(PooledConnection conn) {
+    if (poolThreadAffinityEnabled) {
+      lastReturnedConnection.set(new WeakReference<>(conn));
+    }
+  }
+
+  /*
+  * 如果当前线程上一次归还的连接还在空闲集合中，就把它取出来
+  * SYNCHRONIZED 模式下需要持有 state 的锁调用，CONCURRENT 模式下不需要
+  * */
+  private PooledConnection claimLastReturnedConnection(Collection<PooledConnection> idleConnections) {
+    if (!poolThreadAffinityEnabled) {
+      return null;
+    }
+    WeakReference<PooledConnection> reference = lastReturnedConnection.get();
+    PooledConnection last = reference == null ? null : reference.get();
+    // 空闲集合按物理连接判断相等，移除成功说明这个物理连接还是空闲的
+    if (last == null || !idleConnections.remove(last)) {
+      return null;
+    }
+    if (last.isNotInvalidated()) {
+      return last;
+    }
+    // 这个物理连接被其它线程用过又归还了，移除的是新的包装对象，重新包装一次
+    return rewrap(last);
+  }
+
+  private void recordAffinity(boolean hit) {
+    if (poolThreadAffinityEnabled) {
+      if (hit) {
+        state.affinityHitCount.increment();
+      } else {
+        state.affinityMissCount.increment();
+      }
+    }
+  }
+
+  /*
+  * 从空闲队列中取出最近归还的连接，并占用一个激活计数
+  * */
+  private PooledConnection pollIdleConnection() {
+    PooledConnection conn = state.concurrentIdleConnections.pollFirst();
+    if (conn != null) {
+      state.concurrentIdleConnectionCount.decrementAndGet();
+      state.concurrentActiveConnectionCount.incrementAndGet();
+    }
+    return conn;
+  }
+
+  /*
+  * 在不超过 currentMaximumActiveConnections 的前提下占用一个激活计数
+  * */
+  private boolean reserveActiveConnection() {
+    for (;;) {
+      int active = state.concurrentActiveConnectionCount.get();
+      if (active >= currentMaximumActiveConnections) {
+        return false;
+      }
+      if (state.concurrentActiveConnectionCount.compareAndSet(active, active + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /*
+  * 回收检出时间最长且已经超时的连接，激活计数直接转给当前线程
+  * */
+  private PooledConnection claimOverdueConnection() {
+    PooledConnection oldestActiveConnection = null;
+    for (PooledConnection candidate : state.concurrentActiveConnections) {
+      if (oldestActiveConnection == null || candidate.getCheckoutTimestamp() < oldestActiveConnection.getCheckoutTimestamp()) {
+        oldestActiveConnection = candidate;
+      }
+    }
+    if (oldestActiveConnection == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    // 和归还连接的线程竞争，只有一方能成功
+    if (longestCheckoutTime <= poolMaximumCheckoutTime || !oldestActiveConnection.compareAndInvalidate()) {
+      return null;
+    }
+    state.concurrentActiveConnections.remove(oldestActiveConnection);
+    synchronized (state) {
+      state.claimedOverdueConnectionCount++;
+      state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
+    }
+    state.concurrentAccumulatedCheckoutTime.add(longestCheckoutTime);
+    state.checkoutTimeHistogram.record(longestCheckoutTime);
+    try {
+      rollbackIfNeeded(oldestActiveConnection);
+    } catch (SQLException e) {
+      log.debug("Bad connection. Could not roll back");
+    }
+    PooledConnection conn = rewrap(oldestActiveConnection);
+    if (log.isDebugEnabled()) {
+      log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+    }
+    return conn;
+  }
+
+  /*
+  * 借出和归还连接时的检查。开启后台维护后只检查连接是否关闭，不再访问数据库
+  * */
+  boolean isUsable(PooledConnection conn) {
+    if (poolHousekeepingInterval <= 0) {
+      return pingConnection(conn);
+    }
+    try {
+      return !conn.getRealConnection().isClosed();
+    } catch (SQLException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  /*
+  * 后台线程定时执行: 泄漏检测，以及关闭过期的空闲连接并补足最少空闲连接数
+  * */
+  void housekeep() {
+    if (poolLeakDetectionThreshold > 0) {
+      detectLeaks();
+    }
+    if (poolSizingStrategy != null) {
+      resizePool();
+    }
+    if (poolHousekeepingInterval > 0) {
+      evictIdleConnections();
+      fillIdleConnections();
+    }
+  }
+
+  /*
+  * 由 poolSizingStrategy 计算新的最大活跃连接数，限制在 [max(1, poolMinimumIdleConnections), poolMaximumActiveConnections] 内，
+  * 最大空闲连接数按配置的比例跟着调整。缩小时关闭多余的空闲连接，已经借出的连接归还时再按新的上限处理
+  * */
+  private void resizePool() {
+    int maximum = poolMaximumActiveConnections;
+    int minimum = Math.min(Math.max(1, poolMinimumIdleConnections), maximum);
+    int current = currentMaximumActiveConnections;
+    int resized = Math.max(minimum, Math.min(maximum, poolSizingStrategy.resize(state, current)));
+    if (resized == current) {
+      return;
+    }
+    currentMaximumActiveConnections = resized;
+    currentMaximumIdleConnections = Math.max(Math.min(poolMinimumIdleConnections, poolMaximumIdleConnections),
+        (int) Math.ceil((double) resized * poolMaximumIdleConnections / maximum));
+    if (log.isDebugEnabled()) {
+      log.debug("Resized pool to " + resized + " active and " + currentMaximumIdleConnections + " idle connections.");
+    }
+    if (resized > current) {
+      // 唤醒等待中的线程，让它们按新的上限创建连接
+      synchronized (state) {
+        state.notifyAll();
+      }
+      return;
+    }
+    List<PooledConnection> idleConnections = snapshotIdleConnections();
+    for (int i = idleConnections.size() - 1; i >= currentMaximumIdleConnections; i--) {
+      PooledConnection conn = idleConnections.get(i);
+      if (removeIdleConnection(conn)) {
+        conn.invalidate();
+        closeQuietly(conn);
+        state.evictedConnectionCount.increment();
+      }
+    }
+  }
+
+  /*
+  * 按采样间隔记录借出连接的调用栈，不采样时不创建任何对象
+  * */
+  private void sampleCheckoutSite(PooledConnection conn) {
+    if (poolLeakDetectionThreshold > 0 && poolLeakDetectionSampleInterval > 0
+        && ThreadLocalRandom.current().nextInt(poolLeakDetectionSampleInterval) == 0) {
+      conn.setCheckoutSite(new Throwable("Connection " + conn.getRealHashCode() + " was checked out here"));
+    }
+  }
+
+  /*
+  * 报告借出时间超过 poolLeakDetectionThreshold 的连接，每次借出只报告一次
+  * */
+  private void detectLeaks() {
+    List<PooledConnection> activeConnections;
+    synchronized (state) {
+      activeConnections = new ArrayList<>(state.activeConnections);
+    }
+    activeConnections.addAll(state.concurrentActiveConnections);
+    for (PooledConnection conn : activeConnections) {
+      long checkoutTime = conn.getCheckoutTime();
+      if (checkoutTime <= poolLeakDetectionThreshold || conn.isLeakReported()) {
+        continue;
+      }
+      conn.setLeakReported(true);
+      state.leakedConnectionCount.increment();
+      StringBuilder message = new StringBuilder();
+      message.append("Connection ").append(conn.getRealHashCode()).append(" has been checked out for ")
+          .append(checkoutTime).append(" ms, which exceeds poolLeakDetectionThreshold. It may have been leaked.");
+      Throwable site = conn.getCheckoutSite();
+      if (site != null) {
+        StringWriter stackTrace = new StringWriter();
+        site.printStackTrace(new PrintWriter(stackTrace));
+        message.append('\n').append(stackTrace);
+      }
+      log.warn(message.toString());
+    }
+  }
+
+  /*
+  * 关闭超过最长存活时间或者最长空闲时间的空闲连接，校验长时间未使用的空闲连接。
+  * ping 都在锁外进行
+  * */
+  private void evictIdleConnections() {
+    long now = System.currentTimeMillis();
+    List<PooledConnection> idleConnections = snapshotIdleConnections();
+    int idleCount = idleConnections.size();
+    for (PooledConnection conn : idleConnections) {
+      boolean expired = poolMaximumLifetime > 0 && now - conn.getCreatedTimestamp() > poolMaximumLifetime;
+      boolean tooLongIdle = poolMaximumIdleTime > 0 && now - conn.getLastUsedTimestamp() > poolMaximumIdleTime
+          && idleCount > poolMinimumIdleConnections;
+      boolean needsPing = poolPingEnabled && poolPingConnectionsNotUsedFor >= 0
+          && now - conn.getLastUsedTimestamp() > poolPingConnectionsNotUsedFor;
+      if (!expired && !tooLongIdle && !needsPing) {
+        continue;
+      }
+      // 先从空闲集合中取出，避免 ping 的过程中被借出
+      if (!removeIdleConnection(conn)) {
+        continue;
+      }
+      if (!expired && !tooLongIdle && pingConnection(conn) && returnIdleConnection(conn)) {
+        continue;
+      }
+      idleCount--;
+      conn.invalidate();
+      closeQuietly(conn);
+      state.evictedConnectionCount.increment();
+      if (log.isDebugEnabled()) {
+        log.debug("Evicted idle connection " + conn.getRealHashCode() + ".");
+      }
+    }
+  }
+
+  /**
+   * Opens connections in parallel until {@code poolMinimumIdleConnections} connections are idle, so that the first
+   * requests after startup do not have to open connections themselves. This is done automatically when an
+   * {@link org.apache.ibatis.mapping.Environment} is built with this data source.
+   *
+   * @return the number of connections that were opened
+   *
+   * @since 3.5.0
+   */
+  @Override
+  public int warmUp() {
+    int missing = countMissingIdleConnections();
+    if (missing <= 0) {
+      return 0;
+    }
+    long start = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(missing, WARM_UP_THREADS), runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-pool-warm-up");
+      thread.setDaemon(true);
+      return thread;
+    });
+    int created = 0;
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < missing; i++) {
+        results.add(executor.submit(this::createIdleConnection));
+      }
+      for (Future<Boolean> result : results) {
+        if (result.get()) {
+          created++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      log.warn("PooledDataSource warm-up failed. Cause: " + e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    long time = System.currentTimeMillis() - start;
+    synchronized (state) {
+      state.warmUpTime = time;
+      state.warmUpConnectionCount = created;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource warmed up " + created + " connections in " + time + " ms.");
+    }
+    return created;
+  }
+
+  /*
+  * 创建连接直到空闲连接数达到 poolMinimumIdleConnections，或者连接总数达到 currentMaximumActiveConnections
+  * */
+  private void fillIdleConnections() {
+    while (countMissingIdleConnections() > 0 && createIdleConnection()) {
+      // keep going
+    }
+  }
+
+  /*
+  * 先占用一个连接名额再创建，避免和借出连接的线程一起超过 currentMaximumActiveConnections
+  * */
+  private boolean createIdleConnection() {
+    if (!reserveIdleConnection()) {
+      return false;
+    }
+    PooledConnection conn;
+    boolean returned;
+    try {
+      conn = openConnection();
+      conn.setConnectionTypeCode(expectedConnectionTypeCode);
+      returned = returnIdleConnection(conn);
+    } catch (SQLException e) {
+      log.warn("PooledDataSource could not create an idle connection. Cause: " + e);
+      return false;
+    } finally {
+      releaseIdleConnectionReservation();
+    }
+    if (!returned) {
+      closeQuietly(conn);
+      return false;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+    }
+    return true;
+  }
+
+  /*
+  * CONCURRENT 模式下正在创建的连接本来就计入激活计数，CLASSIC 模式下单独计数
+  * */
+  private boolean reserveIdleConnection() {
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      for (;;) {
+        int active = state.concurrentActiveConnectionCount.get();
+        if (active + state.concurrentIdleConnectionCount.get() >= currentMaximumActiveConnections) {
+          return false;
+        }
+        if (state.concurrentActiveConnectionCount.compareAndSet(active, active + 1)) {
+          return true;
+        }
+      }
+    }
+    synchronized (state) {
+      if (state.activeConnections.size() + state.idleConnections.size() + state.pendingIdleConnectionCount
+          >= currentMaximumActiveConnections) {
+        return false;
+      }
+      state.pendingIdleConnectionCount++;
+      return true;
+    }
+  }
+
+  private void releaseIdleConnectionReservation() {
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      state.concurrentActiveConnectionCount.decrementAndGet();
+      return;
+    }
+    synchronized (state) {
+      state.pendingIdleConnectionCount--;
+      // 等待的线程可能因为这个名额没能创建连接
+      state.notifyAll();
+    }
+  }
+
+  private int countMissingIdleConnections() {
+    int idle;
+    int active;
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      idle = state.concurrentIdleConnectionCount.get();
+      active = state.concurrentActiveConnectionCount.get();
+    } else {
+      synchronized (state) {
+        idle = state.idleConnections.size();
+        active = state.activeConnections.size();
+      }
+    }
+    return Math.min(poolMinimumIdleConnections - idle, currentMaximumActiveConnections - idle - active);
+  }
+
+  private List<PooledConnection> snapshotIdleConnections() {
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      return new ArrayList<>(state.concurrentIdleConnections);
+    }
+    synchronized (state) {
+      return new ArrayList<>(state.idleConnections);
+    }
+  }
+
+  private boolean removeIdleConnection(PooledConnection conn) {
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      if (state.concurrentIdleConnections.remove(conn)) {
+        state.concurrentIdleConnectionCount.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+    synchronized (state) {
+      return state.idleConnections.remove(conn);
+    }
+  }
+
+  /*
+  * 把后台线程持有的连接放回空闲集合，超过空闲连接上限时返回 false
+  * */
+  private boolean returnIdleConnection(PooledConnection conn) {
+    if (conn.getConnectionTypeCode() != expectedConnectionTypeCode) {
+      return false;
+    }
+    if (poolEngine == PoolEngine.CONCURRENT) {
+      if (state.concurrentIdleConnectionCount.incrementAndGet() <= currentMaximumIdleConnections) {
+        state.concurrentIdleConnections.offerLast(conn);
+        return true;
+      }
+      state.concurrentIdleConnectionCount.decrementAndGet();
+      return false;
+    }
+    synchronized (state) {
+      if (state.idleConnections.size() < currentMaximumIdleConnections) {
+        state.idleConnections.add(conn);
+        state.notifyAll();
+        return true;
+      }
+      return false;
+    }
+  }
+
   /**
    * Method to check to see if a connection is still usable
    *
@@ -637,6 +1640,7 @@ public class PooledDataSource implements DataSource {
             // 有异常说明已经挂了
             log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
             try {
+              conn.clearStatementCache();
               conn.getRealConnection().close();
             } catch (Exception e2) {
               //ignore
@@ -675,6 +1679,10 @@ public class PooledDataSource implements DataSource {
   }
 
   protected void finalize() throws Throwable {
+    // 停止后台维护线程
+    if (housekeeper != null) {
+      housekeeper.shutdown();
+    }
     // 关闭所有连接
     forceCloseAll();
     // 销毁执行对象
@@ -0,0 +1,266 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ * A LRU cache of prepared statements owned by one physical connection of a {@link PooledDataSource}.
+ * <p>
+ * A statement is taken out of the cache while it is in use, so two callers never share it. Closing the
+ * statement returned by {@link #prepareStatement(Method, Object[])} resets it and puts it back, instead of closing
+ * the underlying statement. The cache is handed over to every {@link PooledConnection} that wraps the same
+ * physical connection, so it survives across sessions.
+ *
+ * @since 3.5.0
+ */
+class PreparedStatementCache {
+
+  private static final String CLOSE = "close";
+  private static final String IS_CLOSED = "isClosed";
+  private static final String ADD_BATCH = "addBatch";
+  private static final Class<?>[] IFACES = new Class<?>[] { PreparedStatement.class };
+  // 会改变语句状态的 setter 和对应的 getter，归还到缓存时恢复成最初的值
+  private static final Map<String, String> RESETTABLE_PROPERTIES = new HashMap<>();
+
+  static {
+    RESETTABLE_PROPERTIES.put("setQueryTimeout", "getQueryTimeout");
+    RESETTABLE_PROPERTIES.put("setFetchSize", "getFetchSize");
+    RESETTABLE_PROPERTIES.put("setFetchDirection", "getFetchDirection");
+    RESETTABLE_PROPERTIES.put("setMaxRows", "getMaxRows");
+    RESETTABLE_PROPERTIES.put("setMaxFieldSize", "getMaxFieldSize");
+  }
+
+  private final Connection connection;
+  private final PoolState state;
+  private final Map<StatementKey, PreparedStatement> statements;
+
+  PreparedStatementCache(Connection connection, PoolState state, final int size) {
+    this.connection = connection;
+    this.state = state;
+    this.statements = new LinkedHashMap<StatementKey, PreparedStatement>(size, .75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+        if (size() > size) {
+          closeQuietly(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns a cached statement for the arguments of a {@code prepareStatement} call, or prepares a new one.
+   *
+   * @param method one of the {@code Connection.prepareStatement} methods
+   * @param args the arguments passed to it
+   * @return a statement that goes back to the cache when it is closed
+   * @throws Throwable if the statement could not be prepared
+   */
+  PreparedStatement prepareStatement(Method method, Object[] args) throws Throwable {
+    StatementKey key = new StatementKey(args);
+    PreparedStatement statement;
+    synchronized (statements) {
+      statement = statements.remove(key);
+    }
+    if (statement != null) {
+      state.statementCacheHitCount.increment();
+    } else {
+      state.statementCacheMissCount.increment();
+      try {
+        statement = (PreparedStatement) method.invoke(connection, args);
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+    return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), IFACES,
+        new CachedStatement(key, statement));
+  }
+
+  /**
+   * Closes all cached statements.
+   */
+  void clear() {
+    synchronized (statements) {
+      for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext();) {
+        closeQuietly(it.next());
+        it.remove();
+      }
+    }
+  }
+
+  int size() {
+    synchronized (statements) {
+      return statements.size();
+    }
+  }
+
+  private void release(StatementKey key, PreparedStatement statement) {
+    PreparedStatement replaced;
+    synchronized (statements) {
+      replaced = statements.put(key, statement);
+    }
+    // 同一条 SQL 同时被准备了两次，只缓存后归还的那个
+    if (replaced != null && replaced != statement) {
+      closeQuietly(replaced);
+    }
+  }
+
+  private static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /*
+  * 缓存的 key，由 prepareStatement 的全部参数组成: SQL、结果集类型、并发模式、主键生成方式等
+  * */
+  private static class StatementKey {
+
+    private final Object[] args;
+    private final int hashCode;
+
+    StatementKey(Object[] args) {
+      this.args = args.clone();
+      this.hashCode = Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof StatementKey && Arrays.deepEquals(args, ((StatementKey) obj).args);
+    }
+  }
+
+  /*
+  * 代理缓存的语句，close 时重置语句并放回缓存
+  * */
+  private class CachedStatement implements InvocationHandler {
+
+    private final StatementKey key;
+    private final PreparedStatement statement;
+    private Map<Method, Object> originalProperties;
+    private boolean batched;
+    private boolean closed;
+    // 最近交给调用者的结果集，有的驱动执行 executeQuery 之后 getResultSet 返回 null
+    private ResultSet resultSet;
+
+    CachedStatement(StatementKey key, PreparedStatement statement) {
+      this.key = key;
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      if (CLOSE.equals(methodName) && method.getParameterTypes().length == 0) {
+        close();
+        return null;
+      }
+      if (IS_CLOSED.equals(methodName) && method.getParameterTypes().length == 0) {
+        return closed || statement.isClosed();
+      }
+      try {
+        if (!Object.class.equals(method.getDeclaringClass())) {
+          if (closed) {
+            throw new SQLException("Error accessing cached PreparedStatement. Statement is closed.");
+          }
+          if (ADD_BATCH.equals(methodName)) {
+            batched = true;
+          } else if (RESETTABLE_PROPERTIES.containsKey(methodName)) {
+            rememberOriginalProperty(method);
+          }
+        }
+        Object result = method.invoke(statement, args);
+        if (result instanceof ResultSet) {
+          resultSet = (ResultSet) result;
+        }
+        return result;
+      } catch (Throwable t) {
+        throw ExceptionUtil.unwrapThrowable(t);
+      }
+    }
+
+    private void rememberOriginalProperty(Method setter) throws Exception {
+      if (originalProperties == null) {
+        originalProperties = new HashMap<>();
+      }
+      if (!originalProperties.containsKey(setter)) {
+        Method getter = PreparedStatement.class.getMethod(RESETTABLE_PROPERTIES.get(setter.getName()));
+        originalProperties.put(setter, getter.invoke(statement));
+      }
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (statement.isClosed()) {
+          return;
+        }
+        // 和 Statement#close 一样关闭当前的结果集，下一个使用者不会得到打开的游标
+        closeResultSet(resultSet);
+        closeResultSet(statement.getResultSet());
+        resultSet = null;
+        if (batched) {
+          statement.clearBatch();
+        }
+        statement.clearParameters();
+        if (originalProperties != null) {
+          for (Map.Entry<Method, Object> entry : originalProperties.entrySet()) {
+            entry.getKey().invoke(statement, entry.getValue());
+          }
+        }
+      } catch (Exception e) {
+        // 无法重置的语句不再缓存
+        closeQuietly(statement);
+        return;
+      }
+      release(key, statement);
+    }
+
+    private void closeResultSet(ResultSet rs) throws SQLException {
+      if (rs != null && !rs.isClosed()) {
+        rs.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+
+/**
+ * A read replica of a {@link RoutingDataSource}, with its own connection pool.
+ * <p>
+ * The endpoint is ejected for {@link RoutingDataSource#getEjectionTime()} milliseconds once getting a connection
+ * from it has failed {@link RoutingDataSource#getEjectionThreshold()} times in a row. After that time it is tried
+ * again, and ejected again on the next failure.
+ *
+ * @since 3.5.0
+ */
+public class ReplicaEndpoint {
+
+  private final PooledDataSource dataSource;
+  private final int weight;
+  // 连续获取连接失败的次数
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  // 被剔除到什么时候为止，0 表示没有被剔除
+  private volatile long ejectedUntil;
+
+  ReplicaEndpoint(PooledDataSource dataSource, int weight) {
+    if (weight <= 0) {
+      throw new IllegalArgumentException("The weight of a replica must be positive, but was " + weight);
+    }
+    this.dataSource = dataSource;
+    this.weight = weight;
+  }
+
+  public PooledDataSource getDataSource() {
+    return dataSource;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures.get();
+  }
+
+  public boolean isEjected() {
+    return ejectedUntil > System.currentTimeMillis();
+  }
+
+  void recordSuccess() {
+    if (consecutiveFailures.get() != 0) {
+      consecutiveFailures.set(0);
+    }
+    ejectedUntil = 0;
+  }
+
+  /*
+  * 记录一次失败，连续失败达到阈值后剔除一段时间。恢复后再失败一次就会再次被剔除
+  * */
+  void recordFailure(int ejectionThreshold, long ejectionTime) {
+    if (consecutiveFailures.incrementAndGet() >= ejectionThreshold) {
+      ejectedUntil = System.currentTimeMillis() + ejectionTime;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return dataSource.getUrl() + " (weight " + weight + (isEjected() ? ", ejected)" : ")");
+  }
+
+}
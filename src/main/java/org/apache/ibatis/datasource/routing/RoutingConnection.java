@@ -0,0 +1,223 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/*
+* RoutingDataSource 返回的连接代理。创建语句时才获取物理连接:
+* 只执行过 SELECT 时使用从库连接，其它语句及之后的所有语句使用主库连接。
+* 获取物理连接之前的设置先记录下来，获取后再应用到物理连接上
+* */
+class RoutingConnection implements InvocationHandler {
+
+  private static final Log log = LogFactory.getLog(RoutingConnection.class);
+
+  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+
+  private final RoutingDataSource dataSource;
+  private final String username;
+  private final String password;
+  private final Connection proxyConnection;
+
+  // 获取物理连接之前记录的设置，null 表示没有设置过
+  private Boolean autoCommit;
+  private Integer transactionIsolation;
+  private Boolean readOnly;
+
+  private Connection replicaConnection;
+  private Connection primaryConnection;
+  // 所有从库都不可用时不再尝试
+  private boolean replicaUnavailable;
+  // 是否执行过 SELECT 以外的语句
+  private boolean written;
+  private boolean closed;
+
+  RoutingConnection(RoutingDataSource dataSource, String username, String password) {
+    this.dataSource = dataSource;
+    this.username = username;
+    this.password = password;
+    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+  }
+
+  Connection getProxyConnection() {
+    return proxyConnection;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String methodName = method.getName();
+    if (Object.class.equals(method.getDeclaringClass())) {
+      switch (methodName) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          Connection target = currentConnection();
+          return "Routing connection to " + (target == null ? "no endpoint yet" : target.toString());
+      }
+    }
+    switch (methodName) {
+      case "close":
+        close();
+        return null;
+      case "isClosed":
+        return closed;
+      default:
+        break;
+    }
+    if (closed) {
+      throw new SQLException("Error accessing RoutingConnection. Connection is closed.");
+    }
+    Connection target = currentConnection();
+    boolean noArgs = args == null || args.length == 0;
+    switch (methodName) {
+      case "getAutoCommit":
+        if (target == null) {
+          return autoCommit != null ? autoCommit : dataSource.getDefaultAutoCommit();
+        }
+        break;
+      case "setAutoCommit":
+        autoCommit = (Boolean) args[0];
+        return invokeOnEveryConnection(method, args);
+      case "getTransactionIsolation":
+        if (target == null) {
+          return transactionIsolation != null ? transactionIsolation : dataSource.getDefaultTransactionIsolation();
+        }
+        break;
+      case "setTransactionIsolation":
+        transactionIsolation = (Integer) args[0];
+        return invokeOnEveryConnection(method, args);
+      case "isReadOnly":
+        if (target == null) {
+          return readOnly != null ? readOnly : Boolean.FALSE;
+        }
+        break;
+      case "setReadOnly":
+        readOnly = (Boolean) args[0];
+        return invokeOnEveryConnection(method, args);
+      case "commit":
+      case "rollback":
+        if (noArgs) {
+          return invokeOnEveryConnection(method, args);
+        }
+        target = route();
+        break;
+      case "getWarnings":
+        if (target == null) {
+          return null;
+        }
+        break;
+      case "clearWarnings":
+        return invokeOnEveryConnection(method, args);
+      default:
+        target = route();
+        break;
+    }
+    try {
+      return method.invoke(target, args);
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  /*
+  * 主库连接优先，因为写过之后只使用主库连接
+  * */
+  private Connection currentConnection() {
+    return primaryConnection != null ? primaryConnection : replicaConnection;
+  }
+
+  private Connection route() throws SQLException {
+    SqlCommandType commandType = RoutingDataSource.getCommandType();
+    if (commandType != SqlCommandType.SELECT) {
+      written = true;
+    } else if (!written && !replicaUnavailable && dataSource.hasReplicas()) {
+      if (replicaConnection == null) {
+        replicaConnection = dataSource.getReplicaConnection(username, password);
+        if (replicaConnection == null) {
+          replicaUnavailable = true;
+          if (log.isDebugEnabled()) {
+            log.debug("No replica available, reading from the primary.");
+          }
+        } else {
+          configure(replicaConnection);
+        }
+      }
+      if (replicaConnection != null) {
+        return replicaConnection;
+      }
+    }
+    if (primaryConnection == null) {
+      primaryConnection = dataSource.getPrimaryConnection(username, password);
+      configure(primaryConnection);
+    }
+    return primaryConnection;
+  }
+
+  private void configure(Connection connection) throws SQLException {
+    if (autoCommit != null && connection.getAutoCommit() != autoCommit) {
+      connection.setAutoCommit(autoCommit);
+    }
+    if (transactionIsolation != null) {
+      connection.setTransactionIsolation(transactionIsolation);
+    }
+    if (readOnly != null) {
+      connection.setReadOnly(readOnly);
+    }
+  }
+
+  private Object invokeOnEveryConnection(Method method, Object[] args) throws Throwable {
+    try {
+      if (replicaConnection != null) {
+        method.invoke(replicaConnection, args);
+      }
+      if (primaryConnection != null) {
+        method.invoke(primaryConnection, args);
+      }
+      return null;
+    } catch (Throwable t) {
+      throw ExceptionUtil.unwrapThrowable(t);
+    }
+  }
+
+  private void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (replicaConnection != null) {
+        replicaConnection.close();
+      }
+    } finally {
+      if (primaryConnection != null) {
+        primaryConnection.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,277 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.WarmableDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * A DataSource that sends reads to read replicas and everything else to a primary database, each endpoint having its
+ * own {@link PooledDataSource}.
+ * <p>
+ * The connections it returns are lazy: no physical connection is taken until a statement is created. A statement
+ * goes to a replica when the mapped statement being executed is a {@link SqlCommandType#SELECT} and nothing but
+ * SELECT statements have been executed through the connection so far. Any other statement, and every statement
+ * after it, goes to the primary. The command type is published by {@link RoutingInterceptor}, which must be
+ * registered as a plugin; without it every statement goes to the primary.
+ * <p>
+ * Replicas are picked at random in proportion to their weight. A replica that repeatedly fails to provide a connection
+ * is ejected for a while, and reads go to the primary when every replica is ejected.
+ *
+ * @see RoutingDataSourceFactory
+ * @since 3.5.0
+ */
+public class RoutingDataSource implements WarmableDataSource {
+
+  private static final Log log = LogFactory.getLog(RoutingDataSource.class);
+
+  // 当前线程正在执行的语句类型，由 RoutingInterceptor 设置
+  private static final ThreadLocal<SqlCommandType> COMMAND_TYPE = new ThreadLocal<>();
+
+  private final PooledDataSource primary;
+  private final List<ReplicaEndpoint> replicas = new CopyOnWriteArrayList<>();
+
+  // 连续失败多少次后剔除从库
+  private int ejectionThreshold = 3;
+  // 剔除的时长，毫秒
+  private long ejectionTime = 30000L;
+
+  // 主库连接的默认设置，在还没有获取物理连接时回答 getAutoCommit 等调用。第一次需要时读取
+  private volatile Boolean defaultAutoCommit;
+  private volatile Integer defaultTransactionIsolation;
+
+  public RoutingDataSource(PooledDataSource primary) {
+    this.primary = primary;
+  }
+
+  /**
+   * Adds a read replica.
+   *
+   * @param dataSource the pool of the replica
+   * @param weight the share of reads sent to this replica, relative to the weights of the other replicas
+   * @return the new endpoint
+   */
+  public ReplicaEndpoint addReplica(PooledDataSource dataSource, int weight) {
+    ReplicaEndpoint endpoint = new ReplicaEndpoint(dataSource, weight);
+    replicas.add(endpoint);
+    return endpoint;
+  }
+
+  public PooledDataSource getPrimary() {
+    return primary;
+  }
+
+  public List<ReplicaEndpoint> getReplicas() {
+    return Collections.unmodifiableList(replicas);
+  }
+
+  /**
+   * The number of consecutive failures to get a connection after which a replica is ejected.
+   *
+   * @param ejectionThreshold the number of failures, 3 by default
+   */
+  public void setEjectionThreshold(int ejectionThreshold) {
+    this.ejectionThreshold = ejectionThreshold;
+  }
+
+  public int getEjectionThreshold() {
+    return ejectionThreshold;
+  }
+
+  /**
+   * How long, in milliseconds, an ejected replica receives no reads.
+   *
+   * @param ejectionTime the ejection time, 30 seconds by default
+   */
+  public void setEjectionTime(long ejectionTime) {
+    this.ejectionTime = ejectionTime;
+  }
+
+  public long getEjectionTime() {
+    return ejectionTime;
+  }
+
+  /**
+   * Warms up the pool of every endpoint.
+   *
+   * @return the number of connections opened
+   * @see PooledDataSource#warmUp()
+   */
+  @Override
+  public int warmUp() {
+    int opened = primary.warmUp();
+    for (ReplicaEndpoint replica : replicas) {
+      opened += replica.getDataSource().warmUp();
+    }
+    return opened;
+  }
+
+  /**
+   * Closes the connections of every endpoint.
+   */
+  public void forceCloseAll() {
+    primary.forceCloseAll();
+    for (ReplicaEndpoint replica : replicas) {
+      replica.getDataSource().forceCloseAll();
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return new RoutingConnection(this, null, null).getProxyConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return new RoutingConnection(this, username, password).getProxyConnection();
+  }
+
+  static SqlCommandType getCommandType() {
+    return COMMAND_TYPE.get();
+  }
+
+  /*
+  * 设置当前线程的语句类型，返回之前的值以便恢复
+  * */
+  static SqlCommandType setCommandType(SqlCommandType commandType) {
+    SqlCommandType previous = COMMAND_TYPE.get();
+    if (commandType == null) {
+      COMMAND_TYPE.remove();
+    } else {
+      COMMAND_TYPE.set(commandType);
+    }
+    return previous;
+  }
+
+  Connection getPrimaryConnection(String username, String password) throws SQLException {
+    return username == null ? primary.getConnection() : primary.getConnection(username, password);
+  }
+
+  /*
+  * 按权重随机选择一个没有被剔除的从库并获取连接。获取失败的从库记录一次失败后换下一个，
+  * 所有从库都不可用时返回 null，由调用方改用主库
+  * */
+  Connection getReplicaConnection(String username, String password) {
+    List<ReplicaEndpoint> candidates = new ArrayList<>(replicas.size());
+    int totalWeight = 0;
+    for (ReplicaEndpoint replica : replicas) {
+      if (!replica.isEjected()) {
+        candidates.add(replica);
+        totalWeight += replica.getWeight();
+      }
+    }
+    while (!candidates.isEmpty()) {
+      int random = ThreadLocalRandom.current().nextInt(totalWeight);
+      ReplicaEndpoint replica = null;
+      for (ReplicaEndpoint candidate : candidates) {
+        random -= candidate.getWeight();
+        if (random < 0) {
+          replica = candidate;
+          break;
+        }
+      }
+      try {
+        PooledDataSource dataSource = replica.getDataSource();
+        Connection connection = username == null ? dataSource.getConnection() : dataSource.getConnection(username, password);
+        replica.recordSuccess();
+        return connection;
+      } catch (SQLException | RuntimeException e) {
+        replica.recordFailure(ejectionThreshold, ejectionTime);
+        log.warn("Could not get a connection from replica " + replica + ". Cause: " + e);
+        candidates.remove(replica);
+        totalWeight -= replica.getWeight();
+      }
+    }
+    return null;
+  }
+
+  boolean hasReplicas() {
+    return !replicas.isEmpty();
+  }
+
+  boolean getDefaultAutoCommit() throws SQLException {
+    if (defaultAutoCommit == null) {
+      loadDefaults();
+    }
+    return defaultAutoCommit;
+  }
+
+  int getDefaultTransactionIsolation() throws SQLException {
+    if (defaultTransactionIsolation == null) {
+      loadDefaults();
+    }
+    return defaultTransactionIsolation;
+  }
+
+  private void loadDefaults() throws SQLException {
+    try (Connection connection = primary.getConnection()) {
+      defaultTransactionIsolation = connection.getTransactionIsolation();
+      defaultAutoCommit = connection.getAutoCommit();
+    }
+  }
+
+  @Override
+  public void setLoginTimeout(int loginTimeout) {
+    DriverManager.setLoginTimeout(loginTimeout);
+  }
+
+  @Override
+  public int getLoginTimeout() {
+    return DriverManager.getLoginTimeout();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter logWriter) {
+    DriverManager.setLogWriter(logWriter);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() {
+    return DriverManager.getLogWriter();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+}
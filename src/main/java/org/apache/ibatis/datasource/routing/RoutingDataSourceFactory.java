@@ -0,0 +1,109 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+/**
+ * Creates a {@link RoutingDataSource}.
+ * <p>
+ * Properties are those of {@link PooledDataSourceFactory} and configure the primary, except
+ * {@code ejectionThreshold} and {@code ejectionTime}, which configure the routing. Each replica is declared with
+ * properties prefixed by {@code replica.<name>.}: it inherits the properties of the primary, which its own properties
+ * override, and {@code replica.<name>.weight} sets its weight (1 by default).
+ * <pre>
+ * &lt;dataSource type="ROUTING"&gt;
+ *   &lt;property name="driver" value="..."/&gt;
+ *   &lt;property name="url" value="jdbc:...primary..."/&gt;
+ *   &lt;property name="replica.r1.url" value="jdbc:...replica1..."/&gt;
+ *   &lt;property name="replica.r2.url" value="jdbc:...replica2..."/&gt;
+ *   &lt;property name="replica.r2.weight" value="2"/&gt;
+ * &lt;/dataSource&gt;
+ * </pre>
+ *
+ * @since 3.5.0
+ */
+public class RoutingDataSourceFactory implements DataSourceFactory {
+
+  private static final String REPLICA_PROPERTY_PREFIX = "replica.";
+  private static final String WEIGHT_PROPERTY = "weight";
+  private static final String EJECTION_THRESHOLD_PROPERTY = "ejectionThreshold";
+  private static final String EJECTION_TIME_PROPERTY = "ejectionTime";
+
+  private RoutingDataSource dataSource;
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties primaryProperties = new Properties();
+    Map<String, Properties> replicaProperties = new LinkedHashMap<>();
+    String ejectionThreshold = null;
+    String ejectionTime = null;
+    for (String name : properties.stringPropertyNames()) {
+      String value = properties.getProperty(name);
+      if (name.startsWith(REPLICA_PROPERTY_PREFIX)) {
+        // replica.<name>.<property>
+        String rest = name.substring(REPLICA_PROPERTY_PREFIX.length());
+        int dot = rest.indexOf('.');
+        if (dot <= 0) {
+          throw new DataSourceException("Invalid replica property: " + name + ". Expected replica.<name>.<property>");
+        }
+        replicaProperties.computeIfAbsent(rest.substring(0, dot), k -> new Properties())
+            .setProperty(rest.substring(dot + 1), value);
+      } else if (EJECTION_THRESHOLD_PROPERTY.equals(name)) {
+        ejectionThreshold = value;
+      } else if (EJECTION_TIME_PROPERTY.equals(name)) {
+        ejectionTime = value;
+      } else {
+        primaryProperties.setProperty(name, value);
+      }
+    }
+    dataSource = new RoutingDataSource(createPooledDataSource(primaryProperties));
+    if (ejectionThreshold != null) {
+      dataSource.setEjectionThreshold(Integer.parseInt(ejectionThreshold));
+    }
+    if (ejectionTime != null) {
+      dataSource.setEjectionTime(Long.parseLong(ejectionTime));
+    }
+    for (Properties replica : replicaProperties.values()) {
+      String weight = (String) replica.remove(WEIGHT_PROPERTY);
+      Properties merged = new Properties();
+      merged.putAll(primaryProperties);
+      merged.putAll(replica);
+      dataSource.addReplica(createPooledDataSource(merged), weight == null ? 1 : Integer.parseInt(weight));
+    }
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  private PooledDataSource createPooledDataSource(Properties properties) {
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(properties);
+    return (PooledDataSource) factory.getDataSource();
+  }
+
+}
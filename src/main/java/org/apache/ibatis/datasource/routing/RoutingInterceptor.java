@@ -0,0 +1,80 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.Properties;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * Publishes the {@link SqlCommandType} of the mapped statement being executed, so that
+ * {@link RoutingDataSource} can send SELECT statements to a replica. Selects executed within a write, such as a
+ * {@code <selectKey>}, keep the type of the write and use the primary.
+ * <pre>
+ * &lt;plugins&gt;
+ *   &lt;plugin interceptor="org.apache.ibatis.datasource.routing.RoutingInterceptor"/&gt;
+ * &lt;/plugins&gt;
+ * </pre>
+ *
+ * @since 3.5.0
+ */
+@Intercepts({
+    @Signature(type = Executor.class, method = "update", args = { MappedStatement.class, Object.class }),
+    @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+    @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class }),
+    @Signature(type = Executor.class, method = "queryCursor", args = { MappedStatement.class, Object.class, RowBounds.class }) })
+public class RoutingInterceptor implements Interceptor {
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+    SqlCommandType commandType = ms.getSqlCommandType();
+    SqlCommandType outer = RoutingDataSource.getCommandType();
+    if (commandType == SqlCommandType.SELECT && outer != null && outer != SqlCommandType.SELECT) {
+      // 写语句中执行的查询（例如 selectKey）要在主库上读到最新的数据
+      commandType = outer;
+    }
+    // 嵌套查询结束后要恢复外层语句的类型
+    SqlCommandType previous = RoutingDataSource.setCommandType(commandType);
+    try {
+      return invocation.proceed();
+    } finally {
+      RoutingDataSource.setCommandType(previous);
+    }
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+}
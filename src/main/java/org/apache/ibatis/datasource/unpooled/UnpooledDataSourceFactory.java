@@ -15,12 +15,14 @@
  */
 package org.apache.ibatis.datasource.unpooled;
 
+import java.util.Locale;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import org.apache.ibatis.datasource.DataSourceException;
 import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -80,6 +82,7 @@ public class UnpooledDataSourceFactory implements DataSourceFactory {
   * value 是 字符串，但是 MetaObject 里面对应的值不一定是 String, 所以利用该方法看看该属性对应的类型是什么
   * 并将value转换为该值
   * */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
   private Object convertValue(MetaObject metaDataSource, String propertyName, String value) {
     Object convertedValue = value;
     // 获取 set 方法的属性
@@ -90,6 +93,16 @@ public class UnpooledDataSourceFactory implements DataSourceFactory {
       convertedValue = Long.valueOf(value);
     } else if (targetType == Boolean.class || targetType == boolean.class) {
       convertedValue = Boolean.valueOf(value);
+    } else if (targetType.isEnum()) {
+      // 枚举类型的属性，比如 PooledDataSource 的 poolEngine
+      convertedValue = Enum.valueOf((Class<? extends Enum>) targetType, value.toUpperCase(Locale.ENGLISH));
+    } else if (targetType.isInterface()) {
+      // 接口类型的属性填写实现类的全限定名，比如 PooledDataSource 的 poolSizingStrategy
+      try {
+        convertedValue = Resources.classForName(value).newInstance();
+      } catch (Exception e) {
+        throw new DataSourceException("Error instantiating " + value + " for DataSource property " + propertyName + ". Cause: " + e, e);
+      }
     }
     return convertedValue;
   }
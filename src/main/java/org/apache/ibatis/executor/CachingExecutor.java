@@ -16,21 +16,31 @@
 package org.apache.ibatis.executor;
 
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cache.QueryLoader;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.MetricsCache;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.parsing.TableNameParser;
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
  * @author Clinton Begin
@@ -72,7 +82,7 @@ public class CachingExecutor implements Executor {
 
   @Override
   public int update(MappedStatement ms, Object parameterObject) throws SQLException {
-    flushCacheIfRequired(ms);
+    invalidateCacheIfRequired(ms, parameterObject);
     return delegate.update(ms, parameterObject);
   }
 
@@ -100,8 +110,16 @@ public class CachingExecutor implements Executor {
         @SuppressWarnings("unchecked")
         List<E> list = (List<E>) tcm.getObject(cache, key);
         if (list == null) {
+          long start = System.nanoTime();
           list = delegate.query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
-          tcm.putObject(cache, key, list); // issue #578 and #116
+          if (cache instanceof MetricsCache) {
+            ((MetricsCache) cache).recordLoad(System.nanoTime() - start);
+          }
+          if (cache.usesLoaders()) {
+            tcm.putObject(cache, key, list, new StatementLoader(ms, parameterObject, rowBounds, key, boundSql)); // issue #578 and #116
+          } else {
+            tcm.putObject(cache, key, list); // issue #578 and #116
+          }
         }
         return list;
       }
@@ -168,9 +186,115 @@ public class CachingExecutor implements Executor {
     }
   }
 
+  /*
+  * 写操作的表已知时只使这些表的缓存条目失效，否则清空整个缓存
+  * */
+  private void invalidateCacheIfRequired(MappedStatement ms, Object parameterObject) {
+    Cache cache = ms.getCache();
+    if (cache != null && ms.isFlushCacheRequired()) {
+      if (!cache.supportsInvalidation()) {
+        tcm.clear(cache);
+        return;
+      }
+      Set<String> tables = ms.getTables();
+      if (tables.isEmpty() && ms.getSqlCommandType() != SqlCommandType.SELECT) {
+        tables = TableNameParser.parseWrittenTables(ms.getBoundSql(parameterObject).getSql());
+      }
+      if (tables.isEmpty()) {
+        tcm.clear(cache);
+      } else {
+        tcm.invalidate(cache, tables);
+      }
+    }
+  }
+
   @Override
   public void setExecutorWrapper(Executor executor) {
     throw new UnsupportedOperationException("This method should not be called");
   }
 
+  /*
+  * 和缓存条目一起保存，后台刷新时在新的事务中重新执行查询，按表失效时提供查询的表。
+  * 参数的值在放入缓存时取出，调用者之后修改参数对象不会影响刷新的查询
+  * */
+  private static class StatementLoader implements QueryLoader {
+    private final MappedStatement ms;
+    private final RowBounds rowBounds;
+    private final CacheKey key;
+    private final String sql;
+    private final List<ParameterMapping> parameterMappings;
+    private final Map<String, Object> parameterValues = new HashMap<>();
+
+    StatementLoader(MappedStatement ms, Object parameterObject, RowBounds rowBounds, CacheKey key, BoundSql boundSql) {
+      this.ms = ms;
+      this.rowBounds = rowBounds;
+      this.key = key;
+      this.sql = boundSql.getSql();
+      this.parameterMappings = boundSql.getParameterMappings();
+      Configuration configuration = ms.getConfiguration();
+      TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+      // mimic DefaultParameterHandler logic
+      for (ParameterMapping parameterMapping : parameterMappings) {
+        Object value;
+        String propertyName = parameterMapping.getProperty();
+        if (boundSql.hasAdditionalParameter(propertyName)) {
+          value = boundSql.getAdditionalParameter(propertyName);
+        } else if (parameterObject == null) {
+          value = null;
+        } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+          value = parameterObject;
+        } else {
+          MetaObject metaObject = configuration.newMetaObject(parameterObject);
+          value = metaObject.getValue(propertyName);
+        }
+        parameterValues.put(propertyName, value);
+      }
+    }
+
+    @Override
+    public Object call() throws Exception {
+      Configuration configuration = ms.getConfiguration();
+      Environment environment = configuration.getEnvironment();
+      if (environment == null) {
+        throw new ExecutorException("Cannot execute " + ms.getId() + " again without an environment.");
+      }
+      Transaction transaction = environment.getTransactionFactory().newTransaction(environment.getDataSource(), null, false);
+      Executor executor = new SimpleExecutor(configuration, transaction);
+      try {
+        BoundSql boundSql = new CapturedBoundSql(configuration, sql, parameterMappings, parameterValues);
+        return executor.query(ms, null, rowBounds, NO_RESULT_HANDLER, key, boundSql);
+      } finally {
+        executor.close(false);
+      }
+    }
+
+    @Override
+    public Set<String> getTables() {
+      return ms.getTables().isEmpty() ? TableNameParser.parseReadTables(sql) : ms.getTables();
+    }
+  }
+
+  /*
+  * 所有参数都作为附加参数，从放入缓存时取出的值中读取
+  * */
+  private static class CapturedBoundSql extends BoundSql {
+    private final Map<String, Object> parameterValues;
+
+    CapturedBoundSql(Configuration configuration, String sql, List<ParameterMapping> parameterMappings,
+        Map<String, Object> parameterValues) {
+      super(configuration, sql, parameterMappings, null);
+      this.parameterValues = parameterValues;
+    }
+
+    @Override
+    public boolean hasAdditionalParameter(String name) {
+      return parameterValues.containsKey(name);
+    }
+
+    @Override
+    public Object getAdditionalParameter(String name) {
+      return parameterValues.get(name);
+    }
+  }
+
 }
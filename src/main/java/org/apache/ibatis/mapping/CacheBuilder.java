@@ -23,14 +23,26 @@ import java.util.Properties;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.InvalidationBus;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.decorators.BroadcastingCache;
+import org.apache.ibatis.cache.decorators.CopyingCache;
+import org.apache.ibatis.cache.decorators.EvictionCountingCache;
+import org.apache.ibatis.cache.decorators.ExpiringCache;
 import org.apache.ibatis.cache.decorators.LoggingCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.MetricsCache;
+import org.apache.ibatis.cache.decorators.NegativeCache;
 import org.apache.ibatis.cache.decorators.ScheduledCache;
 import org.apache.ibatis.cache.decorators.SerializedCache;
 import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.io.Resources;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.SystemMetaObject;
 
@@ -46,6 +58,8 @@ public class CacheBuilder {
   private boolean readWrite;
   private Properties properties;
   private boolean blocking;
+  private boolean metrics;
+  private InvalidationBus invalidationBus;
 
   public CacheBuilder(String id) {
     this.id = id;
@@ -83,7 +97,17 @@ public class CacheBuilder {
     this.blocking = blocking;
     return this;
   }
+
+  public CacheBuilder metrics(boolean metrics) {
+    this.metrics = metrics;
+    return this;
+  }
   
+  public CacheBuilder invalidationBus(InvalidationBus invalidationBus) {
+    this.invalidationBus = invalidationBus;
+    return this;
+  }
+
   public CacheBuilder properties(Properties properties) {
     this.properties = properties;
     return this;
@@ -93,16 +117,40 @@ public class CacheBuilder {
     setDefaultImplementations();
     Cache cache = newBaseCacheInstance(implementation, id);
     setCacheProperties(cache);
+    EvictionCountingCache evictionCounter = null;
     // issue #352, do not apply decorators to custom caches
     if (PerpetualCache.class.equals(cache.getClass())) {
+      if (metrics) {
+        // 统计上层装饰器淘汰的条目
+        evictionCounter = new EvictionCountingCache(cache);
+        cache = evictionCounter;
+      }
+      if (isWeighted()) {
+        // 放在淘汰装饰器之下，被它们淘汰的条目立即释放重量
+        cache = newWeightedCache(cache);
+      }
       for (Class<? extends Cache> decorator : decorators) {
         cache = newCacheDecoratorInstance(decorator, cache);
         setCacheProperties(cache);
       }
-      cache = setStandardDecorators(cache);
+      cache = setStandardDecorators(cache, true, false, evictionCounter);
+    } else if (ConcurrentCache.class.equals(cache.getClass()) || OffHeapCache.class.equals(cache.getClass())) {
+      // ConcurrentCache and OffHeapCache have their own eviction and need no lock
+      cache = setStandardDecorators(cache, false, isWeighted(), null);
     } else if (!LoggingCache.class.isAssignableFrom(cache.getClass())) {
       cache = new LoggingCache(cache);
     }
+    if (invalidationBus != null) {
+      // 自定义缓存同样需要通知其他节点
+      BroadcastingCache broadcastingCache = new BroadcastingCache(cache);
+      broadcastingCache.setInvalidationBus(invalidationBus);
+      cache = broadcastingCache;
+    }
+    if (metrics) {
+      MetricsCache metricsCache = new MetricsCache(cache);
+      metricsCache.setEvictionCounter(evictionCounter);
+      cache = metricsCache;
+    }
     return cache;
   }
 
@@ -115,21 +163,50 @@ public class CacheBuilder {
     }
   }
 
-  private Cache setStandardDecorators(Cache cache) {
+  private Cache setStandardDecorators(Cache cache, boolean synchronize, boolean weigh,
+      EvictionCountingCache evictionCounter) {
     try {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
       if (size != null && metaCache.hasSetter("size")) {
         metaCache.setValue("size", size);
       }
+      if (weigh) {
+        cache = newWeightedCache(cache);
+      }
+      if (evictionCounter != null) {
+        // 失效、过期和释放锁的删除不计入淘汰数
+        cache = evictionCounter.excludeRemovals(cache);
+      }
       if (clearInterval != null) {
         cache = new ScheduledCache(cache);
         ((ScheduledCache) cache).setClearInterval(clearInterval);
       }
-      if (readWrite) {
-        cache = new SerializedCache(cache);
+      // OffHeapCache already stores serialized copies
+      if (readWrite && !OffHeapCache.class.equals(implementation)) {
+        if (properties != null && "clone".equalsIgnoreCase(properties.getProperty("copyStrategy"))) {
+          cache = new CopyingCache(cache);
+        } else {
+          cache = new SerializedCache(cache);
+          setCacheProperties(cache);
+        }
+      }
+      if (properties != null && properties.containsKey("negativeSize")) {
+        // 空结果不经过序列化，也不占用淘汰策略的容量
+        cache = new NegativeCache(cache);
+        setCacheProperties(cache);
       }
       cache = new LoggingCache(cache);
-      cache = new SynchronizedCache(cache);
+      if (synchronize) {
+        cache = new SynchronizedCache(cache);
+      }
+      if (properties != null
+          && (properties.containsKey("timeToLive") || properties.containsKey("timeToIdle"))) {
+        cache = new ExpiringCache(cache);
+        setCacheProperties(cache);
+      }
+      if (properties != null && "tables".equalsIgnoreCase(properties.getProperty("invalidation"))) {
+        cache = new TableInvalidatingCache(cache);
+      }
       if (blocking) {
         cache = new BlockingCache(cache);
       }
@@ -139,6 +216,16 @@ public class CacheBuilder {
     }
   }
 
+  private boolean isWeighted() {
+    return properties != null && properties.containsKey("maximumWeight");
+  }
+
+  private Cache newWeightedCache(Cache cache) {
+    Cache weightedCache = new WeightedCache(cache);
+    setCacheProperties(weightedCache);
+    return weightedCache;
+  }
+
   private void setCacheProperties(Cache cache) {
     if (properties != null) {
       MetaObject metaCache = SystemMetaObject.forObject(cache);
@@ -170,6 +257,13 @@ public class CacheBuilder {
           } else if (double.class == type
               || Double.class == type) {
             metaCache.setValue(name, Double.valueOf(value));
+          } else if (type.isInterface()) {
+            // 接口类型的属性，例如 weigher，配置的是实现类的名字
+            try {
+              metaCache.setValue(name, Resources.classForName(value).newInstance());
+            } catch (Exception e) {
+              throw new CacheException("Could not instantiate '" + value + "' for cache property '" + name + "'. Cause: " + e, e);
+            }
           } else {
             throw new CacheException("Unsupported property type for cache: '" + name + "' of type " + type);
           }
@@ -17,6 +17,7 @@ package org.apache.ibatis.mapping;
 
 import javax.sql.DataSource;
 
+import org.apache.ibatis.datasource.WarmableDataSource;
 import org.apache.ibatis.transaction.TransactionFactory;
 
 /**
@@ -66,7 +67,12 @@ public final class Environment {
     }
 
     public Environment build() {
-      return new Environment(this.id, this.transactionFactory, this.dataSource);
+      Environment environment = new Environment(this.id, this.transactionFactory, this.dataSource);
+      // 预热连接池，避免启动后第一批请求同时建立连接
+      if (this.dataSource instanceof WarmableDataSource) {
+        ((WarmableDataSource) this.dataSource).warmUp();
+      }
+      return environment;
     }
 
   }
@@ -17,7 +17,9 @@ package org.apache.ibatis.mapping;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
@@ -25,6 +27,7 @@ import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.parsing.TableNameParser;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 
@@ -56,6 +59,7 @@ public final class MappedStatement {
   private Log statementLog;
   private LanguageDriver lang;
   private String[] resultSets;
+  private Set<String> tables = Collections.emptySet();
 
   MappedStatement() {
     // constructor disabled
@@ -174,6 +178,25 @@ public final class MappedStatement {
       return this;
     }
 
+    /**
+     * @param tables The comma separated tables read by a select or written by an insert, update or delete
+     * @since 3.5.0
+     */
+    public Builder tables(String tables) {
+      String[] names = delimitedStringToArray(tables);
+      if (names != null) {
+        Set<String> set = new LinkedHashSet<>();
+        for (String name : names) {
+          if (name.trim().length() > 0) {
+            // 和从 SQL 中解析出的表名一样去掉引号和 schema
+            set.add(TableNameParser.normalizeTableName(name));
+          }
+        }
+        mappedStatement.tables = Collections.unmodifiableSet(set);
+      }
+      return this;
+    }
+
     /** @deprecated Use {@link #resultSets} */
     @Deprecated
     public Builder resulSets(String resultSet) {
@@ -259,6 +282,14 @@ public final class MappedStatement {
     return resultOrdered;
   }
 
+  /**
+   * @return The declared tables of this statement, empty if they are found in its SQL
+   * @since 3.5.0
+   */
+  public Set<String> getTables() {
+    return tables;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -0,0 +1,221 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the tables a SQL statement reads (after {@code FROM} and {@code JOIN}) and writes (after {@code UPDATE},
+ * {@code INTO} and {@code DELETE FROM}). Names are lower-cased, without quotes and schema.
+ * <p>
+ * This is a lexical scan, not a SQL parser: tables used only by views, functions or triggers are not found, and
+ * statements that use them must declare their tables instead.
+ *
+ * @since 3.5.0
+ */
+public final class TableNameParser {
+
+  private static final int MAX_CACHED_STATEMENTS = 1024;
+
+  // 跟在表名后面时不是别名的关键字
+  private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+      "as", "where", "join", "inner", "left", "right", "full", "outer", "cross", "natural", "straight_join", "on",
+      "using", "group", "order", "having", "limit", "offset", "fetch", "union", "except", "intersect", "minus",
+      "window", "for", "set", "values", "value", "select", "default", "returning", "lateral", "only", "with"));
+
+  // 同一条 SQL 只解析一次
+  private static final Map<String, Tables> CACHE = new ConcurrentHashMap<>();
+
+  private TableNameParser() {
+    // Prevent Instantiation
+  }
+
+  /**
+   * @param sql A SQL statement
+   * @return The tables read by the statement, empty if none was found
+   */
+  public static Set<String> parseReadTables(String sql) {
+    return parse(sql).read;
+  }
+
+  /**
+   * @param sql A SQL statement
+   * @return The tables written by the statement, empty if none was found
+   */
+  public static Set<String> parseWrittenTables(String sql) {
+    return parse(sql).written;
+  }
+
+  /**
+   * @param name A table name as written in SQL, possibly quoted and qualified by its schema
+   * @return The name as returned by this parser: lower-cased, without quotes and schema
+   */
+  public static String normalizeTableName(String name) {
+    return normalize(name.trim().toLowerCase(Locale.ENGLISH));
+  }
+
+  private static Tables parse(String sql) {
+    if (sql == null) {
+      return Tables.EMPTY;
+    }
+    Tables tables = CACHE.get(sql);
+    if (tables == null) {
+      tables = scan(tokenize(sql));
+      if (CACHE.size() >= MAX_CACHED_STATEMENTS) {
+        // 动态 SQL 可能产生无数种语句，超过上限时整体丢弃
+        CACHE.clear();
+      }
+      CACHE.put(sql, tables);
+    }
+    return tables;
+  }
+
+  private static Tables scan(List<String> tokens) {
+    Set<String> read = new LinkedHashSet<>();
+    Set<String> written = new LinkedHashSet<>();
+    for (int i = 0; i < tokens.size(); i++) {
+      String token = tokens.get(i);
+      String previous = i > 0 ? tokens.get(i - 1) : "";
+      if ("from".equals(token)) {
+        i = readTables(tokens, i + 1, "delete".equals(previous) ? written : read, true);
+      } else if ("join".equals(token)) {
+        i = readTables(tokens, i + 1, read, false);
+      } else if (("update".equals(token) && !"for".equals(previous) && !"key".equals(previous))
+          || "into".equals(token)) {
+        // 排除 SELECT ... FOR UPDATE 和 ON DUPLICATE KEY UPDATE
+        i = readTables(tokens, i + 1, written, false);
+      }
+    }
+    return new Tables(read, written);
+  }
+
+  /*
+  * 读取一个表名及其别名，list 为 true 时继续读取逗号分隔的表。返回最后一个被读取的位置
+  * */
+  private static int readTables(List<String> tokens, int start, Set<String> tables, boolean list) {
+    int i = start;
+    while (i < tokens.size() && ("only".equals(tokens.get(i)) || "ignore".equals(tokens.get(i))
+        || "low_priority".equals(tokens.get(i)) || "table".equals(tokens.get(i)))) {
+      i++;
+    }
+    while (i < tokens.size() && isName(tokens.get(i)) && !KEYWORDS.contains(tokens.get(i))) {
+      tables.add(normalize(tokens.get(i)));
+      i++;
+      if (i < tokens.size() && "as".equals(tokens.get(i))) {
+        i++;
+      }
+      if (i < tokens.size() && isName(tokens.get(i)) && !KEYWORDS.contains(tokens.get(i))) {
+        i++;
+      }
+      if (!list || i >= tokens.size() || !",".equals(tokens.get(i))) {
+        break;
+      }
+      i++;
+    }
+    return i - 1;
+  }
+
+  private static boolean isName(String token) {
+    char c = token.charAt(0);
+    return Character.isLetter(c) || c == '_' || c == '"' || c == '`' || c == '[';
+  }
+
+  private static String normalize(String name) {
+    StringBuilder builder = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '.') {
+        // 去掉 schema
+        builder.setLength(0);
+      } else if (c != '"' && c != '`' && c != '[' && c != ']') {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  /*
+  * 把 SQL 切分成名字和单个的符号，跳过字符串常量和注释
+  * */
+  private static List<String> tokenize(String sql) {
+    List<String> tokens = new ArrayList<>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'') {
+        i = skipQuoted(sql, i, '\'');
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (isNamePart(c)) {
+        int start = i;
+        while (i < length && isNamePart(sql.charAt(i))) {
+          char part = sql.charAt(i);
+          if (part == '"' || part == '`') {
+            i = skipQuoted(sql, i, part);
+          } else if (part == '[') {
+            i = skipQuoted(sql, i, ']');
+          } else {
+            i++;
+          }
+        }
+        tokens.add(sql.substring(start, i).toLowerCase(Locale.ENGLISH));
+      } else {
+        tokens.add(String.valueOf(c));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  private static boolean isNamePart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '.'
+        || c == '"' || c == '`' || c == '[';
+  }
+
+  private static int skipQuoted(String sql, int start, char close) {
+    int end = sql.indexOf(close, start + 1);
+    return end < 0 ? sql.length() : end + 1;
+  }
+
+  private static final class Tables {
+    private static final Tables EMPTY = new Tables(Collections.emptySet(), Collections.emptySet());
+
+    private final Set<String> read;
+    private final Set<String> written;
+
+    Tables(Set<String> read, Set<String> written) {
+      this.read = Collections.unmodifiableSet(read);
+      this.written = Collections.unmodifiableSet(written);
+    }
+  }
+
+}
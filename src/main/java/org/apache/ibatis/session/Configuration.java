@@ -15,11 +15,13 @@
  */
 package org.apache.ibatis.session;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,13 +36,22 @@ import org.apache.ibatis.builder.ResultMapResolver;
 import org.apache.ibatis.builder.annotation.MethodResolver;
 import org.apache.ibatis.builder.xml.XMLStatementBuilder;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheStats;
+import org.apache.ibatis.cache.InvalidationBus;
 import org.apache.ibatis.cache.decorators.FifoCache;
 import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.MetricsCache;
 import org.apache.ibatis.cache.decorators.SoftCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
 import org.apache.ibatis.cache.decorators.WeakCache;
+import org.apache.ibatis.cache.impl.BatchingInvalidationBus;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.apache.ibatis.cache.impl.LoopbackInvalidationBus;
+import org.apache.ibatis.cache.impl.OffHeapCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.RoutingDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.CachingExecutor;
@@ -109,6 +120,11 @@ public class Configuration {
   protected boolean useGeneratedKeys;
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
+  protected boolean cacheMetricsEnabled;
+  protected InvalidationBus cacheInvalidationBus;
+  // 设置的总线，cacheInvalidationBus 可能是它的批量包装
+  protected InvalidationBus unbatchedCacheInvalidationBus;
+  protected long cacheInvalidationBatchDelay;
   protected boolean callSettersOnNulls;
   protected boolean useActualParamName = true;
   protected boolean returnInstanceForEmptyRow;
@@ -152,6 +168,8 @@ public class Configuration {
       .conflictMessageProducer((savedValue, targetValue) ->
           ". please check " + savedValue.getResource() + " and " + targetValue.getResource());
   protected final Map<String, Cache> caches = new StrictMap<>("Caches collection");
+  // 只以完整的 id 为 key，StrictMap 还会保存短名称
+  protected final Map<String, MetricsCache> cacheMetrics = new LinkedHashMap<>();
   protected final Map<String, ResultMap> resultMaps = new StrictMap<>("Result Maps collection");
   protected final Map<String, ParameterMap> parameterMaps = new StrictMap<>("Parameter Maps collection");
   protected final Map<String, KeyGenerator> keyGenerators = new StrictMap<>("Key Generators collection");
@@ -183,10 +201,15 @@ public class Configuration {
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("ROUTING", RoutingDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
+    typeAliasRegistry.registerAlias("CONCURRENT", ConcurrentCache.class);
+    typeAliasRegistry.registerAlias("OFFHEAP", OffHeapCache.class);
+    typeAliasRegistry.registerAlias("LOOPBACK", LoopbackInvalidationBus.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
     typeAliasRegistry.registerAlias("LRU", LruCache.class);
+    typeAliasRegistry.registerAlias("TINYLFU", TinyLfuCache.class);
     typeAliasRegistry.registerAlias("SOFT", SoftCache.class);
     typeAliasRegistry.registerAlias("WEAK", WeakCache.class);
 
@@ -409,6 +432,66 @@ public class Configuration {
     this.cacheEnabled = cacheEnabled;
   }
 
+  /**
+   * @since 3.5.0
+   */
+  public boolean isCacheMetricsEnabled() {
+    return cacheMetricsEnabled;
+  }
+
+  /**
+   * Records the statistics of the caches built after this call, listed by {@link #getCacheStats()}.
+   *
+   * @since 3.5.0
+   */
+  public void setCacheMetricsEnabled(boolean cacheMetricsEnabled) {
+    this.cacheMetricsEnabled = cacheMetricsEnabled;
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public InvalidationBus getCacheInvalidationBus() {
+    return cacheInvalidationBus;
+  }
+
+  /**
+   * Publishes the invalidations of the caches built after this call to the peer nodes, and applies theirs. If
+   * {@link #setCacheInvalidationBatchDelay(long)} is set, whether before or after this call, the bus is wrapped in a
+   * {@link BatchingInvalidationBus}.
+   *
+   * @since 3.5.0
+   */
+  public void setCacheInvalidationBus(InvalidationBus cacheInvalidationBus) {
+    this.unbatchedCacheInvalidationBus = cacheInvalidationBus;
+    batchCacheInvalidations();
+  }
+
+  /**
+   * @since 3.5.0
+   */
+  public long getCacheInvalidationBatchDelay() {
+    return cacheInvalidationBatchDelay;
+  }
+
+  /**
+   * @param cacheInvalidationBatchDelay The milliseconds during which invalidations are collected before they are
+   *          published as one batch, 0 to publish them at once
+   * @since 3.5.0
+   */
+  public void setCacheInvalidationBatchDelay(long cacheInvalidationBatchDelay) {
+    this.cacheInvalidationBatchDelay = cacheInvalidationBatchDelay;
+    batchCacheInvalidations();
+  }
+
+  private void batchCacheInvalidations() {
+    if (unbatchedCacheInvalidationBus != null && cacheInvalidationBatchDelay > 0) {
+      cacheInvalidationBus = new BatchingInvalidationBus(unbatchedCacheInvalidationBus, cacheInvalidationBatchDelay);
+    } else {
+      cacheInvalidationBus = unbatchedCacheInvalidationBus;
+    }
+  }
+
   public Integer getDefaultStatementTimeout() {
     return defaultStatementTimeout;
   }
@@ -609,6 +692,9 @@ public class Configuration {
 
   public void addCache(Cache cache) {
     caches.put(cache.getId(), cache);
+    if (cache instanceof MetricsCache) {
+      cacheMetrics.put(cache.getId(), (MetricsCache) cache);
+    }
   }
 
   public Collection<String> getCacheNames() {
@@ -627,6 +713,28 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  /**
+   * @return A snapshot of the statistics of every cache built with {@code cacheMetricsEnabled}
+   * @since 3.5.0
+   */
+  public Collection<CacheStats> getCacheStats() {
+    List<CacheStats> stats = new ArrayList<>();
+    for (MetricsCache cache : cacheMetrics.values()) {
+      stats.add(cache.getStats());
+    }
+    return stats;
+  }
+
+  /**
+   * @param id The id of the cache, usually the namespace
+   * @return A snapshot of the statistics of the cache, or null if the cache does not record them
+   * @since 3.5.0
+   */
+  public CacheStats getCacheStats(String id) {
+    MetricsCache cache = cacheMetrics.get(id);
+    return cache == null ? null : cache.getStats();
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
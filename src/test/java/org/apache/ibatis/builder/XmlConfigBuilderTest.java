@@ -30,6 +30,9 @@ import java.util.Set;
 import org.apache.ibatis.builder.mapper.CustomMapper;
 import org.apache.ibatis.builder.typehandler.CustomIntegerTypeHandler;
 import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.cache.InvalidationBus;
+import org.apache.ibatis.cache.impl.BatchingInvalidationBus;
+import org.apache.ibatis.cache.impl.LoopbackInvalidationBus;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
 import org.apache.ibatis.domain.blog.Author;
 import org.apache.ibatis.domain.blog.Blog;
@@ -79,6 +82,8 @@ public class XmlConfigBuilderTest {
       assertThat(config.getAutoMappingBehavior()).isEqualTo(AutoMappingBehavior.PARTIAL);
       assertThat(config.getAutoMappingUnknownColumnBehavior()).isEqualTo(AutoMappingUnknownColumnBehavior.NONE);
       assertThat(config.isCacheEnabled()).isTrue();
+      assertThat(config.isCacheMetricsEnabled()).isFalse();
+      assertThat(config.getCacheInvalidationBus()).isNull();
       assertThat(config.getProxyFactory()).isInstanceOf(JavassistProxyFactory.class);
       assertThat(config.isLazyLoadingEnabled()).isFalse();
       assertThat(config.isAggressiveLazyLoading()).isFalse();
@@ -172,6 +177,12 @@ public class XmlConfigBuilderTest {
         assertThat(config.getAutoMappingBehavior()).isEqualTo(AutoMappingBehavior.NONE);
         assertThat(config.getAutoMappingUnknownColumnBehavior()).isEqualTo(AutoMappingUnknownColumnBehavior.WARNING);
         assertThat(config.isCacheEnabled()).isFalse();
+        assertThat(config.isCacheMetricsEnabled()).isTrue();
+        assertThat(config.getCacheInvalidationBatchDelay()).isEqualTo(100);
+        assertThat(config.getCacheInvalidationBus()).isInstanceOf(BatchingInvalidationBus.class);
+        InvalidationBus invalidationBus = ((BatchingInvalidationBus) config.getCacheInvalidationBus()).getDelegate();
+        assertThat(invalidationBus).isInstanceOf(LoopbackInvalidationBus.class);
+        ((LoopbackInvalidationBus) invalidationBus).close();
         assertThat(config.getProxyFactory()).isInstanceOf(CglibProxyFactory.class);
         assertThat(config.isLazyLoadingEnabled()).isTrue();
         assertThat(config.isAggressiveLazyLoading()).isTrue();
@@ -0,0 +1,128 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.BlockingCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class BlockingCacheTest {
+
+  @Test
+  public void shouldCoalesceConcurrentMisses() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    AtomicInteger loads = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> {
+          Object value = cache.getObject("key");
+          if (value == null) {
+            loads.incrementAndGet();
+            Thread.sleep(100);
+            value = "value";
+            cache.putObject("key", value);
+          }
+          return value;
+        }));
+      }
+      for (Future<Object> result : results) {
+        assertEquals("value", result.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, loads.get());
+    assertTrue(flights(cache).isEmpty());
+  }
+
+  @Test
+  public void shouldLetAnotherThreadLoadWhenReleasedWithoutValue() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    CountDownLatch waiting = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> result = executor.submit(() -> {
+        waiting.countDown();
+        Object value = cache.getObject("key");
+        cache.removeObject("key");
+        return value;
+      });
+      waiting.await();
+      Thread.sleep(50);
+      assertFalse(result.isDone());
+      cache.removeObject("key");
+      assertNull(result.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(flights(cache).isEmpty());
+  }
+
+  @Test
+  public void shouldQueryWithoutWaitingAfterTimeout() throws Exception {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    cache.setTimeout(50);
+    assertNull(cache.getObject("key"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> result = executor.submit(() -> {
+        Object value = cache.getObject("key");
+        cache.putObject("key", "other");
+        return value;
+      });
+      assertNull(result.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    // 等待超时的线程不会释放当前线程的加载
+    assertEquals(1, flights(cache).size());
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+    assertTrue(flights(cache).isEmpty());
+  }
+
+  @Test
+  public void shouldNotBlockOwnerOnRepeatedMiss() {
+    BlockingCache cache = new BlockingCache(new PerpetualCache("default"));
+    assertNull(cache.getObject("key"));
+    assertNull(cache.getObject("key"));
+    cache.putObject("key", "value");
+    assertEquals("value", cache.getObject("key"));
+  }
+
+  private Map<?, ?> flights(BlockingCache cache) throws Exception {
+    Field field = BlockingCache.class.getDeclaredField("flights");
+    field.setAccessible(true);
+    return (Map<?, ?>) field.get(cache);
+  }
+
+}
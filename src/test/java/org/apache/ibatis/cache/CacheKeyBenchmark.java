@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares {@link CacheKey} and {@link CompactCacheKey} as built by the executors for a statement with five
+ * parameters: creating a key, hashing it, comparing it to an equal key, and looking it up in a map of 1000 keys of
+ * the same statement. Its name does not match the test includes of surefire, so the build does not run it: run the
+ * main method manually.
+ */
+public class CacheKeyBenchmark {
+
+  private static final int KEYS = 1000;
+  private static final long DURATION = 3000;
+  private static final String ID = "org.apache.ibatis.domain.blog.mappers.BlogMapper.selectBlogsByAuthorAndTitle";
+  private static final String SQL = "select b.id, b.title, b.author_id, a.username, a.email from blog b"
+      + " join author a on b.author_id = a.id where a.id = ? and b.title like ? and b.state = ?"
+      + " order by b.created_on desc limit ? offset ?";
+
+  interface KeyFactory {
+    CacheKey create(int i);
+  }
+
+  public static void main(String[] args) {
+    KeyFactory[] factories = { i -> fill(new CacheKey(), i), i -> fill(new CompactCacheKey(10), i) };
+    String[] names = { "CacheKey", "CompactCacheKey" };
+    // 预热
+    for (KeyFactory factory : factories) {
+      runCreate(factory, DURATION);
+      runHash(factory, DURATION);
+      runEquals(factory, DURATION);
+      runLookup(factory, DURATION);
+    }
+    for (int i = 0; i < factories.length; i++) {
+      System.out.printf("%-16s %12.0f creates/s %12.0f create+hash/s %12.0f equals/s %12.0f lookups/s%n", names[i],
+          runCreate(factories[i], DURATION), runHash(factories[i], DURATION), runEquals(factories[i], DURATION),
+          runLookup(factories[i], DURATION));
+    }
+  }
+
+  private static CacheKey fill(CacheKey key, int i) {
+    key.update(ID);
+    key.update(0);
+    key.update(Integer.MAX_VALUE);
+    // 动态 SQL 每次都生成新的字符串
+    key.update(new String(SQL));
+    key.update(i);
+    key.update("%mybatis%");
+    key.update("ACTIVE");
+    key.update(20);
+    key.update(40);
+    key.update("development");
+    return key;
+  }
+
+  private static double runCreate(KeyFactory factory, long duration) {
+    long count = 0;
+    long sink = 0;
+    long start = System.currentTimeMillis();
+    long elapsed;
+    do {
+      sink += factory.create((int) count % KEYS).getUpdateCount();
+      count++;
+      elapsed = System.currentTimeMillis() - start;
+    } while (elapsed < duration);
+    return sink == 0 ? 0 : count * 1000.0 / elapsed;
+  }
+
+  private static double runHash(KeyFactory factory, long duration) {
+    long count = 0;
+    long sink = 0;
+    long start = System.currentTimeMillis();
+    long elapsed;
+    do {
+      sink += factory.create((int) count % KEYS).hashCode();
+      count++;
+      elapsed = System.currentTimeMillis() - start;
+    } while (elapsed < duration);
+    return sink == 42 ? 0 : count * 1000.0 / elapsed;
+  }
+
+  private static double runEquals(KeyFactory factory, long duration) {
+    CacheKey[] keys = new CacheKey[KEYS];
+    CacheKey[] probes = new CacheKey[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = factory.create(i);
+      probes[i] = factory.create(i);
+    }
+    long count = 0;
+    long sink = 0;
+    long start = System.currentTimeMillis();
+    long elapsed;
+    do {
+      int i = (int) (count % KEYS);
+      if (keys[i].equals(probes[i])) {
+        sink++;
+      }
+      count++;
+      elapsed = System.currentTimeMillis() - start;
+    } while (elapsed < duration);
+    return sink == 0 ? 0 : count * 1000.0 / elapsed;
+  }
+
+  private static double runLookup(KeyFactory factory, long duration) {
+    Map<CacheKey, Integer> map = new HashMap<>();
+    CacheKey[] probes = new CacheKey[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      map.put(factory.create(i), i);
+      probes[i] = factory.create(i);
+    }
+    long count = 0;
+    long sink = 0;
+    long start = System.currentTimeMillis();
+    long elapsed;
+    do {
+      sink += map.get(probes[(int) (count % KEYS)]);
+      count++;
+      elapsed = System.currentTimeMillis() - start;
+    } while (elapsed < duration);
+    return sink < 0 ? 0 : count * 1000.0 / elapsed;
+  }
+
+}
@@ -90,6 +90,38 @@ public class CacheKeyTest {
     assertTrue(key1.equals(key2));
   }
 
+  @Test
+  public void shouldTestCompactCacheKeys() throws Exception {
+    Date date = new Date();
+    CacheKey key1 = new CompactCacheKey(new Object[] { "ns.select", 0, "select * from t where id = ?", new byte[] { 1 }, new Date(date.getTime()) });
+    CacheKey key2 = new CompactCacheKey(2);
+    key2.updateAll(new Object[] { "ns.select", 0, "select * from t where id = ?", new byte[] { 1 }, new Date(date.getTime()) });
+    assertEquals(key1, key2);
+    assertEquals(key1.hashCode(), key2.hashCode());
+    assertEquals(key1.toString(), key2.toString());
+    assertEquals(5, key2.getUpdateCount());
+    CacheKey key3 = new CompactCacheKey(new Object[] { "ns.select", 0, "select * from t where id = ?", new Date(date.getTime()), new byte[] { 1 } });
+    assertNotEquals(key1, key3);
+    CacheKey cloned = key1.clone();
+    cloned.update("plugin");
+    assertNotEquals(key1, cloned);
+    assertEquals(key1, serialize(key1));
+  }
+
+  @Test
+  public void shouldTestCompactAndListCacheKeysEqualByContent() {
+    Object[] components = new Object[] { "ns.select", 0, "select * from t where id = ?", new byte[] { 1 }, null };
+    CacheKey compact = new CompactCacheKey(components);
+    CacheKey key = new CacheKey(components);
+    assertTrue(compact.equals(key));
+    assertTrue(key.equals(compact));
+    assertEquals(key.hashCode(), compact.hashCode());
+    assertEquals(key.toString(), compact.toString());
+    key.update("plugin");
+    assertFalse(compact.equals(key));
+    assertFalse(key.equals(compact));
+  }
+
   @Test (expected = NotSerializableException.class)
   public void serializationExceptionTest() throws Exception {
     CacheKey cacheKey = new CacheKey();
@@ -0,0 +1,171 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.impl.CompactSerializer;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.ImmutableAuthor;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CompactSerializerTest {
+
+  private final Serializer serializer = new CompactSerializer();
+
+  @Test
+  public void shouldCopySimpleValues() {
+    List<Object> values = Arrays.asList(null, "text", "", "caf\u00e9 \u6587\u5b57", 1, 2L, 3.0d, 4.0f, (short) 5,
+        (byte) 6, true, 'c',
+        new BigDecimal("123.4500"), new BigInteger("123456789012345678901234567890"), new Date(1000L),
+        new java.sql.Date(2000L), new java.sql.Time(3000L), newTimestamp(), LocalDate.of(2018, 1, 2),
+        LocalTime.of(3, 4, 5, 6), LocalDateTime.of(2018, 1, 2, 3, 4, 5, 6), Instant.ofEpochSecond(7, 8),
+        OffsetDateTime.of(2018, 1, 2, 3, 4, 5, 6, ZoneOffset.ofHours(9)), Section.NEWS);
+    for (Object value : values) {
+      Object copy = serializer.deserialize(serializer.serialize(value));
+      assertEquals(value, copy);
+      if (value != null) {
+        assertEquals(value.getClass(), copy.getClass());
+      }
+    }
+    assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) serializer.deserialize(serializer.serialize(new byte[] { 1, 2, 3 })));
+  }
+
+  @Test
+  public void shouldCopyCollectionsAndBeans() {
+    List<Object> list = new ArrayList<>();
+    Map<String, Object> map = new HashMap<>();
+    map.put("id", 1);
+    map.put("names", new LinkedHashSet<>(Arrays.asList("a", "b")));
+    list.add(map);
+    list.add(new Author(1, "user", "password", "email", "bio", Section.IMAGES));
+    list.add(new Object[] { "a", 1 });
+    @SuppressWarnings("unchecked")
+    List<Object> copy = (List<Object>) serializer.deserialize(serializer.serialize(list));
+    assertEquals(ArrayList.class, copy.getClass());
+    assertEquals(map, copy.get(0));
+    assertEquals(LinkedHashSet.class, ((Map<?, ?>) copy.get(0)).get("names").getClass());
+    assertEquals(list.get(1), copy.get(1));
+    assertNotSame(list.get(1), copy.get(1));
+    assertArrayEquals((Object[]) list.get(2), (Object[]) copy.get(2));
+  }
+
+  @Test
+  public void shouldPreserveSharedAndCyclicReferences() {
+    Node parent = new Node();
+    parent.setName("parent");
+    Node child = new Node();
+    child.setName("child");
+    child.setParent(parent);
+    parent.getChildren().add(child);
+    parent.getChildren().add(child);
+    Node copy = (Node) serializer.deserialize(serializer.serialize(parent));
+    assertEquals("parent", copy.getName());
+    assertEquals(2, copy.getChildren().size());
+    assertSame(copy.getChildren().get(0), copy.getChildren().get(1));
+    assertSame(copy, copy.getChildren().get(0).getParent());
+  }
+
+  @Test
+  public void shouldFallBackToJavaSerializationForOtherObjects() {
+    ImmutableAuthor author = new ImmutableAuthor(1, "user", "password", "email", "bio", Section.NEWS);
+    List<Object> list = new ArrayList<>(Arrays.asList(author, Arrays.asList("a", "b")));
+    @SuppressWarnings("unchecked")
+    List<Object> copy = (List<Object>) serializer.deserialize(serializer.serialize(list));
+    assertEquals(ImmutableAuthor.class, copy.get(0).getClass());
+    assertEquals(author.toString(), copy.get(0).toString());
+    assertEquals(list.get(1), copy.get(1));
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldFailForNonSerializableObjects() {
+    serializer.serialize(new ArrayList<>(Arrays.asList(new Object())));
+  }
+
+  @Test
+  public void shouldBeConfiguredOnSerializedCache() {
+    Properties properties = new Properties();
+    properties.setProperty("serializer", CompactSerializer.class.getName());
+    Cache cache = new CacheBuilder("default").implementation(PerpetualCache.class).readWrite(true)
+        .properties(properties).build();
+    Author author = new Author(1, "user", "password", "email", "bio", Section.NEWS);
+    cache.getObject(1);
+    cache.putObject(1, author);
+    assertEquals(author, cache.getObject(1));
+    assertNotSame(author, cache.getObject(1));
+  }
+
+  private static Timestamp newTimestamp() {
+    Timestamp timestamp = new Timestamp(4000L);
+    timestamp.setNanos(123456789);
+    return timestamp;
+  }
+
+  public static class Node implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private Node parent;
+    private List<Node> children = new ArrayList<>();
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Node getParent() {
+      return parent;
+    }
+
+    public void setParent(Node parent) {
+      this.parent = parent;
+    }
+
+    public List<Node> getChildren() {
+      return children;
+    }
+
+    public void setChildren(List<Node> children) {
+      this.children = children;
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
+import org.junit.Test;
+
+public class ConcurrentCacheTest {
+
+  @Test
+  public void shouldEvictEntriesThatWereNotReadRecently() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setSize(5);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(0, cache.getObject(0));
+    cache.putObject(5, 5);
+    assertEquals(0, cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(5, cache.getSize());
+  }
+
+  @Test
+  public void shouldReplaceValueOfExistingKey() {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setSize(2);
+    cache.putObject(0, "a");
+    cache.putObject(0, "b");
+    assertEquals("b", cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new ConcurrentCache("default");
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    assertEquals(0, cache.removeObject(0));
+    assertNull(cache.getObject(0));
+    assertNull(cache.removeObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new ConcurrentCache("default");
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldStayWithinSizeUnderConcurrentAccess() throws Exception {
+    final ConcurrentCache cache = new ConcurrentCache("default");
+    cache.setSize(100);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        final int offset = t * 1000;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            cache.putObject(offset + i, i);
+            Object value = cache.getObject(offset + i / 2);
+            assertTrue(value == null || value.equals(i / 2));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(100, cache.getSize());
+  }
+
+  @Test
+  public void shouldNotGrowTheClockWhenEntriesAreOnlyRemoved() throws Exception {
+    ConcurrentCache cache = new ConcurrentCache("default");
+    cache.putObject("kept", 0);
+    for (int i = 0; i < 1000; i++) {
+      cache.putObject(i, i);
+      cache.removeObject(i);
+    }
+    Field clock = ConcurrentCache.class.getDeclaredField("clock");
+    clock.setAccessible(true);
+    assertTrue(((Collection<?>) clock.get(cache)).size() <= 2);
+    assertEquals(0, cache.getObject("kept"));
+  }
+
+  @Test
+  public void shouldCountRequestsOfConcurrentReaders() throws Exception {
+    CountingCache cache = new CountingCache(new ConcurrentCache("default"));
+    cache.putObject(0, 0);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 10000; i++) {
+            cache.getObject(i % 2);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(80000, cache.getRequests());
+    assertEquals(40000, cache.getHits());
+  }
+
+  private static class CountingCache extends LoggingCache {
+    CountingCache(Cache delegate) {
+      super(delegate);
+    }
+
+    int getRequests() {
+      return requests;
+    }
+
+    int getHits() {
+      return hits;
+    }
+  }
+
+}
@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.CopyingCache;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.ImmutableAuthor;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class CopyingCacheTest {
+
+  @Test
+  public void shouldReturnIndependentCopies() {
+    Cache cache = new CopyingCache(new PerpetualCache("default"));
+    Author author = new Author(1, "user", "password", "email", "bio", Section.NEWS);
+    List<Object> result = new ArrayList<>();
+    result.add(author);
+    cache.putObject(1, result);
+    author.setUsername("changed");
+    List<?> first = (List<?>) cache.getObject(1);
+    List<?> second = (List<?>) cache.getObject(1);
+    assertNotSame(first, second);
+    assertNotSame(first.get(0), second.get(0));
+    assertEquals("user", ((Author) first.get(0)).getUsername());
+    assertEquals(ArrayList.class, first.getClass());
+  }
+
+  @Test
+  public void shouldPreserveSharedAndCyclicReferences() {
+    Cache cache = new CopyingCache(new PerpetualCache("default"));
+    Node parent = new Node();
+    Node child = new Node();
+    child.parent = parent;
+    child.marker = "transient";
+    child.version = 2;
+    parent.children.add(child);
+    parent.children.add(child);
+    cache.putObject(1, parent);
+    Node copy = (Node) cache.getObject(1);
+    assertNotSame(parent, copy);
+    assertSame(copy.children.get(0), copy.children.get(1));
+    assertSame(copy, copy.children.get(0).parent);
+    assertNull(copy.children.get(0).marker);
+    // transient 字段取默认构造器给的值
+    assertEquals(1, copy.children.get(0).version);
+  }
+
+  @Test
+  public void shouldCopyValuesAndFallBackToSerialization() {
+    Cache cache = new CopyingCache(new PerpetualCache("default"));
+    Timestamp timestamp = new Timestamp(1000L);
+    timestamp.setNanos(123);
+    Map<String, Object> row = new HashMap<>();
+    row.put("timestamp", timestamp);
+    row.put("time", LocalDateTime.of(2018, 1, 2, 3, 4));
+    row.put("bytes", new byte[] { 1, 2 });
+    row.put("names", new String[] { "a", "b" });
+    row.put("fixed", Arrays.asList(1, 2));
+    row.put("author", new ImmutableAuthor(1, "user", "password", "email", "bio", Section.NEWS));
+    cache.putObject(1, row);
+    @SuppressWarnings("unchecked")
+    Map<String, Object> copy = (Map<String, Object>) cache.getObject(1);
+    assertEquals(timestamp, copy.get("timestamp"));
+    assertNotSame(timestamp, copy.get("timestamp"));
+    assertSame(row.get("time"), copy.get("time"));
+    assertArrayEquals((byte[]) row.get("bytes"), (byte[]) copy.get("bytes"));
+    assertArrayEquals((String[]) row.get("names"), (String[]) copy.get("names"));
+    assertEquals(row.get("fixed"), copy.get("fixed"));
+    assertNotSame(row.get("author"), copy.get("author"));
+    assertEquals(row.get("author").toString(), copy.get("author").toString());
+  }
+
+  @Test(expected = CacheException.class)
+  public void shouldNotCacheNonSerializableObjects() {
+    Cache cache = new CopyingCache(new PerpetualCache("default"));
+    cache.putObject(1, Collections.singletonList(new Object()));
+  }
+
+  @Test
+  public void shouldBeUsedByCacheBuilderForCloneStrategy() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("copyStrategy", "clone");
+    Cache cache = new CacheBuilder("default").readWrite(true).properties(properties).build();
+    assertTrue(cache instanceof SynchronizedCache);
+    Author author = new Author(1, "user", "password", "email", "bio", Section.NEWS);
+    cache.putObject(1, author);
+    assertEquals(author, cache.getObject(1));
+    assertNotSame(author, cache.getObject(1));
+    java.lang.reflect.Field field = SynchronizedCache.class.getDeclaredField("delegate");
+    field.setAccessible(true);
+    LoggingCache loggingCache = (LoggingCache) field.get(cache);
+    field = LoggingCache.class.getDeclaredField("delegate");
+    field.setAccessible(true);
+    assertTrue(field.get(loggingCache) instanceof CopyingCache);
+  }
+
+  public static class Node implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Node parent;
+    private List<Node> children = new ArrayList<>();
+    private transient String marker;
+    private transient int version = 1;
+  }
+
+}
@@ -0,0 +1,196 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.BroadcastingCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.BatchingInvalidationBus;
+import org.apache.ibatis.cache.impl.LoopbackInvalidationBus;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.junit.After;
+import org.junit.Test;
+
+public class InvalidationBusTest {
+
+  private final List<LoopbackInvalidationBus> buses = new ArrayList<>();
+
+  @After
+  public void closeBuses() {
+    for (LoopbackInvalidationBus bus : buses) {
+      bus.close();
+    }
+  }
+
+  @Test
+  public void shouldClearPeerCachesOnCommit() {
+    Cache node1 = newNode(null);
+    Cache node2 = newNode(null);
+    node1.putObject("key", 1);
+    node2.putObject("key", 2);
+    TransactionalCache transactionalCache = new TransactionalCache(node1);
+    transactionalCache.clear();
+    transactionalCache.commit();
+    assertNull(node1.getObject("key"));
+    assertNull(node2.getObject("key"));
+  }
+
+  @Test
+  public void shouldInvalidateTablesOfPeerCaches() {
+    Properties props = new Properties();
+    props.setProperty("invalidation", "tables");
+    Cache node1 = newNode(props);
+    Cache node2 = newNode(props);
+    node2.putObject("authors", 1, loader("author"));
+    node2.putObject("tags", 2, loader("tag"));
+    TransactionalCache transactionalCache = new TransactionalCache(node1);
+    transactionalCache.invalidate(Collections.singleton("author"));
+    transactionalCache.commit();
+    assertNull(node2.getObject("authors"));
+    assertEquals(2, node2.getObject("tags"));
+  }
+
+  @Test
+  public void shouldRemoveKeysOfPeerCaches() {
+    Cache node1 = newNode(null);
+    Cache node2 = newNode(null);
+    CacheKey key = new CompactCacheKey(new Object[] { "select", 1 });
+    node2.putObject(key, 1);
+    node2.putObject("other", 2);
+    node1.removeAll(Collections.singletonList(new CompactCacheKey(new Object[] { "select", 1 })));
+    assertNull(node2.getObject(key));
+    assertEquals(2, node2.getObject("other"));
+    // removeObject 只用于释放锁，不通知其他节点
+    node2.putObject(key, 1);
+    node1.removeObject(key);
+    assertEquals(1, node2.getObject(key));
+  }
+
+  @Test
+  public void shouldMergeInvalidationsOfABatch() {
+    List<List<Invalidation>> published = new ArrayList<>();
+    InvalidationBus recording = new InvalidationBus() {
+      @Override
+      public void publish(List<Invalidation> invalidations) {
+        published.add(invalidations);
+      }
+
+      @Override
+      public void subscribe(InvalidationListener listener) {
+      }
+
+      @Override
+      public void unsubscribe(InvalidationListener listener) {
+      }
+    };
+    BatchingInvalidationBus bus = new BatchingInvalidationBus(recording, 60000);
+    bus.publish(Collections.singletonList(Invalidation.tables("a", Collections.singleton("author"))));
+    bus.publish(Collections.singletonList(Invalidation.keys("b", Collections.singleton(1))));
+    bus.publish(Collections.singletonList(Invalidation.tables("a", Collections.singleton("post"))));
+    bus.publish(Collections.singletonList(Invalidation.clear("b")));
+    bus.publish(Collections.singletonList(Invalidation.keys("b", Collections.singleton(2))));
+    assertTrue(published.isEmpty());
+    bus.flush();
+    assertEquals(1, published.size());
+    List<Invalidation> batch = published.get(0);
+    assertEquals(2, batch.size());
+    assertEquals(Arrays.asList("author", "post"), new ArrayList<>(batch.get(0).getTables()));
+    assertTrue(batch.get(1).isClear());
+  }
+
+  @Test
+  public void shouldPublishBatchesAfterTheDelay() throws Exception {
+    Cache node1 = newNode(null, 20);
+    Cache node2 = newNode(null);
+    node2.putObject("key", 1);
+    node1.clear();
+    assertEquals(1, node2.getObject("key"));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (node2.getObject("key") != null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertNull(node2.getObject("key"));
+  }
+
+  @Test
+  public void shouldBatchWhateverTheOrderOfTheSettings() {
+    LoopbackInvalidationBus loopback = new LoopbackInvalidationBus();
+    Configuration configuration = new Configuration();
+    configuration.setCacheInvalidationBus(loopback);
+    configuration.setCacheInvalidationBatchDelay(100);
+    assertTrue(configuration.getCacheInvalidationBus() instanceof BatchingInvalidationBus);
+    assertSame(loopback, ((BatchingInvalidationBus) configuration.getCacheInvalidationBus()).getDelegate());
+    configuration.setCacheInvalidationBatchDelay(0);
+    assertSame(loopback, configuration.getCacheInvalidationBus());
+  }
+
+  @Test
+  public void shouldNotConnectNodesWithoutChannel() {
+    Cache node1 = new CacheBuilder("test").invalidationBus(new LoopbackInvalidationBus()).build();
+    Cache node2 = new CacheBuilder("test").invalidationBus(new LoopbackInvalidationBus()).build();
+    node2.putObject("key", 1);
+    node1.clear();
+    assertEquals(1, node2.getObject("key"));
+  }
+
+  @Test
+  public void shouldUnsubscribeFromTheReplacedBus() {
+    Cache node1 = newNode(null);
+    LoopbackInvalidationBus replaced = new LoopbackInvalidationBus(InvalidationBusTest.class.getName());
+    buses.add(replaced);
+    BroadcastingCache node2 = new BroadcastingCache(new PerpetualCache("test"));
+    node2.setInvalidationBus(replaced);
+    node2.setInvalidationBus(new LoopbackInvalidationBus());
+    node2.putObject("key", 1);
+    node1.clear();
+    assertEquals(1, node2.getObject("key"));
+  }
+
+  private Cache newNode(Properties props) {
+    return newNode(props, 0);
+  }
+
+  private Cache newNode(Properties props, long batchDelay) {
+    LoopbackInvalidationBus loopback = new LoopbackInvalidationBus(InvalidationBusTest.class.getName());
+    buses.add(loopback);
+    InvalidationBus bus = batchDelay > 0 ? new BatchingInvalidationBus(loopback, batchDelay) : loopback;
+    return new CacheBuilder("test").properties(props).invalidationBus(bus).build();
+  }
+
+  private static QueryLoader loader(String table) {
+    return new QueryLoader() {
+      @Override
+      public java.util.Set<String> getTables() {
+        return Collections.singleton(table);
+      }
+
+      @Override
+      public Object call() {
+        return null;
+      }
+    };
+  }
+
+}
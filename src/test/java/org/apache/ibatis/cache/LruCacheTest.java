@@ -15,6 +15,10 @@
  */
 package org.apache.ibatis.cache;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import static org.junit.Assert.*;
@@ -35,6 +39,28 @@ public class LruCacheTest {
     assertEquals(5, cache.getSize());
   }
 
+  @Test
+  public void shouldRemoveLeastRecentlyUsedItemsWhenPuttingAll() {
+    LruCache cache = new LruCache(new PerpetualCache("default"));
+    cache.setSize(5);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(0, cache.getObject(0));
+    Map<Object, Object> entries = new LinkedHashMap<>();
+    entries.put(5, 5);
+    entries.put(6, 6);
+    cache.putAll(entries);
+    assertEquals(0, cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNull(cache.getObject(2));
+    assertEquals(6, cache.getObject(6));
+    assertEquals(5, cache.getSize());
+    cache.removeAll(Arrays.asList(5, 6));
+    assertNull(cache.getObject(5));
+    assertEquals(3, cache.getSize());
+  }
+
   @Test
   public void shouldRemoveItemOnDemand() {
     Cache cache = new LruCache(new PerpetualCache("default"));
@@ -0,0 +1,109 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.MetricsCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class MetricsCacheTest {
+
+  @Test
+  public void shouldRecordHitsMissesPutsAndEvictions() {
+    MetricsCache cache = (MetricsCache) new CacheBuilder("default").size(2).metrics(true).build();
+    assertNull(cache.getObject(0));
+    for (int i = 0; i < 4; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(3, cache.getObject(3));
+    assertEquals(2, cache.getObject(2));
+    cache.recordLoad(1000);
+    cache.recordLoad(3000);
+    CacheStats stats = cache.getStats();
+    assertEquals("default", stats.getId());
+    assertEquals(2, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(2.0 / 3, stats.getHitRatio(), 0.001);
+    assertEquals(4, stats.getPutCount());
+    assertEquals(2, stats.getEvictionCount());
+    assertEquals(2, stats.getLoadCount());
+    assertEquals(4000, stats.getTotalLoadTime());
+    assertEquals(2000, stats.getAverageLoadTime(), 0.001);
+    assertEquals(2, stats.getSize());
+  }
+
+  @Test
+  public void shouldNotCountReleasedMissesAsEvictions() {
+    MetricsCache cache = (MetricsCache) new CacheBuilder("default").metrics(true).build();
+    assertNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertEquals(0, cache.getStats().getEvictionCount());
+  }
+
+  @Test
+  public void shouldCountOnlyRemovalsOfTheEvictionPolicy() {
+    Properties props = new Properties();
+    props.setProperty("invalidation", "tables");
+    MetricsCache cache = (MetricsCache) new CacheBuilder("default").size(2).properties(props).metrics(true).build();
+    cache.putObject(0, 0);
+    cache.putObject(1, 1);
+    cache.removeObject(0);
+    cache.removeAll(Collections.singletonList(1));
+    cache.putObject(2, 2);
+    assertTrue(cache.invalidate(Collections.singleton("author")));
+    assertEquals(0, cache.getStats().getEvictionCount());
+    // LruCache 仍然记得已删除的 key，先淘汰它们
+    for (int i = 3; i < 6; i++) {
+      cache.putObject(i, i);
+    }
+    assertEquals(1, cache.getStats().getEvictionCount());
+  }
+
+  @Test
+  public void shouldListStatsOfCachesWithTheSameShortName() {
+    Configuration configuration = new Configuration();
+    configuration.addCache(new CacheBuilder("com.a.UserMapper").metrics(true).build());
+    assertEquals(1, configuration.getCacheStats().size());
+    configuration.addCache(new CacheBuilder("com.b.UserMapper").metrics(true).build());
+    configuration.getCache("com.a.UserMapper").getObject(0);
+    assertEquals(2, configuration.getCacheStats().size());
+    assertEquals(1, configuration.getCacheStats("com.a.UserMapper").getMissCount());
+    assertEquals(0, configuration.getCacheStats("com.b.UserMapper").getMissCount());
+    assertNull(configuration.getCacheStats("UserMapper"));
+  }
+
+  @Test
+  public void shouldListStatsOfCachesInConfiguration() {
+    Configuration configuration = new Configuration();
+    configuration.addCache(new CacheBuilder("first").metrics(true).build());
+    configuration.addCache(new CacheBuilder("second").metrics(true).build());
+    configuration.addCache(new CacheBuilder("third").build());
+    configuration.getCache("first").getObject(0);
+    Collection<CacheStats> stats = configuration.getCacheStats();
+    assertEquals(2, stats.size());
+    assertEquals(1, configuration.getCacheStats("first").getMissCount());
+    assertEquals(0, configuration.getCacheStats("second").getRequestCount());
+    assertNull(configuration.getCacheStats("third"));
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.NegativeCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class NegativeCacheTest {
+
+  @Test
+  public void shouldKeepEmptyResultsOutOfTheDelegate() {
+    LruCache lru = new LruCache(new PerpetualCache("default"));
+    lru.setSize(5);
+    NegativeCache cache = new NegativeCache(lru);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, Collections.singletonList(i));
+    }
+    for (int i = 100; i < 200; i++) {
+      cache.putObject(i, new ArrayList<>());
+    }
+    assertEquals(5, lru.getSize());
+    assertEquals(Collections.singletonList(0), cache.getObject(0));
+    assertEquals(Collections.emptyList(), cache.getObject(150));
+  }
+
+  @Test
+  public void shouldBoundEmptyResults() {
+    NegativeCache cache = new NegativeCache(new PerpetualCache("default"));
+    cache.setNegativeSize(3);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, new ArrayList<>());
+    }
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(Collections.emptyList(), cache.getObject(4));
+    assertEquals(3, cache.getSize());
+  }
+
+  @Test
+  public void shouldExpireEmptyResults() throws Exception {
+    NegativeCache cache = new NegativeCache(new PerpetualCache("default"));
+    cache.setNegativeTimeToLive(50);
+    cache.putObject(0, new ArrayList<>());
+    assertEquals(Collections.emptyList(), cache.getObject(0));
+    Thread.sleep(80);
+    assertNull(cache.getObject(0));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldReturnANewListForEachHit() {
+    NegativeCache cache = new NegativeCache(new PerpetualCache("default"));
+    cache.putObject(0, new ArrayList<>());
+    @SuppressWarnings("unchecked")
+    List<Object> list = (List<Object>) cache.getObject(0);
+    list.add(1);
+    assertEquals(Collections.emptyList(), cache.getObject(0));
+  }
+
+  @Test
+  public void shouldReplaceResultsWhenTheyChange() {
+    NegativeCache cache = new NegativeCache(new PerpetualCache("default"));
+    cache.putObject(0, Collections.singletonList(0));
+    cache.putObject(0, new ArrayList<>());
+    assertEquals(Collections.emptyList(), cache.getObject(0));
+    cache.putObject(0, Collections.singletonList(1));
+    assertEquals(Collections.singletonList(1), cache.getObject(0));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldRemoveEmptyResults() {
+    NegativeCache cache = new NegativeCache(new PerpetualCache("default"));
+    for (int i = 0; i < 4; i++) {
+      cache.putObject(i, new ArrayList<>());
+    }
+    cache.removeObject(0);
+    cache.removeAll(Arrays.asList(1, 2));
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(2));
+    assertEquals(Collections.emptyList(), cache.getObject(3));
+    cache.clear();
+    assertNull(cache.getObject(3));
+  }
+
+  @Test
+  public void shouldSplitBatchedPuts() {
+    PerpetualCache perpetual = new PerpetualCache("default");
+    NegativeCache cache = new NegativeCache(perpetual);
+    Map<Object, Object> entries = new HashMap<>();
+    entries.put(0, Collections.singletonList(0));
+    entries.put(1, new ArrayList<>());
+    entries.put(2, null);
+    cache.putAll(entries);
+    assertEquals(2, perpetual.getSize());
+    assertEquals(Collections.emptyList(), cache.getObject(1));
+    assertNull(cache.getObject(2));
+  }
+
+  @Test
+  public void shouldBeAddedByCacheBuilderFromProperties() {
+    Properties props = new Properties();
+    props.setProperty("negativeSize", "2");
+    Cache cache = new CacheBuilder("test").properties(props).readWrite(true).build();
+    for (int i = 0; i < 3; i++) {
+      cache.putObject(i, new ArrayList<>());
+    }
+    assertNull(cache.getObject(0));
+    assertEquals(Collections.emptyList(), cache.getObject(2));
+    assertEquals(2, cache.getSize());
+  }
+
+}
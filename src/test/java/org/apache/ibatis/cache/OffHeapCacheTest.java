@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.impl.OffHeapCache;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldStoreCopiesOfValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    List<String> value = new ArrayList<>();
+    value.add("a");
+    cache.putObject(0, value);
+    value.add("b");
+    List<?> cached = (List<?>) cache.getObject(0);
+    assertEquals(1, cached.size());
+    assertNotSame(cached, cache.getObject(0));
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldRemoveAndClearEntries() {
+    OffHeapCache cache = new OffHeapCache("default");
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, i);
+    }
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+    assertEquals(9, cache.getSize());
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    cache.putObject(1, "value");
+    assertEquals("value", cache.getObject(1));
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.setCapacity(1024);
+    // 每个值都用 1024 字节的 chunk，容量只够一个
+    cache.putObject(0, new byte[600]);
+    cache.putObject(1, new byte[600]);
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(1));
+    assertEquals(1024, cache.getReservedBytes());
+  }
+
+  @Test
+  public void shouldReuseChunksOfReplacedValues() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(4096);
+    cache.setCapacity(4096);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(0, new byte[300]);
+    }
+    assertEquals(1, cache.getSize());
+    assertEquals(4096, cache.getReservedBytes());
+  }
+
+  @Test
+  public void shouldNotCacheValuesLargerThanSlab() {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setSlabSize(1024);
+    cache.putObject(0, new byte[2048]);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldStoreValuesInMappedFile() throws Exception {
+    OffHeapCache cache = new OffHeapCache("default");
+    cache.setDirectory(folder.newFolder().getAbsolutePath());
+    cache.setSlabSize(4096);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, "value" + i);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals("value" + i, cache.getObject(i));
+    }
+  }
+
+  @Test
+  public void shouldBeConfiguredByCacheBuilder() {
+    Properties properties = new Properties();
+    properties.setProperty("capacity", "4096");
+    properties.setProperty("slabSize", "1024");
+    Cache cache = new CacheBuilder("default").implementation(OffHeapCache.class).readWrite(true)
+        .properties(properties).build();
+    assertTrue(cache instanceof LoggingCache);
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, new byte[600]);
+    }
+    assertEquals(4, cache.getSize());
+    assertEquals(600, ((byte[]) cache.getObject(9)).length);
+  }
+
+}
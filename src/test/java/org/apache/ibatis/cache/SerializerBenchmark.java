@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.impl.CompactSerializer;
+import org.apache.ibatis.cache.impl.JavaSerializer;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+
+/**
+ * Compares the throughput of the cache serializers on a result list of 1000 beans. Its name does not match the test
+ * includes of surefire, so the build does not run it: run the main method manually.
+ */
+public class SerializerBenchmark {
+
+  private static final int ROWS = 1000;
+  private static final long DURATION = 3000;
+
+  public static void main(String[] args) {
+    List<Author> result = new ArrayList<>();
+    for (int i = 0; i < ROWS; i++) {
+      result.add(new Author(i, "user" + i, "password" + i, "user" + i + "@mybatis.org", "bio " + i, Section.NEWS));
+    }
+    Serializer[] serializers = { new JavaSerializer(), new CompactSerializer() };
+    // 预热
+    for (Serializer serializer : serializers) {
+      run(serializer, result, DURATION);
+    }
+    for (Serializer serializer : serializers) {
+      byte[] bytes = serializer.serialize(result);
+      double roundTrips = run(serializer, result, DURATION);
+      System.out.printf("%-20s %10.0f round trips/s %10d bytes%n", serializer.getClass().getSimpleName(), roundTrips,
+          bytes.length);
+    }
+  }
+
+  private static double run(Serializer serializer, Object value, long duration) {
+    long count = 0;
+    long start = System.currentTimeMillis();
+    long elapsed;
+    do {
+      serializer.deserialize(serializer.serialize(value));
+      count++;
+      elapsed = System.currentTimeMillis() - start;
+    } while (elapsed < duration);
+    return count * 1000.0 / elapsed;
+  }
+
+}
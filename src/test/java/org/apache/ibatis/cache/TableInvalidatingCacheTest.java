@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TableInvalidatingCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.parsing.TableNameParser;
+import org.apache.ibatis.session.Configuration;
+import org.junit.Test;
+
+public class TableInvalidatingCacheTest {
+
+  @Test
+  public void shouldRemoveOnlyEntriesOfWrittenTables() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    cache.putObject("authors", 1, loader("author"));
+    cache.putObject("posts", 2, loader("post", "author"));
+    cache.putObject("tags", 3, loader("tag"));
+    assertTrue(cache.invalidate(Collections.singleton("author")));
+    assertNull(cache.getObject("authors"));
+    assertNull(cache.getObject("posts"));
+    assertEquals(3, cache.getObject("tags"));
+  }
+
+  @Test
+  public void shouldRemoveEntriesWithUnknownTablesOnEveryWrite() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    cache.putObject("unknown", 1);
+    cache.putObject("tags", 2, loader("tag"));
+    cache.invalidate(Collections.singleton("audit_log"));
+    assertNull(cache.getObject("unknown"));
+    assertEquals(2, cache.getObject("tags"));
+  }
+
+  @Test
+  public void shouldNotRemoveEntriesThatWereReplacedWithOtherTables() {
+    TableInvalidatingCache cache = new TableInvalidatingCache(new PerpetualCache("default"));
+    cache.putObject("key", 1, loader("author"));
+    cache.putObject("key", 2, loader("tag"));
+    cache.invalidate(Collections.singleton("author"));
+    assertEquals(2, cache.getObject("key"));
+  }
+
+  @Test
+  public void shouldRemoveUntrackedEntriesBeyondTheLimit() {
+    LruCache lru = new LruCache(new PerpetualCache("default"));
+    lru.setSize(2000);
+    TableInvalidatingCache cache = new TableInvalidatingCache(lru);
+    for (int i = 0; i < 1500; i++) {
+      cache.putObject(i, i, loader("author"));
+    }
+    assertEquals(1500, cache.getSize());
+    cache.putObject("last", 0, loader("author"));
+    cache.invalidate(Collections.singleton("author"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldInvalidateTablesOnCommit() {
+    Properties props = new Properties();
+    props.setProperty("invalidation", "tables");
+    Cache cache = new CacheBuilder("test").properties(props).blocking(true).metrics(true).build();
+    assertTrue(cache.supportsInvalidation());
+    TransactionalCache transactionalCache = new TransactionalCache(cache);
+    transactionalCache.putObject("authors", 1, loader("author"));
+    transactionalCache.putObject("tags", 2, loader("tag"));
+    transactionalCache.commit();
+
+    transactionalCache.invalidate(Collections.singleton("author"));
+    // 提交前本事务不读取缓存，其他事务仍然可以读取
+    assertNull(transactionalCache.getObject("tags"));
+    assertEquals(1, cache.getObject("authors"));
+    transactionalCache.commit();
+    assertNull(transactionalCache.getObject("authors"));
+    assertEquals(2, transactionalCache.getObject("tags"));
+  }
+
+  @Test
+  public void shouldClearCachesThatDoNotTrackTables() {
+    Cache cache = new CacheBuilder("test").build();
+    assertFalse(cache.supportsInvalidation());
+    TransactionalCache transactionalCache = new TransactionalCache(cache);
+    transactionalCache.putObject("tags", 2, loader("tag"));
+    transactionalCache.commit();
+    transactionalCache.invalidate(Collections.singleton("author"));
+    transactionalCache.commit();
+    assertNull(cache.getObject("tags"));
+  }
+
+  @Test
+  public void shouldMatchDeclaredTablesWithParsedOnes() {
+    Configuration configuration = new Configuration();
+    MappedStatement ms = new MappedStatement.Builder(configuration, "update",
+        new StaticSqlSource(configuration, "update app.author set bio = ?"), SqlCommandType.UPDATE)
+        .tables("App.Author, `post`").build();
+    assertEquals(new HashSet<>(Arrays.asList("author", "post")), ms.getTables());
+    assertTrue(ms.getTables().containsAll(TableNameParser.parseWrittenTables(ms.getBoundSql(null).getSql())));
+  }
+
+  private static QueryLoader loader(String... tables) {
+    Set<String> set = new HashSet<>(Arrays.asList(tables));
+    return new QueryLoader() {
+      @Override
+      public Set<String> getTables() {
+        return set;
+      }
+
+      @Override
+      public Object call() {
+        return null;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.TinyLfuCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+
+  @Test
+  public void shouldKeepFrequentlyReadEntriesDuringAScan() {
+    TinyLfuCache tinyLfu = new TinyLfuCache(new PerpetualCache("default"));
+    tinyLfu.setSize(100);
+    LruCache lru = new LruCache(new PerpetualCache("default"));
+    lru.setSize(100);
+    for (Cache cache : new Cache[] { tinyLfu, lru }) {
+      for (int i = 0; i < 50; i++) {
+        cache.putObject("hot" + i, i);
+      }
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < 50; i++) {
+          cache.getObject("hot" + i);
+        }
+      }
+      // 报表类查询扫过大量只读一次的 key
+      for (int i = 0; i < 1000; i++) {
+        if (cache.getObject("scan" + i) == null) {
+          cache.putObject("scan" + i, i);
+        }
+      }
+    }
+    int tinyLfuHits = 0;
+    int lruHits = 0;
+    for (int i = 0; i < 50; i++) {
+      tinyLfuHits += tinyLfu.getObject("hot" + i) != null ? 1 : 0;
+      lruHits += lru.getObject("hot" + i) != null ? 1 : 0;
+    }
+    assertTrue("TinyLFU kept only " + tinyLfuHits + " hot entries", tinyLfuHits >= 45);
+    assertEquals(0, lruHits);
+    assertTrue(tinyLfu.getSize() <= 100);
+  }
+
+  @Test
+  public void shouldCountHitsAndRequests() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertEquals(2, cache.getRequestCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(0.5, cache.getHitRatio(), 0.0);
+  }
+
+  @Test
+  public void shouldNotExceedSize() {
+    TinyLfuCache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.setSize(5);
+    for (int i = 0; i < 100; i++) {
+      cache.putObject(i, i);
+      cache.getObject(i % 7);
+    }
+    assertTrue(cache.getSize() <= 5);
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    Cache cache = new TinyLfuCache(new PerpetualCache("default"));
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    assertNotNull(cache.getObject(0));
+    assertNotNull(cache.getObject(4));
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+}
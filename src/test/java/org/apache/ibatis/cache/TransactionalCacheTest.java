@@ -0,0 +1,88 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.cache.decorators.SynchronizedCache;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.junit.Test;
+
+public class TransactionalCacheTest {
+
+  @Test
+  public void shouldPublishPendingEntriesInOneBatchOnCommit() {
+    CountingCache counting = new CountingCache();
+    TransactionalCache cache = new TransactionalCache(new SynchronizedCache(counting));
+    assertNull(cache.getObject("missed"));
+    cache.putObject(1, "one");
+    cache.putObject(2, "two", () -> "loaded");
+    cache.commit();
+    assertEquals(1, counting.batches.get());
+    assertEquals(0, counting.puts.get());
+    assertEquals("one", counting.getObject(1));
+    assertEquals("two", counting.getObject(2));
+    // 未命中的 key 放入 null，释放阻塞缓存的锁
+    assertEquals(3, counting.getSize());
+  }
+
+  @Test
+  public void shouldNotPublishAnythingForReadOnlyTransactions() {
+    CountingCache counting = new CountingCache();
+    counting.putObject(1, "one");
+    TransactionalCache cache = new TransactionalCache(counting);
+    assertEquals("one", cache.getObject(1));
+    cache.commit();
+    assertEquals(0, counting.batches.get());
+  }
+
+  @Test
+  public void shouldDiscardPendingEntriesOnRollback() {
+    CountingCache counting = new CountingCache();
+    TransactionalCache cache = new TransactionalCache(counting);
+    cache.putObject(1, "one");
+    cache.rollback();
+    cache.commit();
+    assertNull(counting.getObject(1));
+  }
+
+  private static class CountingCache extends PerpetualCache {
+    private final AtomicInteger puts = new AtomicInteger();
+    private final AtomicInteger batches = new AtomicInteger();
+
+    CountingCache() {
+      super("counting");
+    }
+
+    @Override
+    public void putObject(Object key, Object value) {
+      puts.incrementAndGet();
+      super.putObject(key, value);
+    }
+
+    @Override
+    public void putAll(Map<?, ?> entries, Map<?, ? extends Callable<?>> loaders) {
+      batches.incrementAndGet();
+      super.putAll(entries, loaders);
+    }
+  }
+
+}
@@ -0,0 +1,142 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.WeightedCache;
+import org.apache.ibatis.cache.impl.EstimatingWeigher;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.domain.blog.Author;
+import org.apache.ibatis.domain.blog.Section;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.junit.Test;
+
+public class WeightedCacheTest {
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesOverMaximumWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(new LengthWeigher());
+    cache.setMaximumWeight(100);
+    cache.putObject(0, new byte[40]);
+    cache.putObject(1, new byte[40]);
+    assertNotNull(cache.getObject(0));
+    cache.putObject(2, new byte[40]);
+    assertNotNull(cache.getObject(0));
+    assertNull(cache.getObject(1));
+    assertNotNull(cache.getObject(2));
+    assertEquals(80, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldNotCacheEntryHeavierThanMaximumWeight() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(new LengthWeigher());
+    cache.setMaximumWeight(100);
+    cache.putObject(0, new byte[10]);
+    cache.putObject(1, new byte[10]);
+    cache.putObject(0, new byte[200]);
+    assertNull(cache.getObject(0));
+    assertNotNull(cache.getObject(1));
+    assertEquals(10, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldForgetWeightOfRemovedEntries() {
+    WeightedCache cache = new WeightedCache(new PerpetualCache("default"));
+    cache.setWeigher(new LengthWeigher());
+    cache.putObject(0, new byte[10]);
+    cache.putObject(1, new byte[20]);
+    cache.removeObject(0);
+    assertEquals(20, cache.getTotalWeight());
+    cache.clear();
+    assertEquals(0, cache.getTotalWeight());
+  }
+
+  @Test
+  public void shouldReleaseWeightOfEntriesEvictedAbove() {
+    WeightedCache weighted = new WeightedCache(new PerpetualCache("default"));
+    weighted.setWeigher(new LengthWeigher());
+    weighted.setMaximumWeight(100);
+    LruCache cache = new LruCache(weighted);
+    cache.setSize(2);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, new byte[40]);
+    }
+    assertEquals(80, weighted.getTotalWeight());
+    assertNotNull(cache.getObject(3));
+    assertNotNull(cache.getObject(4));
+  }
+
+  @Test
+  public void shouldBeAddedBelowTheEvictionDecorators() {
+    Properties properties = new Properties();
+    properties.setProperty("maximumWeight", "100");
+    properties.setProperty("weigher", LengthWeigher.class.getName());
+    Cache cache = new CacheBuilder("default").size(2).properties(properties).build();
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, new byte[40]);
+    }
+    assertEquals(2, cache.getSize());
+    assertNotNull(cache.getObject(3));
+    assertNotNull(cache.getObject(4));
+  }
+
+  @Test
+  public void shouldEstimateResultListsByTheirSize() {
+    EstimatingWeigher weigher = new EstimatingWeigher();
+    List<Object> small = new ArrayList<>();
+    List<Object> large = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      Author author = new Author(i, "user" + i, "password", "user" + i + "@mybatis.org", "bio", Section.NEWS);
+      if (i < 10) {
+        small.add(author);
+      }
+      large.add(author);
+    }
+    long smallWeight = weigher.weigh(null, small);
+    long largeWeight = weigher.weigh(null, large);
+    assertTrue(smallWeight > 10 * 100);
+    assertTrue(largeWeight > 500 * smallWeight);
+    assertTrue(largeWeight < 2000 * smallWeight);
+  }
+
+  @Test
+  public void shouldBeAddedByCacheBuilderWithCustomWeigher() {
+    Properties properties = new Properties();
+    properties.setProperty("maximumWeight", "100");
+    properties.setProperty("weigher", LengthWeigher.class.getName());
+    Cache cache = new CacheBuilder("default").properties(properties).build();
+    for (int i = 0; i < 10; i++) {
+      cache.putObject(i, new byte[30]);
+    }
+    assertEquals(3, cache.getSize());
+  }
+
+  public static class LengthWeigher implements Weigher {
+    @Override
+    public long weigh(Object key, Object value) {
+      return ((byte[]) value).length;
+    }
+  }
+
+}
@@ -0,0 +1,270 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cache.decorators;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Property;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.CacheBuilder;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Test;
+
+public class ExpiringCacheTest {
+
+  @CacheNamespace(properties = {
+      @Property(name = "timeToLive", value = "60000"),
+      @Property(name = "refreshAhead", value = "0.0001") })
+  public interface ItemMapper {
+    @Select("SELECT name FROM item WHERE id = #{id}")
+    String selectName(Map<String, Object> parameter);
+  }
+
+  @Test
+  public void shouldExpireEntriesAfterTimeToLive() {
+    AtomicLong time = new AtomicLong();
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setClock(time::get);
+    cache.setTimeToLive(50);
+    cache.setSweepInterval(60000);
+    cache.putObject(0, 0);
+    time.set(30);
+    cache.putObject(1, 1);
+    assertEquals(0, cache.getObject(0));
+    time.set(60);
+    assertNull(cache.getObject(0));
+    assertEquals(1, cache.getObject(1));
+    assertEquals(1, cache.getSize());
+  }
+
+  @Test
+  public void shouldExpireEntriesThatWereNotReadForTimeToIdle() {
+    AtomicLong time = new AtomicLong();
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setClock(time::get);
+    cache.setTimeToIdle(100);
+    cache.setSweepInterval(60000);
+    cache.putObject(0, 0);
+    cache.putObject(1, 1);
+    for (int i = 0; i < 4; i++) {
+      time.addAndGet(40);
+      assertEquals(0, cache.getObject(0));
+    }
+    assertNull(cache.getObject(1));
+  }
+
+  @Test
+  public void shouldSweepExpiredEntriesInBackground() throws Exception {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToLive(20);
+    cache.setSweepInterval(10);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (cache.getSize() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void shouldBeAddedByCacheBuilderFromProperties() {
+    Properties props = new Properties();
+    props.setProperty("timeToLive", "60000");
+    Cache cache = new CacheBuilder("test").properties(props).blocking(true).build();
+    assertTrue(cache instanceof BlockingCache);
+    assertNull(cache.getObject(0));
+    cache.putObject(0, 0);
+    assertEquals(0, cache.getObject(0));
+    assertTrue(new CacheBuilder("test").properties(props).build() instanceof ExpiringCache);
+    assertFalse(new CacheBuilder("test").build() instanceof ExpiringCache);
+  }
+
+  @Test
+  public void shouldRemoveItemOnDemand() {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToLive(60000);
+    cache.putObject(0, 0);
+    assertNotNull(cache.getObject(0));
+    cache.removeObject(0);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldFlushAllItemsOnDemand() {
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setTimeToLive(60000);
+    for (int i = 0; i < 5; i++) {
+      cache.putObject(i, i);
+    }
+    cache.clear();
+    assertNull(cache.getObject(0));
+    assertNull(cache.getObject(4));
+  }
+
+  @Test
+  public void shouldRefreshEntriesAheadOfExpiration() throws Exception {
+    AtomicLong time = new AtomicLong();
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setClock(time::get);
+    cache.setTimeToLive(1000);
+    cache.setRefreshAhead(0.5);
+    cache.setSweepInterval(60000);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch loading = new CountDownLatch(1);
+    TransactionalCache transactionalCache = new TransactionalCache(cache);
+    transactionalCache.putObject(0, 0, () -> {
+      loading.await();
+      return loads.incrementAndGet();
+    });
+    transactionalCache.commit();
+    assertEquals(0, cache.getObject(0));
+    time.set(600);
+    // 读取的线程立即得到旧值，刷新只执行一次
+    assertEquals(0, cache.getObject(0));
+    assertEquals(0, cache.getObject(0));
+    loading.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!Integer.valueOf(1).equals(cache.getObject(0)) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, cache.getObject(0));
+    assertEquals(1, loads.get());
+    // 刷新后重新计算存活时间
+    time.set(1200);
+    assertEquals(1, cache.getObject(0));
+  }
+
+  @Test
+  public void shouldRefreshAgainAfterAFailedRefresh() throws Exception {
+    AtomicLong time = new AtomicLong();
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setClock(time::get);
+    cache.setTimeToLive(1000);
+    cache.setRefreshAhead(0.5);
+    cache.setSweepInterval(60000);
+    AtomicInteger loads = new AtomicInteger();
+    TransactionalCache transactionalCache = new TransactionalCache(cache);
+    transactionalCache.putObject(0, 0, () -> {
+      if (loads.incrementAndGet() == 1) {
+        throw new IllegalStateException("database unavailable");
+      }
+      return loads.get();
+    });
+    transactionalCache.commit();
+    time.set(600);
+    // 第一次刷新失败，之后的读取再次触发刷新
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!Integer.valueOf(2).equals(cache.getObject(0)) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, cache.getObject(0));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void shouldRefreshWithTheParameterValuesOfTheCachedEntry() throws Exception {
+    UnpooledDataSource dataSource = new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:refresh_ahead", "sa", "");
+    try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
+      st.execute("DROP TABLE item IF EXISTS");
+      st.execute("CREATE TABLE item (id INT, name VARCHAR(20))");
+      st.execute("INSERT INTO item VALUES (1, 'one')");
+      st.execute("INSERT INTO item VALUES (2, 'two')");
+    }
+    Configuration configuration = new Configuration(new Environment("refresh", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(ItemMapper.class);
+    SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+    Map<String, Object> parameter = new HashMap<>();
+    parameter.put("id", 1);
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals("one", session.getMapper(ItemMapper.class).selectName(parameter));
+    }
+    // 调用者之后修改参数对象，不能影响刷新的查询
+    parameter.put("id", 2);
+    try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
+      st.execute("UPDATE item SET name = 'uno' WHERE id = 1");
+    }
+    Map<String, Object> sameParameter = Collections.singletonMap("id", 1);
+    String name = "one";
+    long deadline = System.currentTimeMillis() + 5000;
+    while ("one".equals(name) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      try (SqlSession session = sqlSessionFactory.openSession()) {
+        name = session.getMapper(ItemMapper.class).selectName(sameParameter);
+      }
+    }
+    assertEquals("uno", name);
+  }
+
+  @Test
+  public void shouldNotRefreshEntriesWithoutLoader() {
+    AtomicLong time = new AtomicLong();
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default"));
+    cache.setClock(time::get);
+    cache.setTimeToLive(100);
+    cache.setRefreshAhead(0.5);
+    cache.setSweepInterval(60000);
+    cache.putObject(0, 0);
+    time.set(60);
+    assertEquals(0, cache.getObject(0));
+    time.set(120);
+    assertNull(cache.getObject(0));
+  }
+
+  @Test
+  public void shouldNotExpireValueThatIsBeingReplaced() {
+    AtomicLong time = new AtomicLong();
+    AtomicReference<ExpiringCache> expiring = new AtomicReference<>();
+    // 值写入后立即读取，模拟在 put 的过程中执行的过期操作
+    ExpiringCache cache = new ExpiringCache(new PerpetualCache("default") {
+      @Override
+      public void putObject(Object key, Object value) {
+        super.putObject(key, value);
+        expiring.get().getObject(key);
+      }
+    });
+    expiring.set(cache);
+    cache.setClock(time::get);
+    cache.setTimeToLive(100);
+    cache.setSweepInterval(60000);
+    cache.putObject(0, "old");
+    time.set(150);
+    cache.putObject(0, "new");
+    assertEquals("new", cache.getObject(0));
+  }
+
+}
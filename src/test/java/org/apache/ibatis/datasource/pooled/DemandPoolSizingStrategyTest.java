@@ -0,0 +1,58 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import org.junit.Test;
+
+public class DemandPoolSizingStrategyTest {
+
+  @Test
+  public void shouldGrowFasterWhenWaitTimeIncreases() {
+    PoolState state = new PoolState(new PooledDataSource());
+    DemandPoolSizingStrategy strategy = new DemandPoolSizingStrategy();
+    assertEquals(8, strategy.resize(state, 8));
+    state.hadToWaitCount = 2;
+    state.accumulatedWaitTime = 20;
+    assertEquals(10, strategy.resize(state, 8));
+    state.hadToWaitCount = 4;
+    state.accumulatedWaitTime = 30;
+    assertEquals(11, strategy.resize(state, 10));
+  }
+
+  @Test
+  public void shouldShrinkAfterQuietRunsButNotBelowActiveConnections() throws Exception {
+    PoolState state = new PoolState(new PooledDataSource());
+    DemandPoolSizingStrategy strategy = new DemandPoolSizingStrategy();
+    strategy.setQuietRunsBeforeShrink(2);
+    assertEquals(5, strategy.resize(state, 5));
+    assertEquals(4, strategy.resize(state, 5));
+    assertEquals(4, strategy.resize(state, 4));
+    assertEquals(3, strategy.resize(state, 4));
+    try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:sizing", "sa", "")) {
+      for (int i = 0; i < 3; i++) {
+        state.activeConnections.add(new PooledConnection(connection, null));
+      }
+      assertEquals(3, strategy.resize(state, 3));
+      assertEquals(3, strategy.resize(state, 3));
+    }
+  }
+
+}
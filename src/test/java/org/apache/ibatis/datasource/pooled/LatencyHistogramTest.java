@@ -0,0 +1,64 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldPlaceEveryValueInABucketThatContainsIt() {
+    long[] values = { 0, 1, 15, 16, 17, 100, 1000, 12345, 1L << 40, Long.MAX_VALUE };
+    for (long value : values) {
+      int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(LatencyHistogram.highestValueInBucket(index) >= value);
+      if (index > 0) {
+        assertTrue(LatencyHistogram.highestValueInBucket(index - 1) < value);
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportPercentilesWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1000, snapshot.getCount());
+    assertEquals(1000, snapshot.getMax());
+    assertEquals(500, snapshot.getMean());
+    assertBetween(500, snapshot.getP50(), 500 * 1.125);
+    assertBetween(990, snapshot.getP99(), 1000);
+    assertBetween(999, snapshot.getP999(), 1000);
+  }
+
+  @Test
+  public void shouldReturnZeroWhenEmpty() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getP99());
+    assertEquals(0, snapshot.getMean());
+  }
+
+  private void assertBetween(double lower, long actual, double upper) {
+    assertTrue(actual + " < " + lower, actual >= lower);
+    assertTrue(actual + " > " + upper, actual <= upper);
+  }
+
+}
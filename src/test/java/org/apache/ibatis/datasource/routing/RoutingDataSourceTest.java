@@ -0,0 +1,183 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.SelectKey;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RoutingDataSourceTest {
+
+  private static final String DRIVER = "org.hsqldb.jdbcDriver";
+
+  private PooledDataSource primary;
+  private PooledDataSource replica;
+  private RoutingDataSource dataSource;
+
+  public interface EndpointMapper {
+    @Select("SELECT name FROM endpoint")
+    String selectName();
+
+    @Update("UPDATE endpoint SET name = name")
+    int touch();
+
+    @Insert("INSERT INTO endpoint VALUES (#{name})")
+    @SelectKey(statement = "SELECT name FROM endpoint", keyProperty = "name", before = true, resultType = String.class)
+    int insertCopy(Map<String, Object> endpoint);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    primary = createEndpoint("routing_primary", "primary");
+    replica = createEndpoint("routing_replica", "replica");
+    dataSource = new RoutingDataSource(primary);
+    dataSource.addReplica(replica, 1);
+  }
+
+  @After
+  public void tearDown() {
+    dataSource.forceCloseAll();
+  }
+
+  @Test
+  public void shouldReadFromReplicaUntilTheFirstWrite() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(dataSource, true);
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      EndpointMapper mapper = session.getMapper(EndpointMapper.class);
+      assertEquals("replica", mapper.selectName());
+      assertEquals(1, mapper.touch());
+      session.clearCache();
+      assertEquals("primary", mapper.selectName());
+      session.commit();
+    }
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals("replica", session.getMapper(EndpointMapper.class).selectName());
+    }
+    assertEquals(0, primary.getPoolState().getActiveConnectionCount());
+    assertEquals(0, replica.getPoolState().getActiveConnectionCount());
+  }
+
+  @Test
+  public void shouldRunSelectKeyBeforeInsertOnPrimary() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(dataSource, true);
+    long replicaRequests = replica.getPoolState().getRequestCount();
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      Map<String, Object> endpoint = new HashMap<>();
+      assertEquals(1, session.getMapper(EndpointMapper.class).insertCopy(endpoint));
+      assertEquals("primary", endpoint.get("name"));
+      session.rollback();
+    }
+    assertEquals(replicaRequests, replica.getPoolState().getRequestCount());
+  }
+
+  @Test
+  public void shouldUsePrimaryWithoutInterceptor() {
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(dataSource, false);
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals("primary", session.getMapper(EndpointMapper.class).selectName());
+    }
+  }
+
+  @Test
+  public void shouldEjectReplicaThatCannotProvideConnections() {
+    PooledDataSource broken = new PooledDataSource(DRIVER, "jdbc:hsqldb:hsql://localhost:1/none", "sa", "");
+    RoutingDataSource routing = new RoutingDataSource(primary);
+    ReplicaEndpoint brokenEndpoint = routing.addReplica(broken, 1);
+    routing.setEjectionThreshold(1);
+    SqlSessionFactory sqlSessionFactory = createSqlSessionFactory(routing, true);
+    for (int i = 0; i < 3; i++) {
+      try (SqlSession session = sqlSessionFactory.openSession()) {
+        assertEquals("primary", session.getMapper(EndpointMapper.class).selectName());
+      }
+    }
+    assertTrue(brokenEndpoint.isEjected());
+    assertEquals(1, brokenEndpoint.getConsecutiveFailures());
+    // 加入可用的从库后，被剔除的从库不会再被选中
+    routing.addReplica(replica, 100);
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals("replica", session.getMapper(EndpointMapper.class).selectName());
+    }
+    assertEquals(1, brokenEndpoint.getConsecutiveFailures());
+  }
+
+  @Test
+  public void shouldCreateReplicasFromFactoryProperties() {
+    Properties props = new Properties();
+    props.setProperty("driver", DRIVER);
+    props.setProperty("url", "jdbc:hsqldb:mem:routing_primary");
+    props.setProperty("username", "sa");
+    props.setProperty("poolMaximumActiveConnections", "7");
+    props.setProperty("ejectionTime", "1000");
+    props.setProperty("replica.r1.url", "jdbc:hsqldb:mem:routing_replica");
+    props.setProperty("replica.r2.url", "jdbc:hsqldb:mem:routing_replica");
+    props.setProperty("replica.r2.poolMaximumActiveConnections", "3");
+    props.setProperty("replica.r2.weight", "2");
+    RoutingDataSourceFactory factory = new RoutingDataSourceFactory();
+    factory.setProperties(props);
+    RoutingDataSource routing = (RoutingDataSource) factory.getDataSource();
+    assertEquals("jdbc:hsqldb:mem:routing_primary", routing.getPrimary().getUrl());
+    assertEquals(1000L, routing.getEjectionTime());
+    assertEquals(2, routing.getReplicas().size());
+    int totalWeight = 0;
+    for (ReplicaEndpoint endpoint : routing.getReplicas()) {
+      PooledDataSource ds = endpoint.getDataSource();
+      assertEquals("jdbc:hsqldb:mem:routing_replica", ds.getUrl());
+      assertEquals("sa", ds.getUsername());
+      assertEquals(endpoint.getWeight() == 2 ? 3 : 7, ds.getPoolMaximumActiveConnections());
+      totalWeight += endpoint.getWeight();
+    }
+    assertEquals(3, totalWeight);
+  }
+
+  private static PooledDataSource createEndpoint(String database, String name) throws Exception {
+    PooledDataSource ds = new PooledDataSource(DRIVER, "jdbc:hsqldb:mem:" + database, "sa", "");
+    try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+      st.execute("DROP TABLE endpoint IF EXISTS");
+      st.execute("CREATE TABLE endpoint (name VARCHAR(20))");
+      st.execute("INSERT INTO endpoint VALUES ('" + name + "')");
+    }
+    return ds;
+  }
+
+  private static SqlSessionFactory createSqlSessionFactory(RoutingDataSource dataSource, boolean withInterceptor) {
+    Configuration configuration = new Configuration(new Environment("routing", new JdbcTransactionFactory(), dataSource));
+    if (withInterceptor) {
+      configuration.addInterceptor(new RoutingInterceptor());
+    }
+    configuration.addMapper(EndpointMapper.class);
+    return new SqlSessionFactoryBuilder().build(configuration);
+  }
+
+}
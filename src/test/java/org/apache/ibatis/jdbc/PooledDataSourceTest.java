@@ -17,17 +17,31 @@ package org.apache.ibatis.jdbc;
 
 import static org.junit.Assert.*;
 
+import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ibatis.BaseDataTest;
+import org.apache.ibatis.datasource.pooled.DemandPoolSizingStrategy;
+import org.apache.ibatis.datasource.pooled.PoolEngine;
+import org.apache.ibatis.datasource.pooled.PoolSnapshot;
 import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.hsqldb.jdbc.JDBCConnection;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -75,6 +89,402 @@ public class PooledDataSourceTest extends BaseDataTest {
     }
   }
 
+  @Test
+  public void shouldProperlyMaintainPoolWithConcurrentEngine() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolEngine(PoolEngine.CONCURRENT);
+      ds.setPoolMaximumActiveConnections(3);
+      ds.setPoolMaximumIdleConnections(2);
+      List<Connection> connections = new ArrayList<Connection>();
+      for (int i = 0; i < 3; i++) {
+        connections.add(ds.getConnection());
+      }
+      assertEquals(3, ds.getPoolState().getActiveConnectionCount());
+      for (Connection c : connections) {
+        c.close();
+      }
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(3, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      assertEquals(0, ds.getPoolState().getHadToWaitCount());
+      // closing twice must not return the connection to the pool again
+      connections.get(0).close();
+      assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+      assertEquals(1, ds.getPoolState().getBadConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+    assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+  }
+
+  @Test
+  public void shouldHandOffConnectionsToWaitingThreadsWithConcurrentEngine() throws Exception {
+    final PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      ds.setPoolEngine(PoolEngine.CONCURRENT);
+      ds.setPoolMaximumActiveConnections(2);
+      ds.setPoolMaximumIdleConnections(2);
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            for (int j = 0; j < 20; j++) {
+              Connection c = ds.getConnection();
+              assertTrue(ds.getPoolState().getActiveConnectionCount() <= 2);
+              c.close();
+            }
+            return 20;
+          }
+        }));
+      }
+      for (Future<Integer> result : results) {
+        assertEquals(Integer.valueOf(20), result.get(30, TimeUnit.SECONDS));
+      }
+      assertEquals(160, ds.getPoolState().getRequestCount());
+      assertEquals(0, ds.getPoolState().getActiveConnectionCount());
+      assertEquals(0, ds.getPoolState().getClaimedOverdueConnectionCount());
+    } finally {
+      executor.shutdownNow();
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldClaimOverdueConnectionWithConcurrentEngine() throws Exception {
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolEngine(PoolEngine.CONCURRENT);
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolMaximumCheckoutTime(10);
+      Connection leaked = ds.getConnection();
+      Thread.sleep(20);
+      Connection c = ds.getConnection();
+      assertEquals(1, ds.getPoolState().getClaimedOverdueConnectionCount());
+      try {
+        leaked.createStatement();
+        fail("The overdue connection should have been invalidated.");
+      } catch (SQLException e) {
+        // expected
+      }
+      leaked.close();
+      c.close();
+      assertEquals(1, ds.getPoolState().getIdleConnectionCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldHandBackLastReturnedConnectionWhenThreadAffinityIsEnabled() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolThreadAffinityEnabled(true);
+        Connection c1 = ds.getConnection();
+        Connection c2 = ds.getConnection();
+        Connection realConnection = PooledDataSource.unwrapConnection(c1);
+        c2.close();
+        c1.close();
+        for (int i = 0; i < 5; i++) {
+          Connection c = ds.getConnection();
+          assertSame(realConnection, PooledDataSource.unwrapConnection(c));
+          c.close();
+        }
+        assertEquals(5, ds.getPoolState().getAffinityHitCount());
+        assertEquals(2, ds.getPoolState().getAffinityMissCount());
+        assertEquals(5.0 / 7, ds.getPoolState().getAffinityHitRatio(), 0.0001);
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldPrefillAndEvictIdleConnectionsInBackground() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolMinimumIdleConnections(2);
+        ds.setPoolMaximumLifetime(100);
+        ds.setPoolPingEnabled(true);
+        ds.setPoolPingQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        ds.setPoolHousekeepingInterval(20);
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((ds.getPoolState().getIdleConnectionCount() < 2 || ds.getPoolState().getEvictedConnectionCount() < 2)
+            && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        assertTrue(ds.getPoolState().getEvictedConnectionCount() >= 2);
+        try (Connection c = ds.getConnection();
+             PreparedStatement st = c.prepareStatement("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+             ResultSet rs = st.executeQuery()) {
+          assertTrue(rs.next());
+        }
+        assertEquals(0, ds.getPoolState().getBadConnectionCount());
+      } finally {
+        ds.setPoolHousekeepingInterval(0);
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportConnectionsHeldLongerThanLeakDetectionThreshold() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolLeakDetectionThreshold(20);
+        ds.setPoolLeakDetectionSampleInterval(1);
+        try (Connection c = ds.getConnection()) {
+          long deadline = System.currentTimeMillis() + 5000;
+          while (ds.getPoolState().getLeakedConnectionCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+          }
+          assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+          // 同一次借出只报告一次
+          Thread.sleep(100);
+          assertEquals(1, ds.getPoolState().getLeakedConnectionCount());
+          // 只报告，不回收连接
+          assertFalse(c.isClosed());
+        }
+      } finally {
+        ds.setPoolLeakDetectionThreshold(0);
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldWarmUpMinimumIdleConnectionsWhenEnvironmentIsBuilt() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolMaximumActiveConnections(4);
+        ds.setPoolMaximumIdleConnections(4);
+        ds.setPoolMinimumIdleConnections(3);
+        new Environment.Builder("test").transactionFactory(new JdbcTransactionFactory()).dataSource(ds).build();
+        assertEquals(3, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(3, ds.getPoolState().getWarmUpConnectionCount());
+        assertEquals(0, ds.warmUp());
+        Connection c = ds.getConnection();
+        assertEquals(2, ds.getPoolState().getIdleConnectionCount());
+        c.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldNotCreateIdleConnectionsBeyondTheMaximum() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolMaximumActiveConnections(2);
+        ds.setPoolMaximumIdleConnections(2);
+        ds.setPoolMinimumIdleConnections(2);
+        Connection c1 = ds.getConnection();
+        Connection c2 = ds.getConnection();
+        // 后台线程算出缺少的空闲连接之后，借出连接的线程占满了连接池
+        Method createIdleConnection = PooledDataSource.class.getDeclaredMethod("createIdleConnection");
+        createIdleConnection.setAccessible(true);
+        assertFalse((Boolean) createIdleConnection.invoke(ds));
+        assertEquals(0, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(2, ds.getPoolState().getActiveConnectionCount());
+        c1.close();
+        c2.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldRecordLatencyHistograms() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolMaximumActiveConnections(1);
+        ds.setPoolMaximumCheckoutTime(10);
+        ds.setPoolTimeToWait(5);
+        Connection c1 = ds.getConnection();
+        Thread.sleep(20);
+        Connection c2 = ds.getConnection();
+        c2.close();
+        PoolSnapshot snapshot = ds.getPoolState().snapshot();
+        assertEquals(1, snapshot.getCreationTime().getCount());
+        assertEquals(2, snapshot.getCheckoutTime().getCount());
+        assertTrue(snapshot.getCheckoutTime().getMax() >= 20);
+        assertEquals(0, snapshot.getWaitTime().getCount());
+        assertEquals(0, snapshot.getActiveConnectionCount());
+        assertEquals(1, snapshot.getIdleConnectionCount());
+        assertNotNull(snapshot.toString());
+        c1.close();
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldReusePreparedStatementsAcrossCheckouts() throws Exception {
+    final String sql = "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+    PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+    try {
+      ds.setPoolMaximumActiveConnections(1);
+      ds.setPoolPreparedStatementCacheSize(2);
+      try (Connection c = ds.getConnection()) {
+        PreparedStatement st = c.prepareStatement(sql);
+        st.setMaxRows(1);
+        ResultSet rs = st.executeQuery();
+        st.close();
+        assertTrue(st.isClosed());
+        // 关闭语句时同时关闭它的结果集
+        assertTrue(rs.isClosed());
+        try {
+          st.executeQuery();
+          fail("A closed statement should not be usable.");
+        } catch (SQLException e) {
+          // expected
+        }
+      }
+      try (Connection c = ds.getConnection();
+           PreparedStatement st = c.prepareStatement(sql)) {
+        assertFalse(st.isClosed());
+        assertEquals(0, st.getMaxRows());
+        try (ResultSet rs = st.executeQuery()) {
+          assertTrue(rs.next());
+        }
+        try (PreparedStatement other = c.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
+          assertNotNull(other);
+        }
+      }
+      assertEquals(1, ds.getPoolState().getStatementCacheHitCount());
+      assertEquals(2, ds.getPoolState().getStatementCacheMissCount());
+    } finally {
+      ds.forceCloseAll();
+    }
+  }
+
+  @Test
+  public void shouldConfigurePoolEngineThroughFactory() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolEngine", "concurrent");
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    assertEquals(PoolEngine.CONCURRENT, ds.getPoolEngine());
+  }
+
+  @Test
+  public void shouldRollBackOnlyDirtyConnectionsWhenTrackingConnectionState() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolTrackConnectionState(true);
+        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+          st.execute("DROP TABLE track_state IF EXISTS");
+          st.execute("CREATE TABLE track_state (id INT)");
+        }
+        try (Connection c = ds.getConnection()) {
+          c.setAutoCommit(false);
+          c.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+          try (Statement st = c.createStatement()) {
+            st.executeUpdate("INSERT INTO track_state VALUES (1)");
+          }
+        }
+        try (Connection c = ds.getConnection()) {
+          assertFalse(c.getAutoCommit());
+          assertEquals(Connection.TRANSACTION_SERIALIZABLE, c.getTransactionIsolation());
+          assertEquals(PooledDataSource.unwrapConnection(c).getTransactionIsolation(), c.getTransactionIsolation());
+          try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM track_state")) {
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+          }
+          c.setAutoCommit(true);
+          c.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+          try (Statement st = c.createStatement()) {
+            st.execute("DROP TABLE track_state");
+          }
+        }
+      } finally {
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldResizePoolWithinConfiguredBounds() throws Exception {
+    for (PoolEngine engine : PoolEngine.values()) {
+      PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
+      final AtomicInteger target = new AtomicInteger(4);
+      try {
+        ds.setPoolEngine(engine);
+        ds.setPoolMaximumActiveConnections(4);
+        ds.setPoolMaximumIdleConnections(4);
+        ds.setPoolHousekeepingInterval(20);
+        ds.setPoolSizingStrategy((state, current) -> target.get());
+        List<Connection> connections = new ArrayList<Connection>();
+        for (int i = 0; i < 4; i++) {
+          connections.add(ds.getConnection());
+        }
+        for (Connection c : connections) {
+          c.close();
+        }
+        assertEquals(4, ds.getPoolState().getIdleConnectionCount());
+        assertEquals(4, ds.getCurrentMaximumActiveConnections());
+        target.set(0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((ds.getCurrentMaximumActiveConnections() != 1 || ds.getPoolState().getEvictedConnectionCount() < 3)
+            && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertEquals(1, ds.getCurrentMaximumActiveConnections());
+        assertEquals(1, ds.getCurrentMaximumIdleConnections());
+        assertTrue(ds.getPoolState().getIdleConnectionCount() <= 1);
+        // 缩小时关闭的空闲连接计入淘汰数
+        assertEquals(3, ds.getPoolState().getEvictedConnectionCount());
+        target.set(100);
+        deadline = System.currentTimeMillis() + 5000;
+        while (ds.getCurrentMaximumActiveConnections() != 4 && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10);
+        }
+        assertEquals(4, ds.getCurrentMaximumActiveConnections());
+        assertEquals(4, ds.getCurrentMaximumIdleConnections());
+      } finally {
+        ds.setPoolSizingStrategy(null);
+        ds.setPoolHousekeepingInterval(0);
+        ds.forceCloseAll();
+      }
+    }
+  }
+
+  @Test
+  public void shouldConfigurePoolSizingStrategyThroughFactory() throws Exception {
+    Properties props = Resources.getResourceAsProperties(JPETSTORE_PROPERTIES);
+    props.setProperty("poolSizingStrategy", DemandPoolSizingStrategy.class.getName());
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(props);
+    PooledDataSource ds = (PooledDataSource) factory.getDataSource();
+    try {
+      assertTrue(ds.getPoolSizingStrategy() instanceof DemandPoolSizingStrategy);
+    } finally {
+      ds.setPoolSizingStrategy(null);
+    }
+  }
+
   @Test
   public void shouldNotFailCallingToStringOverAnInvalidConnection() throws Exception {
     PooledDataSource ds = createPooledDataSource(JPETSTORE_PROPERTIES);
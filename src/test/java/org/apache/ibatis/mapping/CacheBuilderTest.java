@@ -18,6 +18,10 @@ package org.apache.ibatis.mapping;
 import org.apache.ibatis.builder.InitializingObject;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheException;
+import org.apache.ibatis.cache.decorators.LoggingCache;
+import org.apache.ibatis.cache.decorators.LruCache;
+import org.apache.ibatis.cache.decorators.SerializedCache;
+import org.apache.ibatis.cache.impl.ConcurrentCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
@@ -43,6 +47,19 @@ public class CacheBuilderTest {
       .hasMessage("Failed cache initialization for 'test' on 'org.apache.ibatis.mapping.CacheBuilderTest$InitializingFailureCache'");
   }
 
+  @Test
+  public void testConcurrentCacheIsNotSynchronized() throws Exception {
+    Cache cache = new CacheBuilder("test").implementation(ConcurrentCache.class).addDecorator(LruCache.class)
+        .size(10).readWrite(true).build();
+    Assertions.assertThat(cache).isInstanceOf(LoggingCache.class);
+    SerializedCache serializedCache = unwrap(cache);
+    ConcurrentCache concurrentCache = unwrap(serializedCache);
+    for (int i = 0; i < 20; i++) {
+      cache.putObject(i, i);
+    }
+    Assertions.assertThat(concurrentCache.getSize()).isEqualTo(10);
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T unwrap(Cache cache){
     Field field;
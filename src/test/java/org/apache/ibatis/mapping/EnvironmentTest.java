@@ -0,0 +1,56 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.datasource.WarmableDataSource;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.Test;
+
+public class EnvironmentTest {
+
+  @Test
+  public void shouldWarmUpAnyWarmableDataSourceWhenBuilt() {
+    WarmableUnpooledDataSource dataSource = new WarmableUnpooledDataSource();
+    Environment environment = new Environment.Builder("test").transactionFactory(new JdbcTransactionFactory())
+        .dataSource(dataSource).build();
+    assertSame(dataSource, environment.getDataSource());
+    assertEquals(1, dataSource.warmUps.get());
+  }
+
+  @Test
+  public void shouldBuildWithDataSourcesThatCannotBeWarmedUp() {
+    UnpooledDataSource dataSource = new UnpooledDataSource();
+    Environment environment = new Environment.Builder("test").transactionFactory(new JdbcTransactionFactory())
+        .dataSource(dataSource).build();
+    assertSame(dataSource, environment.getDataSource());
+  }
+
+  private static class WarmableUnpooledDataSource extends UnpooledDataSource implements WarmableDataSource {
+    private final AtomicInteger warmUps = new AtomicInteger();
+
+    @Override
+    public int warmUp() {
+      warmUps.incrementAndGet();
+      return 0;
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/**
+ *    Copyright 2009-2018 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.parsing;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class TableNameParserTest {
+
+  @Test
+  public void shouldFindReadTables() {
+    Assertions.assertThat(TableNameParser.parseReadTables("SELECT * FROM author WHERE id = ?"))
+        .containsExactly("author");
+    Assertions.assertThat(TableNameParser.parseReadTables(
+        "select b.id, a.username from blog b, comment c left outer join author a on b.author_id = a.id where c.blog_id = b.id"))
+        .containsExactly("blog", "comment", "author");
+    Assertions.assertThat(TableNameParser.parseReadTables("select * from dbo.\"Post\" as p, `tag` t"))
+        .containsExactly("post", "tag");
+    Assertions.assertThat(TableNameParser.parseReadTables(
+        "select * from (select * from post where subject = 'from audit') x join [tag] on 1 = 1 -- from log"))
+        .containsExactly("post", "tag");
+    Assertions.assertThat(TableNameParser.parseReadTables("select 1")).isEmpty();
+    Assertions.assertThat(TableNameParser.parseWrittenTables("select * from author for update")).isEmpty();
+  }
+
+  @Test
+  public void shouldFindWrittenTables() {
+    Assertions.assertThat(TableNameParser.parseWrittenTables("INSERT INTO audit_log (id, msg) VALUES (?, ?)"))
+        .containsExactly("audit_log");
+    Assertions.assertThat(TableNameParser.parseWrittenTables("update author set bio = ? where id = ?"))
+        .containsExactly("author");
+    Assertions.assertThat(TableNameParser.parseWrittenTables("delete from comment where post_id in (select id from post)"))
+        .containsExactly("comment");
+    Assertions.assertThat(TableNameParser.parseReadTables("delete from comment where post_id in (select id from post)"))
+        .containsExactly("post");
+    Assertions.assertThat(TableNameParser.parseWrittenTables(
+        "insert into author (id) values (?) on duplicate key update id = id")).containsExactly("author");
+    Assertions.assertThat(TableNameParser.parseWrittenTables("{call reset_author(?)}")).isEmpty();
+  }
+
+  @Test
+  public void shouldNormalizeDeclaredTableNames() {
+    Assertions.assertThat(TableNameParser.normalizeTableName(" App.Author ")).isEqualTo("author");
+    Assertions.assertThat(TableNameParser.normalizeTableName("dbo.[Post]")).isEqualTo("post");
+    Assertions.assertThat(TableNameParser.normalizeTableName("`tag`")).isEqualTo("tag");
+  }
+
+}